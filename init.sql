@@ -94,6 +94,43 @@ CREATE TABLE public.players (
     tekken_power bigint
 );
 
+CREATE TABLE public.battle_coverage (
+    window_start bigint NOT NULL,
+    stored_count integer NOT NULL DEFAULT 0,
+    reported_count integer,
+    reported_at timestamp without time zone
+);
+
+CREATE TABLE public.battle_coverage_seed (
+    id integer NOT NULL,
+    seeded_at timestamp without time zone NOT NULL
+);
+
+CREATE TABLE public.pending_player_handoffs (
+    battle_id character varying NOT NULL,
+    partition integer NOT NULL,
+    created_at timestamp without time zone NOT NULL DEFAULT now()
+);
+
+CREATE TABLE public.pending_battle_derivations (
+    seq bigserial NOT NULL,
+    battle_id character varying NOT NULL,
+    ranked boolean NOT NULL,
+    created_at timestamp without time zone NOT NULL DEFAULT now(),
+    attempts integer NOT NULL DEFAULT 0,
+    last_error text,
+    parked_at timestamp without time zone
+);
+
+CREATE TABLE public.ingestion_cursor (
+    cursor_name character varying NOT NULL,
+    fetch_timestamp bigint NOT NULL,
+    lower_bound bigint NOT NULL DEFAULT 0,
+    upper_bound bigint NOT NULL DEFAULT 0,
+    fetching_new_replays boolean NOT NULL DEFAULT false,
+    updated_at timestamp without time zone
+);
+
 CREATE TABLE public.tekken_stats_summary (
     id integer NOT NULL,
     total_replays bigint DEFAULT 0,
@@ -101,6 +138,12 @@ CREATE TABLE public.tekken_stats_summary (
     total_unranked_replays int DEFAULT 0
 );
 
+CREATE TABLE public.tekken_stats_summary_stripes (
+    stripe integer NOT NULL,
+    ranked_replays bigint NOT NULL DEFAULT 0,
+    unranked_replays bigint NOT NULL DEFAULT 0
+);
+
 -- Default values
 ALTER TABLE ONLY public.past_player_names ALTER COLUMN id SET DEFAULT nextval('public.past_player_names_id_seq'::regclass);
 
@@ -114,6 +157,21 @@ ALTER TABLE ONLY public.battles
 ALTER TABLE ONLY public.character_stats
     ADD CONSTRAINT character_stats_pkey PRIMARY KEY (player_id, character_id, game_version);
 
+ALTER TABLE ONLY public.battle_coverage
+    ADD CONSTRAINT battle_coverage_pkey PRIMARY KEY (window_start);
+
+ALTER TABLE ONLY public.battle_coverage_seed
+    ADD CONSTRAINT battle_coverage_seed_pkey PRIMARY KEY (id);
+
+ALTER TABLE ONLY public.ingestion_cursor
+    ADD CONSTRAINT ingestion_cursor_pkey PRIMARY KEY (cursor_name);
+
+ALTER TABLE ONLY public.pending_player_handoffs
+    ADD CONSTRAINT pending_player_handoffs_pkey PRIMARY KEY (battle_id);
+
+ALTER TABLE ONLY public.pending_battle_derivations
+    ADD CONSTRAINT pending_battle_derivations_pkey PRIMARY KEY (seq);
+
 ALTER TABLE ONLY public.past_player_names
     ADD CONSTRAINT past_player_names_pkey PRIMARY KEY (id);
 
@@ -126,8 +184,12 @@ ALTER TABLE ONLY public.players
 ALTER TABLE ONLY public.tekken_stats_summary
     ADD CONSTRAINT tekken_stats_summary_pkey PRIMARY KEY (id);
 
+ALTER TABLE ONLY public.tekken_stats_summary_stripes
+    ADD CONSTRAINT tekken_stats_summary_stripes_pkey PRIMARY KEY (stripe);
+
 -- Indexes
 CREATE INDEX idx_battle_at ON public.battles USING btree (battle_at);
+CREATE INDEX idx_battle_type_battle_at ON public.battles USING btree (battle_type, battle_at);
 CREATE INDEX idx_name ON public.players USING btree (name);
 CREATE INDEX idx_player1_id ON public.battles USING btree (player1_id);
 CREATE INDEX idx_player2_id ON public.battles USING btree (player2_id);
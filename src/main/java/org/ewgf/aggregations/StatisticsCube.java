@@ -0,0 +1,279 @@
+package org.ewgf.aggregations;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Character statistics as dense primitive arrays indexed by game version, character, dan rank, region and category.
+// A cube is immutable once built, so readers can share one without locking and a new one is swapped in whole.
+// Game versions, character ids and region ids are mapped to indexes in ascending order; dan ranks are their own index.
+public final class StatisticsCube {
+
+    public static final int STANDARD = 0;
+    public static final int OVERALL = 1;
+    public static final int ALL = -1; // in place of a character or region index, sums over all of them
+
+    private static final int CATEGORIES = 2;
+    private static final StatisticsCube EMPTY = new Builder().build();
+
+    public enum Measure { WINS, LOSSES, REPLAYS, PLAYERS }
+
+    private final int[] gameVersions;
+    private final String[] characterIds;
+    private final int[] regionIds;
+    private final int danRankCount;
+    private final long[][] measures;
+    private final boolean[] present;
+
+    private StatisticsCube(int[] gameVersions, String[] characterIds, int[] regionIds, int danRankCount) {
+        this.gameVersions = gameVersions;
+        this.characterIds = characterIds;
+        this.regionIds = regionIds;
+        this.danRankCount = danRankCount;
+        int cells = gameVersions.length * characterIds.length * danRankCount * regionIds.length * CATEGORIES;
+        this.measures = new long[Measure.values().length][cells];
+        this.present = new boolean[cells];
+    }
+
+    public static StatisticsCube empty() {
+        return EMPTY;
+    }
+
+    public int getGameVersionCount() {
+        return gameVersions.length;
+    }
+
+    public int getGameVersion(int version) {
+        return gameVersions[version];
+    }
+
+    // -1 when the cube has no cells for gameVersion
+    public int indexOfGameVersion(int gameVersion) {
+        int index = Arrays.binarySearch(gameVersions, gameVersion);
+        return index < 0 ? -1 : index;
+    }
+
+    public int getCharacterCount() {
+        return characterIds.length;
+    }
+
+    public String getCharacterId(int character) {
+        return characterIds[character];
+    }
+
+    public int getRegionCount() {
+        return regionIds.length;
+    }
+
+    public int getRegionId(int region) {
+        return regionIds[region];
+    }
+
+    public int getDanRankCount() {
+        return danRankCount;
+    }
+
+    public boolean isEmpty() {
+        return present.length == 0;
+    }
+
+    // Sum of measure over dan ranks danFrom..danTo, for one character or region index or ALL of them
+    public long sum(Measure measure, int version, int character, int danFrom, int danTo, int region, int category) {
+        long[] values = measures[measure.ordinal()];
+        long total = 0;
+        int fromCharacter = character == ALL ? 0 : character;
+        int toCharacter = character == ALL ? characterIds.length - 1 : character;
+        int fromRegion = region == ALL ? 0 : region;
+        int toRegion = region == ALL ? regionIds.length - 1 : region;
+        int lastDan = Math.min(danTo, danRankCount - 1);
+        for (int c = fromCharacter; c <= toCharacter; c++) {
+            for (int d = Math.max(0, danFrom); d <= lastDan; d++) {
+                for (int r = fromRegion; r <= toRegion; r++) {
+                    total += values[index(version, c, d, r, category)];
+                }
+            }
+        }
+        return total;
+    }
+
+    // Whether any cell in the range was loaded, even with zero counts
+    public boolean isPresent(int version, int character, int danFrom, int danTo, int region, int category) {
+        int fromCharacter = character == ALL ? 0 : character;
+        int toCharacter = character == ALL ? characterIds.length - 1 : character;
+        int fromRegion = region == ALL ? 0 : region;
+        int toRegion = region == ALL ? regionIds.length - 1 : region;
+        int lastDan = Math.min(danTo, danRankCount - 1);
+        for (int c = fromCharacter; c <= toCharacter; c++) {
+            for (int d = Math.max(0, danFrom); d <= lastDan; d++) {
+                for (int r = fromRegion; r <= toRegion; r++) {
+                    if (present[index(version, c, d, r, category)]) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int index(int version, int character, int danRank, int region, int category) {
+        return (((version * characterIds.length + character) * danRankCount + danRank) * regionIds.length + region)
+                * CATEGORIES + category;
+    }
+
+    // Adds cells in any order, summing the ones that repeat. Cells are kept in an open-addressing table keyed by one
+    // long, so the builder grows with the number of distinct cells and not with the number of rows added.
+    public static final class Builder {
+
+        private static final int MAX_VERSIONS = 1 << 16;
+        private static final int MAX_CHARACTERS = 1 << 12;
+        private static final int MAX_DAN_RANK = (1 << 16) - 1;
+        private static final int MAX_REGIONS = 1 << 11;
+
+        private final Map<Integer, Integer> versionIndexes = new HashMap<>();
+        private final Map<String, Integer> characterIndexes = new HashMap<>();
+        private final Map<Integer, Integer> regionIndexes = new HashMap<>();
+        private int[] versionValues = new int[8];
+        private String[] characterValues = new String[64];
+        private int[] regionValues = new int[16];
+        private int maxDanRank = -1;
+
+        private int cellCount;
+        private long[] keys = new long[256];
+        private long[][] values = new long[Measure.values().length][256];
+        private int[] table = newTable(512);
+
+        public Builder add(int gameVersion, String characterId, int danRank, int regionId, int category,
+                           long wins, long losses, long replays, long players) {
+            if (danRank < 0 || danRank > MAX_DAN_RANK) {
+                throw new IllegalArgumentException("Dan rank " + danRank + " out of range");
+            }
+            if (category != STANDARD && category != OVERALL) {
+                throw new IllegalArgumentException("Unknown category " + category);
+            }
+            long key = ((long) versionIndex(gameVersion) << 40) | ((long) characterIndex(characterId) << 28)
+                    | ((long) danRank << 12) | ((long) regionIndex(regionId) << 1) | category;
+            maxDanRank = Math.max(maxDanRank, danRank);
+
+            int cell = findOrAddCell(key);
+            values[Measure.WINS.ordinal()][cell] += wins;
+            values[Measure.LOSSES.ordinal()][cell] += losses;
+            values[Measure.REPLAYS.ordinal()][cell] += replays;
+            values[Measure.PLAYERS.ordinal()][cell] += players;
+            return this;
+        }
+
+        public StatisticsCube build() {
+            int[] versionOrder = sortedOrder(versionValues, versionIndexes.size());
+            int[] regionOrder = sortedOrder(regionValues, regionIndexes.size());
+            String[] characters = Arrays.copyOf(characterValues, characterIndexes.size());
+            Arrays.sort(characters);
+            int[] characterOrder = new int[characters.length];
+            for (int i = 0; i < characters.length; i++) {
+                characterOrder[characterIndexes.get(characters[i])] = i;
+            }
+
+            int[] versions = new int[versionOrder.length];
+            for (int i = 0; i < versionOrder.length; i++) versions[versionOrder[i]] = versionValues[i];
+            int[] regions = new int[regionOrder.length];
+            for (int i = 0; i < regionOrder.length; i++) regions[regionOrder[i]] = regionValues[i];
+
+            StatisticsCube cube = new StatisticsCube(versions, characters, regions, maxDanRank + 1);
+            for (int cell = 0; cell < cellCount; cell++) {
+                long key = keys[cell];
+                int index = cube.index(
+                        versionOrder[(int) (key >>> 40)],
+                        characterOrder[(int) (key >>> 28) & (MAX_CHARACTERS - 1)],
+                        (int) (key >>> 12) & MAX_DAN_RANK,
+                        regionOrder[(int) (key >>> 1) & (MAX_REGIONS - 1)],
+                        (int) key & 1);
+                cube.present[index] = true;
+                for (int measure = 0; measure < values.length; measure++) {
+                    cube.measures[measure][index] = values[measure][cell];
+                }
+            }
+            return cube;
+        }
+
+        private int versionIndex(int gameVersion) {
+            Integer index = versionIndexes.get(gameVersion);
+            if (index != null) return index;
+            int next = versionIndexes.size();
+            if (next == MAX_VERSIONS) throw new IllegalStateException("Too many game versions");
+            if (next == versionValues.length) versionValues = Arrays.copyOf(versionValues, next * 2);
+            versionValues[next] = gameVersion;
+            versionIndexes.put(gameVersion, next);
+            return next;
+        }
+
+        private int characterIndex(String characterId) {
+            Integer index = characterIndexes.get(characterId);
+            if (index != null) return index;
+            int next = characterIndexes.size();
+            if (next == MAX_CHARACTERS) throw new IllegalStateException("Too many characters");
+            if (next == characterValues.length) characterValues = Arrays.copyOf(characterValues, next * 2);
+            characterValues[next] = characterId;
+            characterIndexes.put(characterId, next);
+            return next;
+        }
+
+        private int regionIndex(int regionId) {
+            Integer index = regionIndexes.get(regionId);
+            if (index != null) return index;
+            int next = regionIndexes.size();
+            if (next == MAX_REGIONS) throw new IllegalStateException("Too many regions");
+            if (next == regionValues.length) regionValues = Arrays.copyOf(regionValues, next * 2);
+            regionValues[next] = regionId;
+            regionIndexes.put(regionId, next);
+            return next;
+        }
+
+        private int findOrAddCell(long key) {
+            int mask = table.length - 1;
+            int slot = mix(key) & mask;
+            while (table[slot] >= 0) {
+                if (keys[table[slot]] == key) return table[slot];
+                slot = (slot + 1) & mask;
+            }
+
+            if (cellCount == keys.length) {
+                keys = Arrays.copyOf(keys, cellCount * 2);
+                for (int measure = 0; measure < values.length; measure++) {
+                    values[measure] = Arrays.copyOf(values[measure], cellCount * 2);
+                }
+            }
+            int cell = cellCount++;
+            keys[cell] = key;
+            table[slot] = cell;
+            if (cellCount * 2 > table.length) rehash();
+            return cell;
+        }
+
+        private void rehash() {
+            table = newTable(table.length * 2);
+            int mask = table.length - 1;
+            for (int cell = 0; cell < cellCount; cell++) {
+                int slot = mix(keys[cell]) & mask;
+                while (table[slot] >= 0) slot = (slot + 1) & mask;
+                table[slot] = cell;
+            }
+        }
+
+        // For each insertion index, its position once the values are sorted ascending
+        private static int[] sortedOrder(int[] values, int count) {
+            int[] sorted = Arrays.copyOf(values, count);
+            Arrays.sort(sorted);
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) order[i] = Arrays.binarySearch(sorted, values[i]);
+            return order;
+        }
+
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+
+        private static int[] newTable(int size) {
+            int[] table = new int[size];
+            Arrays.fill(table, -1);
+            return table;
+        }
+    }
+}
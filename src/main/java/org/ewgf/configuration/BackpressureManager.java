@@ -1,99 +1,175 @@
 package org.ewgf.configuration;
 
-import lombok.Data;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.ewgf.services.InMemoryBattleTransport;
+import org.ewgf.utils.RequestRateLimiter;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
 
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
 
+// Adjusts the shared Wavu request rate from the battle queue depth with additive increase / multiplicative decrease,
+// slowing fetches down instead of stopping them outright.
 @Component
-@Data
+@Getter
 public class BackpressureManager {
 
-    @Value("${rabbitmq.management.api.url}")
-    private String rabbitMqApiUrl;
-
-    @Value("${rabbitmq.management.username}")
-    private String rabbitMqApiUsername;
+    private static final Logger logger = LogManager.getLogger(BackpressureManager.class);
 
-    @Value("${rabbitmq.management.password}")
-    private String rabbitMqApiPassword;
+    private final RabbitAdmin rabbitAdmin;
+    // Resolved when sampling, the in-memory transport itself reports to this manager
+    private final ObjectProvider<InMemoryBattleTransport> inMemoryTransport;
+    private final RequestRateLimiter wavuRateLimiter;
+    // The main queue first, then the partition queues, which hold all battles once partitioning is on
+    private final List<String> queueNames;
+    private final int targetQueueDepth;
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+    private final double decreaseFactor;
+
+    private final LongAdder publishedMessages = new LongAdder();
+    private final LongAdder consumedMessages = new LongAdder();
 
-    @Value("${rabbitmq.queue.name}")
-    private String queueName;
+    private volatile boolean manuallyActivated = false;
 
-    @Value("${backpressure.threshold}")
-    private int backpressureThreshold;
+    private volatile int queueDepth = 0;
+    private volatile double publishRate = 0;
+    private volatile double ackRate = 0;
+    private long lastSampleNanos = System.nanoTime();
+
+    public BackpressureManager(
+            RabbitAdmin rabbitAdmin,
+            ObjectProvider<InMemoryBattleTransport> inMemoryTransport,
+            RequestRateLimiter wavuRateLimiter,
+            MeterRegistry meterRegistry,
+            RabbitMQConfig rabbitMQConfig,
+            @Value("${backpressure.threshold}") int targetQueueDepth,
+            @Value("${wavu.flow.min-requests-per-second}") double minRate,
+            @Value("${wavu.flow.additive-increase}") double additiveIncrease,
+            @Value("${wavu.flow.decrease-factor}") double decreaseFactor) {
+        if (decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Decrease factor must be between 0 and 1, got: " + decreaseFactor);
+        }
+        this.rabbitAdmin = rabbitAdmin;
+        this.inMemoryTransport = inMemoryTransport;
+        this.wavuRateLimiter = wavuRateLimiter;
+        this.queueNames = sampledQueueNames(rabbitMQConfig);
+        this.targetQueueDepth = targetQueueDepth;
+        // The configured Wavu rate stays the ceiling, the controller only ever slows down from it
+        this.maxRate = wavuRateLimiter.getRate();
+        this.minRate = Math.min(minRate, maxRate);
+        this.additiveIncrease = additiveIncrease;
+        this.decreaseFactor = decreaseFactor;
+
+        Gauge.builder("wavu.flow.rate", wavuRateLimiter, RequestRateLimiter::getRate)
+                .description("Wavu requests per second currently allowed by the flow controller")
+                .register(meterRegistry);
+        Gauge.builder("rabbitmq.queue.depth", this, BackpressureManager::getQueueDepth)
+                .description("Messages waiting in the battle queues at the last sample")
+                .register(meterRegistry);
+        Gauge.builder("rabbitmq.queue.publish.rate", this, BackpressureManager::getPublishRate)
+                .description("Battle messages published per second over the last sample")
+                .register(meterRegistry);
+        Gauge.builder("rabbitmq.queue.ack.rate", this, BackpressureManager::getAckRate)
+                .description("Battle messages processed and acknowledged per second over the last sample")
+                .register(meterRegistry);
+    }
 
-    @Value("${backpressure.slowdown.factor}")
-    private int slowdownFactor;
+    // Queue depth comes from a passive declare of the main and partition queues, or from the in-memory transport,
+    // and the publish and ack rates are counted in-process, so no management API is involved.
+    // Below target the rate climbs by additiveIncrease, above target and still growing it is cut by decreaseFactor,
+    // and above target but draining it is left alone so it settles just under what the consumers can sustain.
+    @Scheduled(fixedRateString = "${wavu.flow.interval-millis}")
+    public synchronized void adjustFetchRate() {
+        long now = System.nanoTime();
+        double elapsedSeconds = Math.max(1e-3, (now - lastSampleNanos) / 1e9);
+        lastSampleNanos = now;
+        publishRate = publishedMessages.sumThenReset() / elapsedSeconds;
+        ackRate = consumedMessages.sumThenReset() / elapsedSeconds;
+
+        int previousDepth = queueDepth;
+        InMemoryBattleTransport memoryTransport = inMemoryTransport.getIfAvailable();
+        if (memoryTransport != null) {
+            queueDepth = memoryTransport.getPendingBatches();
+        } else {
+            Integer depth = readQueueDepth();
+            if (depth == null) return;
+            queueDepth = depth;
+        }
 
-    private volatile boolean backpressureActive = false;
+        // Nothing is being published during a manual pause, so the samples say nothing about the sustainable rate
+        if (manuallyActivated) return;
 
-    private volatile boolean manuallyActivated = false;
+        double rate = wavuRateLimiter.getRate();
+        double nextRate = rate;
+        if (queueDepth > targetQueueDepth && (queueDepth > previousDepth || publishRate > ackRate)) {
+            nextRate = Math.max(minRate, rate * decreaseFactor);
+        } else if (queueDepth <= targetQueueDepth) {
+            nextRate = Math.min(maxRate, rate + additiveIncrease);
+        }
 
-    private static final Logger logger = LogManager.getLogger(BackpressureManager.class);
+        if (nextRate != rate) {
+            wavuRateLimiter.setRate(nextRate);
+            logger.debug("Wavu fetch rate {} -> {} req/s (queue depth {}, publish {} msg/s, ack {} msg/s)",
+                    String.format("%.2f", rate), String.format("%.2f", nextRate), queueDepth,
+                    String.format("%.1f", publishRate), String.format("%.1f", ackRate));
+        }
+    }
 
-    private RestTemplate restTemplate = new RestTemplate();
-
-    @Scheduled(fixedRate = 10000) // Check every 5 seconds
-    public void monitorQueueDepth() {
-        try {
-            int messageCount = getQueueMessageCount();
-            if (messageCount > backpressureThreshold && !backpressureActive) {
-                logger.warn("BOTTLENECK DETECTED, ENABLING BACKPRESSURE");
-                activateBackpressure();
-            } else if (messageCount <= 2 && backpressureActive && !manuallyActivated) {
-                logger.info("Backlog emptied! Resuming normal operation");
-                deactivateBackpressure();
+    // Total messages waiting across the sampled queues, or null when one of them could not be read
+    Integer readQueueDepth() {
+        int depth = 0;
+        for (String queueName : queueNames) {
+            try {
+                QueueInformation queueInfo = rabbitAdmin.getQueueInfo(queueName);
+                if (queueInfo == null) {
+                    logger.warn("Queue {} not found, holding fetch rate", queueName);
+                    return null;
+                }
+                depth += queueInfo.getMessageCount();
+            } catch (Exception e) {
+                logger.error("Failed to read depth of queue {}, holding fetch rate: {}", queueName, e.getMessage());
+                return null;
             }
-        } catch (Exception e) {
-            logger.error("Failed to fetch queue depth from RabbitMQ API {}", e.getMessage());
         }
+        return depth;
     }
 
-    private int getQueueMessageCount() throws URISyntaxException {
-        String url = UriComponentsBuilder.fromHttpUrl(rabbitMqApiUrl)
-                    .pathSegment("queues", "%2F", queueName)
-                    .build()
-                    .toUriString(); // This ensures %2F remains encoded
-
-        HttpHeaders headers = new HttpHeaders();
-        headers.setBasicAuth(rabbitMqApiUsername, rabbitMqApiPassword);
-        HttpEntity<String> entity = new HttpEntity<>(headers);
-
-        ResponseEntity<Map> response = restTemplate.exchange(new URI(url), HttpMethod.GET, entity, Map.class);
-        Map<String, Object> queueInfo = response.getBody();
-        return (int) queueInfo.get("messages");
+    private static List<String> sampledQueueNames(RabbitMQConfig rabbitMQConfig) {
+        List<String> names = new ArrayList<>();
+        names.add(rabbitMQConfig.getQueueName());
+        if (rabbitMQConfig.isPartitioned()) {
+            for (int partition = 0; partition < rabbitMQConfig.getPartitionCount(); partition++) {
+                names.add(rabbitMQConfig.getPartitionQueueName(partition));
+            }
         }
+        return List.copyOf(names);
+    }
 
-
-    private void activateBackpressure() {
-        backpressureActive = true;
+    public void recordPublished() {
+        publishedMessages.increment();
     }
 
-    private void deactivateBackpressure() {
-        backpressureActive = false;
+    public void recordConsumed(int messages) {
+        consumedMessages.add(messages);
     }
 
     public void manualBackpressureActivation() {
         manuallyActivated = true;
-        backpressureActive = true;
     }
 
     public void manualBackpressureDeactivation() {
         manuallyActivated = false;
-        backpressureActive = false;
     }
 }
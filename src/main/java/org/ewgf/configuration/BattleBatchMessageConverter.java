@@ -0,0 +1,90 @@
+package org.ewgf.configuration;
+
+import org.ewgf.models.Battle;
+import org.ewgf.utils.BattleBatchCodec;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Sends battle batches with BattleBatchCodec and everything else as JSON. The content type says which format a
+// message is in and the content encoding whether it is gzipped, so a consumer reads binary and legacy JSON messages
+// alike and producers can be switched between formats one at a time.
+public class BattleBatchMessageConverter implements MessageConverter {
+
+    public static final String BATTLE_BATCH_CONTENT_TYPE = "application/x-ewgf-battle-batch";
+    private static final String GZIP_ENCODING = "gzip";
+
+    private final MessageConverter jsonConverter;
+    private final boolean binaryEnabled;
+    private final int compressionThresholdBytes;
+
+    // compressionThresholdBytes < 0 turns compression off
+    public BattleBatchMessageConverter(MessageConverter jsonConverter, boolean binaryEnabled, int compressionThresholdBytes) {
+        this.jsonConverter = jsonConverter;
+        this.binaryEnabled = binaryEnabled;
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) throws MessageConversionException {
+        if (!binaryEnabled || !isBattleBatch(object)) {
+            return jsonConverter.toMessage(object, messageProperties);
+        }
+
+        @SuppressWarnings("unchecked")
+        byte[] body = BattleBatchCodec.encode((List<Battle>) object);
+        messageProperties.setContentType(BATTLE_BATCH_CONTENT_TYPE);
+        if (compressionThresholdBytes >= 0 && body.length > compressionThresholdBytes) {
+            body = gzip(body);
+            messageProperties.setContentEncoding(GZIP_ENCODING);
+        }
+        messageProperties.setContentLength(body.length);
+        return new Message(body, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) throws MessageConversionException {
+        MessageProperties properties = message.getMessageProperties();
+        if (properties == null || !BATTLE_BATCH_CONTENT_TYPE.equals(properties.getContentType())) {
+            return jsonConverter.fromMessage(message);
+        }
+
+        try {
+            byte[] body = GZIP_ENCODING.equals(properties.getContentEncoding())
+                    ? gunzip(message.getBody())
+                    : message.getBody();
+            return BattleBatchCodec.decode(body);
+        } catch (IOException | RuntimeException e) {
+            throw new MessageConversionException("Failed to decode battle batch", e);
+        }
+    }
+
+    private static boolean isBattleBatch(Object object) {
+        return object instanceof List<?> list && !list.isEmpty() && list.stream().allMatch(Battle.class::isInstance);
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new MessageConversionException("Failed to compress battle batch", e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+}
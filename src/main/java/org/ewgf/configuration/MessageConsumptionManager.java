@@ -1,6 +1,8 @@
 package org.ewgf.configuration;
 
+import org.ewgf.services.InMemoryBattleTransport;
 import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.stereotype.Service;
 import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
 
@@ -8,18 +10,23 @@ import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
 public class MessageConsumptionManager {
 
     private final RabbitListenerEndpointRegistry endpointRegistry;
+    private final ObjectProvider<InMemoryBattleTransport> inMemoryTransport;
 
-    public MessageConsumptionManager(RabbitListenerEndpointRegistry endpointRegistry) {
+    public MessageConsumptionManager(RabbitListenerEndpointRegistry endpointRegistry,
+                                     ObjectProvider<InMemoryBattleTransport> inMemoryTransport) {
         this.endpointRegistry = endpointRegistry;
+        this.inMemoryTransport = inMemoryTransport;
     }
 
     public void pauseAllConsumers() {
         endpointRegistry.getListenerContainers()
                 .forEach(MessageListenerContainer::stop);
+        inMemoryTransport.ifAvailable(InMemoryBattleTransport::pause);
     }
 
     public void resumeAllConsumers() {
         endpointRegistry.getListenerContainers()
                 .forEach(MessageListenerContainer::start);
+        inMemoryTransport.ifAvailable(InMemoryBattleTransport::resume);
     }
-}
+}
\ No newline at end of file
@@ -3,7 +3,11 @@ package org.ewgf.configuration;
 import lombok.Getter;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.HeadersExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
@@ -15,17 +19,14 @@ import org.springframework.amqp.support.converter.SimpleMessageConverter;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.dao.CannotAcquireLockException;
-import org.springframework.dao.PessimisticLockingFailureException;
-import org.springframework.retry.backoff.ExponentialBackOffPolicy;
-import org.springframework.retry.policy.SimpleRetryPolicy;
-import org.springframework.retry.support.RetryTemplate;
 
-import org.postgresql.util.PSQLException;
-
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import static org.ewgf.utils.Constants.PARKING_LEVEL;
+import static org.ewgf.utils.Constants.RETRY_LEVEL_HEADER;
+
 @Getter
 @Configuration
 public class RabbitMQConfig {
@@ -42,6 +43,24 @@ public class RabbitMQConfig {
     @Value("${rabbitmq.routing.key")
     private String routingKey;
 
+    @Value("${rabbitmq.partitions.count}")
+    private int partitionCount;
+
+    @Value("${rabbitmq.listener.batch-size}")
+    private int listenerBatchSize;
+
+    @Value("${rabbitmq.listener.receive-timeout-millis}")
+    private long listenerReceiveTimeoutMillis;
+
+    @Value("${rabbitmq.retry.delays-millis}")
+    private long[] retryDelaysMillis;
+
+    @Value("${rabbitmq.codec.binary}")
+    private boolean binaryCodecEnabled;
+
+    @Value("${rabbitmq.codec.compression-threshold-bytes}")
+    private int compressionThresholdBytes;
+
     private final VirtualThreadConfig virtualThreadConfig;
 
     public RabbitMQConfig(VirtualThreadConfig virtualThreadConfig) {
@@ -59,48 +78,94 @@ public class RabbitMQConfig {
         factory.setConcurrentConsumers(Integer.parseInt(rabbitConcurrency));
         factory.setMaxConcurrentConsumers(Integer.parseInt(rabbitConcurrency));
 
+        // Deliveries are merged into one list per listener call and acked together once it returns,
+        // which is after the combined battle transaction has committed
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(Math.max(1, listenerBatchSize));
+        factory.setReceiveTimeout(listenerReceiveTimeoutMillis);
+        factory.setPrefetchCount(Math.max(1, listenerBatchSize));
+
         // Set the task executor to use virtual threads
         factory.setTaskExecutor(virtualThreadConfig.rabbitVirtualThreadExecutor());
 
-        factory.setRetryTemplate(createRetryTemplate());
-
+        // Failed batches are not retried on the consumer thread, the listeners hand them to BattleRetryService
         return factory;
     }
 
-    private RetryTemplate createRetryTemplate()
-    {
-        RetryTemplate retryTemplate = new RetryTemplate();
+    @Bean
+    public Queue queue() {
+        return new Queue(queueName, true);
+    }
 
-        // Custom retry policy that specifically handles deadlocks
-        SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy(5, createRetryableExceptions());
+    // Partitioned mode: one queue per player partition, each read by a single consumer across all instances
+    @Bean
+    public Declarables partitionQueues(TopicExchange exchange) {
+        List<Declarable> declarables = new ArrayList<>();
+        if (!isPartitioned()) return new Declarables(declarables);
+
+        for (int partition = 0; partition < partitionCount; partition++) {
+            Queue partitionQueue = QueueBuilder.durable(getPartitionQueueName(partition))
+                    .singleActiveConsumer()
+                    .build();
+            declarables.add(partitionQueue);
+            declarables.add(BindingBuilder.bind(partitionQueue).to(exchange).with(getPartitionRoutingKey(partition)));
+        }
+        return new Declarables(declarables);
+    }
 
-        ExponentialBackOffPolicy backOffPolicy = new ExponentialBackOffPolicy();
-        backOffPolicy.setInitialInterval(100); // 100ms initial backoff
-        backOffPolicy.setMultiplier(2.0); // Double the wait time for each retry
-        backOffPolicy.setMaxInterval(2000); // Cap at 2 seconds
+    // Delayed retries: a failed message is published to the retry exchange with its original routing key and the level
+    // as a header. It waits in that level's queue until its TTL expires and is then dead-lettered back to the battle
+    // exchange, which routes it to the queue it came from. The parking queue keeps messages that are out of retries.
+    @Bean
+    public Declarables retryQueues() {
+        HeadersExchange retryExchange = new HeadersExchange(getRetryExchangeName());
+        List<Declarable> declarables = new ArrayList<>();
+        declarables.add(retryExchange);
+
+        for (int level = 1; level <= getRetryLevels(); level++) {
+            Queue retryQueue = QueueBuilder.durable(getRetryQueueName(level))
+                    .ttl((int) retryDelaysMillis[level - 1])
+                    .deadLetterExchange(exchangeName)
+                    .build();
+            declarables.add(retryQueue);
+            declarables.add(BindingBuilder.bind(retryQueue).to(retryExchange)
+                    .whereAll(Map.of(RETRY_LEVEL_HEADER, String.valueOf(level))).match());
+        }
+
+        Queue parkingQueue = QueueBuilder.durable(getParkingQueueName()).build();
+        declarables.add(parkingQueue);
+        declarables.add(BindingBuilder.bind(parkingQueue).to(retryExchange)
+                .whereAll(Map.of(RETRY_LEVEL_HEADER, PARKING_LEVEL)).match());
+        return new Declarables(declarables);
+    }
 
-        retryTemplate.setRetryPolicy(retryPolicy);
-        retryTemplate.setBackOffPolicy(backOffPolicy);
-        retryTemplate.registerListener(new LoggingRetryListener());
+    public int getRetryLevels() {
+        return retryDelaysMillis.length;
+    }
 
-        return retryTemplate;
+    public String getRetryExchangeName() {
+        return exchangeName + ".retry";
     }
 
-    private Map<Class<? extends Throwable>, Boolean> createRetryableExceptions()
-    {
-        Map<Class<? extends Throwable>, Boolean> retryableExceptions = new HashMap<>();
+    public String getRetryQueueName(int level) {
+        return queueName + ".retry." + level;
+    }
 
-        retryableExceptions.put(PSQLException.class, true);
-        retryableExceptions.put(CannotAcquireLockException.class, true);
-        retryableExceptions.put(PessimisticLockingFailureException.class, true);
+    public String getParkingQueueName() {
+        return queueName + ".parking";
+    }
 
-        return retryableExceptions;
+    public boolean isPartitioned() {
+        return partitionCount > 1;
     }
 
+    public String getPartitionQueueName(int partition) {
+        return queueName + ".partition." + partition;
+    }
 
-    @Bean
-    public Queue queue() {
-        return new Queue(queueName, true);
+    public String getPartitionRoutingKey(int partition) {
+        return routingKey + ".partition." + partition;
     }
 
     @Bean
@@ -120,12 +185,14 @@ public class RabbitMQConfig {
     ) {
         RabbitTemplate template = new RabbitTemplate(connectionFactory);
         template.setMessageConverter(messageConverter);
+        // Unroutable batches come back to the publisher instead of being dropped, which fails their confirm
+        template.setMandatory(true);
         return template;
     }
 
     @Bean
     public MessageConverter messageConverter() {
-        return new Jackson2JsonMessageConverter();
+        return new BattleBatchMessageConverter(new Jackson2JsonMessageConverter(), binaryCodecEnabled, compressionThresholdBytes);
     }
 
     @Bean
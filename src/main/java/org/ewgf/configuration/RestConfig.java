@@ -1,10 +1,17 @@
 package org.ewgf.configuration;
 
+import org.ewgf.utils.RequestRateLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.web.client.RestTemplate;
 
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+
 @Configuration
 public class RestConfig
 {
@@ -15,4 +22,23 @@ public class RestConfig
         factory.setReadTimeout(5000);    // 5 seconds
         return new RestTemplate(factory);
     }
+
+    // Shared by every component that sends requests to Wavu, so the combined rate stays under this limit
+    @Bean
+    public RequestRateLimiter wavuRateLimiter(@Value("${wavu.rate-limit.requests-per-second}") double requestsPerSecond) {
+        return new RequestRateLimiter(requestsPerSecond);
+    }
+
+    // Dedicated to Wavu. The JDK client keeps connections alive and reuses them across requests,
+    // and lets several window requests be in flight at once without holding a thread each.
+    @Bean
+    public HttpClient wavuHttpClient(
+            @Qualifier("wavuClientThreadExecutor") ExecutorService wavuClientExecutor,
+            @Value("${wavu.client.connect-timeout-millis}") long connectTimeoutMillis) {
+        return HttpClient.newBuilder()
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(wavuClientExecutor)
+                .build();
+    }
 }
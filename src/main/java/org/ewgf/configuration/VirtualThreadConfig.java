@@ -33,5 +33,34 @@ public class VirtualThreadConfig
 
         return Executors.newThreadPerTaskExecutor(threadFactory);
     }
-}
 
+    @Bean(name = "backfillThreadExecutor")
+    public ExecutorService backfillVirtualThreadExecutor()
+    {
+        ThreadFactory threadFactory = Thread.ofVirtual()
+                .name("backfill-thread: ", 0)
+                .factory();
+
+        return Executors.newThreadPerTaskExecutor(threadFactory);
+    }
+
+    @Bean(name = "wavuClientThreadExecutor")
+    public ExecutorService wavuClientVirtualThreadExecutor()
+    {
+        ThreadFactory threadFactory = Thread.ofVirtual()
+                .name("wavu-client-thread: ", 0)
+                .factory();
+
+        return Executors.newThreadPerTaskExecutor(threadFactory);
+    }
+
+    @Bean(name = "refetchThreadExecutor")
+    public ExecutorService refetchVirtualThreadExecutor()
+    {
+        ThreadFactory threadFactory = Thread.ofVirtual()
+                .name("refetch-thread: ", 0)
+                .factory();
+
+        return Executors.newThreadPerTaskExecutor(threadFactory);
+    }
+}
@@ -5,13 +5,21 @@ import lombok.extern.slf4j.Slf4j;
 import org.ewgf.configuration.BackpressureManager;
 import org.ewgf.configuration.MessageConsumptionManager;
 import org.ewgf.configuration.RabbitMQConfig;
+import org.ewgf.dtos.BackfillPartitionProgressDTO;
+import org.ewgf.dtos.DerivationBacklogDTO;
+import org.ewgf.dtos.RefetchJobDTO;
+import org.ewgf.dtos.RetryQueueStatusDTO;
+import org.ewgf.services.BattleProcessingService;
+import org.ewgf.services.BattleRetryService;
 import org.ewgf.services.CharacterStatsRevalidationService;
+import org.ewgf.services.HistoricalBackfillService;
 import org.ewgf.services.RefetchBattleService;
 import org.ewgf.utils.EventPublisherUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -19,6 +27,7 @@ import org.springframework.http.ResponseEntity;
 
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 @Slf4j
@@ -30,19 +39,28 @@ public class AdminController {
     private final RefetchBattleService refetchBattleService;
     private final EventPublisherUtils eventPublisherUtils;
     private final MessageConsumptionManager messageConsumptionManager;
+    private final HistoricalBackfillService historicalBackfillService;
+    private final BattleRetryService battleRetryService;
+    private final BattleProcessingService battleProcessingService;
 
     public AdminController(
             CharacterStatsRevalidationService revalidationService,
             @Value("${admin.auth.token}") String devAuthToken,
             RefetchBattleService refetchBattleService,
             EventPublisherUtils eventPublisherUtils,
-            MessageConsumptionManager messageConsumptionManager) {
+            MessageConsumptionManager messageConsumptionManager,
+            HistoricalBackfillService historicalBackfillService,
+            BattleRetryService battleRetryService,
+            BattleProcessingService battleProcessingService) {
 
         this.revalidationService = revalidationService;
         this.devAuthToken = devAuthToken;
         this.refetchBattleService = refetchBattleService;
         this.eventPublisherUtils = eventPublisherUtils;
         this.messageConsumptionManager = messageConsumptionManager;
+        this.historicalBackfillService = historicalBackfillService;
+        this.battleRetryService = battleRetryService;
+        this.battleProcessingService = battleProcessingService;
     }
 
     private boolean isAuthenticated(String authToken) {
@@ -95,17 +113,65 @@ public class AdminController {
         }
 
         try {
-            refetchBattleService.fetchHistoricalBattles(daysToFetch);
-            return ResponseEntity.ok(String.format("Manual fetch of last %d days completed successfully.", daysToFetch));
+            String jobId = refetchBattleService.startRefetch(daysToFetch);
+            log.info("Refetch job {} for the last {} days started by {}", jobId, daysToFetch, request.getRemoteAddr());
+            return ResponseEntity.accepted().body(jobId);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
-            log.error("Error during historical battle fetch", e);
+            log.error("Error starting historical battle fetch", e);
             return ResponseEntity.internalServerError()
-                    .body("Error during historical battle fetch: ");
+                    .body("Error starting historical battle fetch");
         }
     }
 
+    @GetMapping("/refetch/jobs")
+    public ResponseEntity<List<RefetchJobDTO>> getRefetchJobs(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authToken,
+            HttpServletRequest request) {
+
+        if (!isAuthenticated(authToken)) {
+            log.warn("Unauthorized refetch jobs request from IP: {}", request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        return ResponseEntity.ok(refetchBattleService.getJobs());
+    }
+
+    @GetMapping("/refetch/jobs/{jobId}")
+    public ResponseEntity<RefetchJobDTO> getRefetchJob(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authToken,
+            @PathVariable String jobId,
+            HttpServletRequest request) {
+
+        if (!isAuthenticated(authToken)) {
+            log.warn("Unauthorized refetch job request from IP: {}", request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        return refetchBattleService.getJob(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    @GetMapping("/refetch/jobs/{jobId}/cancel")
+    public ResponseEntity<String> cancelRefetchJob(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authToken,
+            @PathVariable String jobId,
+            HttpServletRequest request) {
+
+        if (!isAuthenticated(authToken)) {
+            log.warn("Unauthorized refetch cancel request from IP: {}", request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Unauthorized");
+        }
+
+        if (!refetchBattleService.cancelJob(jobId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("No running refetch job with id " + jobId);
+        }
+        log.info("Refetch job {} cancelled by {}", jobId, request.getRemoteAddr());
+        return ResponseEntity.ok("Refetch job " + jobId + " is stopping");
+    }
+
     @GetMapping("/recalculateStats")
     public ResponseEntity<String> recalculateStats(
             @RequestHeader(value = HttpHeaders.AUTHORIZATION) String authToken,
@@ -155,4 +221,43 @@ public class AdminController {
         log.info("RabbitMQ consumption resumed by {}", request.getRemoteAddr());
         return ResponseEntity.ok("RabbitMQ consumers resumed");
     }
-}
\ No newline at end of file
+
+    @GetMapping("/backfill/progress")
+    public ResponseEntity<List<BackfillPartitionProgressDTO>> getBackfillProgress(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authToken,
+            HttpServletRequest request) {
+
+        if (!isAuthenticated(authToken)) {
+            log.warn("Unauthorized backfill progress request from IP: {}", request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        return ResponseEntity.ok(historicalBackfillService.getProgress());
+    }
+
+    @GetMapping("/retries")
+    public ResponseEntity<List<RetryQueueStatusDTO>> getRetryQueues(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authToken,
+            HttpServletRequest request) {
+
+        if (!isAuthenticated(authToken)) {
+            log.warn("Unauthorized retry queue request from IP: {}", request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        return ResponseEntity.ok(battleRetryService.getStatus());
+    }
+
+    @GetMapping("/derivation")
+    public ResponseEntity<DerivationBacklogDTO> getDerivationBacklog(
+            @RequestHeader(HttpHeaders.AUTHORIZATION) String authToken,
+            HttpServletRequest request) {
+
+        if (!isAuthenticated(authToken)) {
+            log.warn("Unauthorized derivation backlog request from IP: {}", request.getRemoteAddr());
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        return ResponseEntity.ok(battleProcessingService.getDerivationBacklog());
+    }
+}
@@ -0,0 +1,52 @@
+package org.ewgf.controllers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.models.Battle;
+import org.ewgf.services.WavuSimulatorService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Serves the simulated replay API when the wavu-sim profile is active, with the latency and failures of the real one
+@Slf4j
+@RestController
+@Profile("wavu-sim")
+@RequestMapping("/simulator")
+public class WavuSimulatorController {
+    private final WavuSimulatorService wavuSimulatorService;
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double errorRate;
+
+    public WavuSimulatorController(
+            WavuSimulatorService wavuSimulatorService,
+            @Value("${wavu.simulator.latency-millis}") long latencyMillis,
+            @Value("${wavu.simulator.latency-jitter-millis}") long latencyJitterMillis,
+            @Value("${wavu.simulator.error-rate}") double errorRate) {
+        this.wavuSimulatorService = wavuSimulatorService;
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.errorRate = errorRate;
+    }
+
+    @GetMapping("/replays")
+    public ResponseEntity<List<Battle>> getReplays(@RequestParam long before) throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (latencyJitterMillis > 0 ? random.nextLong(latencyJitterMillis + 1) : 0);
+        if (delay > 0) Thread.sleep(delay);
+
+        if (random.nextDouble() < errorRate) {
+            log.debug("Simulating a failed Wavu request for 'before={}'", before);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        return ResponseEntity.ok(wavuSimulatorService.getBattlesBefore(before));
+    }
+}
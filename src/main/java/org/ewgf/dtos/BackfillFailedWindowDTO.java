@@ -0,0 +1,11 @@
+package org.ewgf.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class BackfillFailedWindowDTO {
+    private long upperBound;
+    private long lowerBound;
+}
@@ -0,0 +1,22 @@
+package org.ewgf.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class BackfillPartitionProgressDTO {
+    private int partition;
+    private long upperBound;
+    private long lowerBound;
+    private long cursor;
+    private int windowsFetched;
+    private int failedWindows;
+    private List<BackfillFailedWindowDTO> outstandingFailedWindows;
+    private int skippedWindows;
+    private long battlesFetched;
+    private double percentComplete;
+    private boolean completed;
+}
@@ -0,0 +1,15 @@
+package org.ewgf.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class DerivationBacklogDTO {
+    private boolean staged;
+    private long pendingBattles;
+    private Long oldestPendingSeq; // null when nothing is pending; every battle recorded before it has been derived
+    private Long newestPendingSeq; // the ingestion watermark
+    private Long oldestPendingAgeSeconds;
+    private long parkedBattles; // failed derivation too often and are no longer claimed
+}
@@ -0,0 +1,22 @@
+package org.ewgf.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RefetchJobDTO {
+    private String jobId;
+    private String status;
+    private int daysToFetch;
+    private int workers;
+    private int totalSteps;
+    private int completedSteps;
+    private int failedSteps;
+    private int skippedSteps; // already complete according to the coverage map, not requested
+    private long battlesFetched;
+    private double percentComplete;
+    private long startedAt;
+    private long elapsedSeconds;
+    private Long etaSeconds; // null until the first step completes or once the job has finished
+}
@@ -0,0 +1,14 @@
+package org.ewgf.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RetryQueueStatusDTO {
+    private String queueName;
+    private int level; // 0 for the parking queue
+    private long delayMillis;
+    private int messagesWaiting; // -1 when the queue could not be read
+    private long messagesPublished;
+}
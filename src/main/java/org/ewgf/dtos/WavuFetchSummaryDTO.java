@@ -0,0 +1,12 @@
+package org.ewgf.dtos;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class WavuFetchSummaryDTO {
+    private int battleCount;
+    private long oldestBattleAt; // Long.MAX_VALUE when the response was empty
+    private long newestBattleAt; // Long.MIN_VALUE when the response was empty
+}
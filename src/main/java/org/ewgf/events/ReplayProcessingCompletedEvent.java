@@ -10,4 +10,10 @@ import java.util.Set;
 public class ReplayProcessingCompletedEvent
 {
     private Set<Integer> gameVersions;
+    // Asks for a full rebuild even when statistics are maintained incrementally
+    private boolean fullRebuild;
+
+    public ReplayProcessingCompletedEvent(Set<Integer> gameVersions) {
+        this(gameVersions, false);
+    }
 }
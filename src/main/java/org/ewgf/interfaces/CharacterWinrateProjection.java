@@ -1,10 +0,0 @@
-package org.ewgf.interfaces;
-
-public interface CharacterWinrateProjection {
-    String getCharacterId();
-    Long getTotalWins();
-    Long getTotalLosses();
-    Integer getGameVersion();
-    String getRankCategory();
-    String getRegionId();
-}
\ No newline at end of file
@@ -1,8 +0,0 @@
-package org.ewgf.interfaces;
-
-public interface RankDistributionProjection {
-    Integer getGameVersion();
-    String getCategory();
-    Integer getRank();
-    Double getPercentage();
-}
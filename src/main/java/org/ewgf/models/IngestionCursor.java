@@ -0,0 +1,35 @@
+package org.ewgf.models;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Table;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Every cursor walks backwards from upperBound to lowerBound, fetchTimestamp is the next 'before' value to request
+@Data
+@Entity
+@Table(name = "ingestion_cursor")
+public class IngestionCursor {
+
+    @Id
+    @Column(name = "cursor_name", nullable = false)
+    private String cursorName;
+
+    @Column(name = "fetch_timestamp", nullable = false)
+    private long fetchTimestamp;
+
+    @Column(name = "lower_bound", nullable = false)
+    private long lowerBound;
+
+    @Column(name = "upper_bound", nullable = false)
+    private long upperBound;
+
+    @Column(name = "fetching_new_replays", nullable = false)
+    private boolean fetchingNewReplays;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
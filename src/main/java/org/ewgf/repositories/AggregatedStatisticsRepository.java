@@ -2,14 +2,12 @@ package org.ewgf.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.ewgf.aggregations.AggregatedStatistic;
 import org.ewgf.aggregations.AggregatedStatisticId;
 import org.ewgf.interfaces.*;
 
 import java.util.List;
-import java.util.Optional;
 
 @Repository
 public interface AggregatedStatisticsRepository extends JpaRepository<AggregatedStatistic, AggregatedStatisticId> {
@@ -17,294 +15,6 @@ public interface AggregatedStatisticsRepository extends JpaRepository<Aggregated
     List<AggregatedStatistic> findByIdGameVersionAndIdCategory(int gameVersion, String category);
 
 
-    @Query(value = """
-    WITH global_all_ranks AS (
-        SELECT
-            game_version,
-            character_id,
-            SUM(total_wins) as total_wins,
-            SUM(total_losses) as total_losses,
-            SUM(total_replays) as total_replays
-        FROM aggregated_statistics
-        WHERE category = 'standard'
-        GROUP BY game_version, character_id
-    ),
-    global_by_rank AS (
-        SELECT
-            game_version,
-            character_id,
-            CASE
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END as rank_category,
-            SUM(total_wins) as total_wins,
-            SUM(total_losses) as total_losses,
-            SUM(total_replays) as total_replays
-        FROM aggregated_statistics
-        WHERE category = 'standard'
-        GROUP BY
-            game_version,
-            character_id,
-            CASE
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END
-    )
-    SELECT * FROM (
-        -- All ranks query with global stats
-        SELECT
-            game_version as gameVersion,
-            'allRanks' as rankCategory,
-            'Global' as regionId,
-            character_id as characterId,
-            total_wins as totalWins,
-            total_losses as totalLosses,
-            total_replays as totalBattles
-        FROM global_all_ranks
-    
-        UNION ALL
-    
-        -- All ranks query with regional stats
-        SELECT
-            a.game_version as gameVersion,
-            'allRanks' as rankCategory,
-            a.region_id::text as regionId,
-            a.character_id as characterId,
-            SUM(a.total_wins) as totalWins,
-            SUM(a.total_losses) as totalLosses,
-            SUM(a.total_replays) as totalBattles
-        FROM aggregated_statistics a
-        WHERE a.category = 'standard'
-        GROUP BY
-            a.game_version,
-            a.region_id,
-            a.character_id
-        HAVING SUM(a.total_replays) > 0
-    
-        UNION ALL
-    
-        -- Rank categories query with global stats
-        SELECT
-            game_version as gameVersion,
-            rank_category as rankCategory,
-            'Global' as regionId,
-            character_id as characterId,
-            total_wins as totalWins,
-            total_losses as totalLosses,
-            total_replays as totalBattles
-        FROM global_by_rank
-    
-        UNION ALL
-    
-        -- Rank categories query with regional stats
-        SELECT
-            a.game_version as gameVersion,
-            CASE
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END as rankCategory,
-            a.region_id::text as regionId,
-            a.character_id as characterId,
-            SUM(a.total_wins) as totalWins,
-            SUM(a.total_losses) as totalLosses,
-            SUM(a.total_replays) as totalBattles
-        FROM aggregated_statistics a
-        WHERE a.category = 'standard'
-        GROUP BY
-            a.game_version,
-            CASE
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END,
-            a.region_id,
-            a.character_id
-        HAVING SUM(a.total_replays) > 0
-    ) combined
-    ORDER BY
-        gameVersion DESC,
-        CASE WHEN rankCategory = 'allRanks' THEN 0 ELSE 1 END,
-        rankCategory,
-        CASE WHEN regionId = 'Global' THEN 0 ELSE 1 END,
-        regionId,
-        totalBattles DESC
-    """, nativeQuery = true)
-    List<CharacterAnalyticsProjection> findAllCharactersByPopularity();
-
-    @Query(value = """
-SELECT
-    game_version    AS "gameVersion",
-    character_id    AS "characterId",
-    COALESCE(rank_category, 'allRanks')   AS "rankCategory",
-    COALESCE(region_id::text, 'Global') AS "regionId",
-    SUM(total_wins)   AS "totalWins",
-    SUM(total_losses) AS "totalLosses",
-    (SUM(total_wins)::float
-         / NULLIF(SUM(total_wins + total_losses),0)
-        ) * 100 AS winrate
-FROM (
-SELECT
-    game_version,
-    character_id,
-    region_id,
-    total_wins,
-    total_losses,
-    CASE
-        WHEN dan_rank >= 27 THEN 'master'
-        WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-        WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-        ELSE 'beginner'
-    END AS rank_category
-FROM aggregated_statistics
-WHERE category = 'standard'
- )
-    AS base
-GROUP BY
-    GROUPING SETS (
-    (game_version, character_id),                                  -- global all‐ranks
-    (game_version, character_id, region_id),                       -- regional all‐ranks
-    (game_version, character_id, rank_category),                   -- global by‐rank
-    (game_version, character_id, region_id, rank_category)         -- regional by‐rank
-    )
- HAVING SUM(total_wins + total_losses) > 0
- ORDER BY
-     "gameVersion" DESC,
-     CASE WHEN rank_category = 'allRanks' THEN 0 ELSE 1 END,
-     rank_category,
-     CASE WHEN COALESCE(region_id::text,'Global') = 'Global' THEN 0 ELSE 1 END,
-     COALESCE(region_id::text,'Global'),
-     winrate DESC;
-""", nativeQuery = true)
-    List<CharacterWinrateProjection> findAllWinrateStats();
-
-    @Query(value = """
-    WITH latest_version AS (
-        SELECT MAX(game_version) as version FROM aggregated_statistics
-    ),
-    ranked_stats AS (
-        SELECT 
-            CASE 
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END as rankCategory,
-            a.character_id as characterId,
-            SUM(a.total_replays) as totalBattles,
-            ROW_NUMBER() OVER (
-                PARTITION BY 
-                    CASE 
-                        WHEN dan_rank >= 27 THEN 'master'
-                        WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                        WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                        WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-                    END 
-                ORDER BY SUM(a.total_replays) DESC
-            ) as rank
-        FROM aggregated_statistics a, latest_version lv
-        WHERE a.category = 'standard'
-            AND a.game_version = lv.version
-        GROUP BY 
-            character_id,
-            CASE 
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END
-        HAVING SUM(a.total_replays) > 0
-    )
-    SELECT *
-    FROM ranked_stats
-    WHERE rank <= 5
-    ORDER BY 
-        rankCategory,
-        totalBattles DESC
-""", nativeQuery = true)
-    List<CharacterAnalyticsProjection> findTopCharactersByPopularity();
-
-    @Query(value = """
-    WITH latest_version AS (
-        SELECT MAX(game_version) as version FROM aggregated_statistics
-    ),
-    ranked_stats AS (
-        SELECT 
-            CASE 
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END as rankCategory,
-            a.character_id as characterId,
-            SUM(a.total_wins) as totalWins,
-            SUM(a.total_losses) as totalLosses,
-            ROUND(SUM(a.total_wins) * 100.0 / NULLIF(SUM(a.total_wins + a.total_losses), 0), 2) as winratePercentage,
-            ROW_NUMBER() OVER (
-                PARTITION BY 
-                    CASE 
-                        WHEN dan_rank >= 27 THEN 'master'
-                        WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                        WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                        WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-                    END 
-                ORDER BY SUM(a.total_wins) * 100.0 / NULLIF(SUM(a.total_wins + a.total_losses), 0) DESC
-            ) as rank
-        FROM aggregated_statistics a, latest_version lv
-        WHERE a.category = 'standard'
-            AND a.game_version = lv.version
-        GROUP BY 
-            character_id,
-            CASE 
-                WHEN dan_rank >= 27 THEN 'master'
-                WHEN dan_rank BETWEEN 21 AND 26 THEN 'advanced'
-                WHEN dan_rank BETWEEN 15 AND 20 THEN 'intermediate'
-                WHEN dan_rank BETWEEN 0 AND 14 THEN 'beginner'
-            END
-        HAVING SUM(a.total_wins + a.total_losses) > 0
-    )
-    SELECT *
-    FROM ranked_stats
-    WHERE rank <= 5
-    ORDER BY 
-        rankCategory,
-        winratePercentage DESC
-""", nativeQuery = true)
-    List<CharacterAnalyticsProjection> findTopCharactersByWinrate();
-
-    @Query(value = """
-        WITH total_players_by_version AS (
-            SELECT
-                game_version,
-                category,
-                SUM(total_players) AS total
-            FROM aggregated_statistics
-            WHERE game_version IN (:gameVersions)
-            AND category IN ('overall', 'standard')
-            GROUP BY game_version, category
-        )
-        SELECT
-            a.game_version,
-            a.category,
-            CAST(a.dan_rank AS int) as rank,
-            (SUM(a.total_players) * 100.0 / tp.total) as percentage
-        FROM aggregated_statistics a
-        JOIN total_players_by_version tp 
-            ON a.game_version = tp.game_version 
-            AND a.category = tp.category
-        WHERE a.game_version IN (:gameVersions)
-        AND a.category IN ('overall', 'standard')
-        GROUP BY a.game_version, a.category, a.dan_rank, tp.total
-        ORDER BY a.game_version, a.category, a.dan_rank
-        """, nativeQuery = true)
-    List<RankDistributionProjection> getAllRankDistributions(@Param("gameVersions") List<Integer> gameVersions);
-
     @Query(value = """
         WITH latest_versions AS (
             SELECT DISTINCT game_version
@@ -503,7 +213,4 @@ GROUP BY
     END""", nativeQuery = true)
     List<WinrateChangesProjection> getAllWinrateChanges();
 
-
-    @Query(value = "SELECT DISTINCT game_version FROM aggregated_statistics", nativeQuery = true)
-    Optional<List<Integer>> getGameVersions();
 }
@@ -2,7 +2,6 @@ package org.ewgf.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
-import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.ewgf.models.CharacterStatsId;
 import org.ewgf.models.CharacterStats;
@@ -15,18 +14,4 @@ public interface CharacterStatsRepository extends JpaRepository<CharacterStats,
 {
     @Query("SELECT DISTINCT c.id.gameVersion FROM CharacterStats c")
     Optional<List<Integer>> findAllGameVersions();
-
-    @Query(value = """
-        SELECT
-            cs.player_id as playerId,
-            cs.character_id as characterId,
-            cs.dan_rank as danRank,
-            cs.wins as wins,
-            cs.losses as losses,
-            p.region_id as regionId
-        FROM character_stats cs
-        JOIN players p ON cs.player_id = p.player_id
-        WHERE cs.game_version = :gameVersion
-        """, nativeQuery = true)
-    List<Object[]> findAllStatsByGameVersion(@Param("gameVersion") int gameVersion);
 }
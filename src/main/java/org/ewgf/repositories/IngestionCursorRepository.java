@@ -0,0 +1,39 @@
+package org.ewgf.repositories;
+
+import org.ewgf.models.IngestionCursor;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface IngestionCursorRepository extends JpaRepository<IngestionCursor, String> {
+
+    List<IngestionCursor> findByCursorNameStartingWithOrderByCursorNameAsc(String prefix);
+
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO ingestion_cursor " +
+            "(cursor_name, fetch_timestamp, lower_bound, upper_bound, fetching_new_replays, updated_at) " +
+            "VALUES (:cursorName, :fetchTimestamp, :lowerBound, :upperBound, :fetchingNewReplays, NOW()) " +
+            "ON CONFLICT (cursor_name) DO UPDATE SET " +
+            "fetch_timestamp = EXCLUDED.fetch_timestamp, " +
+            "lower_bound = EXCLUDED.lower_bound, " +
+            "upper_bound = EXCLUDED.upper_bound, " +
+            "fetching_new_replays = EXCLUDED.fetching_new_replays, " +
+            "updated_at = EXCLUDED.updated_at", nativeQuery = true)
+    void upsertCursor(@Param("cursorName") String cursorName,
+                      @Param("fetchTimestamp") long fetchTimestamp,
+                      @Param("lowerBound") long lowerBound,
+                      @Param("upperBound") long upperBound,
+                      @Param("fetchingNewReplays") boolean fetchingNewReplays);
+
+    @Modifying
+    @Transactional
+    @Query(value = "DELETE FROM ingestion_cursor WHERE cursor_name LIKE CONCAT(:prefix, '%')", nativeQuery = true)
+    void deleteCursorsWithPrefix(@Param("prefix") String prefix);
+}
@@ -12,7 +12,13 @@ import java.util.Optional;
 @Repository
 public interface TekkenStatsSummaryRepository extends JpaRepository<TekkenStatsSummary, Integer>
 {
-    @Query(value = "SELECT * FROM tekken_stats_summary", nativeQuery = true)
+    // Replay counts are the base row plus whatever ingestion has added to the counter stripes since
+    @Query(value = "SELECT s.id, s.total_players, " +
+            "s.total_ranked_replays + COALESCE(t.ranked_replays, 0)::bigint AS total_ranked_replays, " +
+            "(s.total_unranked_replays + COALESCE(t.unranked_replays, 0))::int AS total_unranked_replays " +
+            "FROM tekken_stats_summary s CROSS JOIN " +
+            "(SELECT SUM(ranked_replays) AS ranked_replays, SUM(unranked_replays) AS unranked_replays " +
+            "FROM tekken_stats_summary_stripes) t", nativeQuery = true)
     Optional<TekkenStatsSummary> getTekkenStatsSummary();
 
     @Modifying
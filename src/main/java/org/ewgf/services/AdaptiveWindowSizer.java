@@ -0,0 +1,103 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+
+// Picks the next 'before' value from how full the last Wavu response was.
+// A response at the page cap only covers down to its oldest battle, so the rest of that window is requested next.
+// Windows older than SETTLED_AFTER_SECONDS no longer receive late replays, so they are stepped without overlap.
+@Slf4j
+@Service
+public class AdaptiveWindowSizer {
+
+    private static final long SETTLED_AFTER_SECONDS = 3600; // 1 hour
+
+    private final int maxWindowSeconds;
+    private final int overlapSeconds;
+    private final int pageCap;
+    private final long fixedStep; // what every request used to step before the window was sized adaptively
+
+    private final AtomicLong lastWindowSeconds;
+    private final DoubleAdder requestsSaved = new DoubleAdder();
+    private final Counter truncatedWindows;
+    private final DistributionSummary windowFillRatio;
+
+    public AdaptiveWindowSizer(
+            MeterRegistry meterRegistry,
+            @Value("${wavu.window.max-seconds}") int maxWindowSeconds,
+            @Value("${wavu.window.overlap-seconds}") int overlapSeconds,
+            @Value("${wavu.window.page-cap}") int pageCap) {
+        this.maxWindowSeconds = maxWindowSeconds;
+        this.overlapSeconds = Math.min(overlapSeconds, maxWindowSeconds - 1);
+        this.pageCap = pageCap;
+        this.fixedStep = this.maxWindowSeconds - this.overlapSeconds;
+        this.lastWindowSeconds = new AtomicLong(fixedStep);
+
+        Gauge.builder("wavu.fetch.window.seconds", lastWindowSeconds, AtomicLong::get)
+                .description("Window size chosen for the most recent Wavu request")
+                .register(meterRegistry);
+        Gauge.builder("wavu.fetch.requests.saved", requestsSaved, DoubleAdder::sum)
+                .description("Requests saved compared to stepping a fixed " + fixedStep + " seconds per request")
+                .register(meterRegistry);
+        this.truncatedWindows = Counter.builder("wavu.fetch.windows.truncated")
+                .description("Wavu responses that hit the page cap and had to be split")
+                .register(meterRegistry);
+        this.windowFillRatio = DistributionSummary.builder("wavu.fetch.window.fill")
+                .description("Battles returned per request divided by the page cap")
+                .register(meterRegistry);
+    }
+
+    public long nextBefore(long before, WavuFetchSummaryDTO summary) {
+        int battleCount = summary.getBattleCount();
+        windowFillRatio.record((double) battleCount / pageCap);
+
+        long step;
+        if (battleCount >= pageCap) {
+            // Wavu returns the newest battles first, so everything older than the oldest one returned is still missing
+            step = Math.max(1, before - summary.getOldestBattleAt());
+            truncatedWindows.increment();
+            log.warn("Wavu response before {} hit the page cap of {} battles, splitting window at {}",
+                    before, pageCap, summary.getOldestBattleAt());
+        } else {
+            step = untruncatedStep(before);
+        }
+
+        lastWindowSeconds.set(step);
+        requestsSaved.add((double) step / fixedStep - 1.0);
+        return before - step;
+    }
+
+    // Where the next window starts if the one before 'before' turns out not to be truncated,
+    // used to request several windows ahead of their responses
+    public long predictNextBefore(long before) {
+        return before - untruncatedStep(before);
+    }
+
+    public boolean isTruncated(WavuFetchSummaryDTO summary) {
+        return summary.getBattleCount() >= pageCap;
+    }
+
+    public int getMaxWindowSeconds() {
+        return maxWindowSeconds;
+    }
+
+    // Wavu no longer receives late replays for windows this old
+    public boolean isSettled(long before) {
+        return Instant.now().getEpochSecond() - before > SETTLED_AFTER_SECONDS;
+    }
+
+    private long untruncatedStep(long before) {
+        return maxWindowSeconds - (isSettled(before) ? 0 : overlapSeconds);
+    }
+}
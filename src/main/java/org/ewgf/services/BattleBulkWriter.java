@@ -0,0 +1,312 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.models.Battle;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+// Inserts battles and returns the ids that were new. battles.insert.strategy picks how the rows reach Postgres:
+//   batch  - JDBC batches of single-row INSERT ... ON CONFLICT DO NOTHING RETURNING, 1000 rows per round trip
+//   unnest - one INSERT ... SELECT FROM unnest(...) with an array parameter per column
+//   copy   - binary COPY into a temporary staging table, then one INSERT ... SELECT from it
+// All three run on the caller's transaction. Each write is timed under battles.insert, tagged with the strategy, so
+// they can be compared on the same workload by switching the setting.
+@Slf4j
+@Service
+public class BattleBulkWriter {
+
+    public enum Strategy { BATCH, UNNEST, COPY }
+
+    private static final int BATCH_CHUNK_SIZE = 1000;
+    private static final int COPY_FLUSH_BYTES = 64 * 1024;
+    private static final byte[] COPY_SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final List<Column> COLUMNS = List.of(
+            text("battle_id", Battle::getBattleId),
+            text("date", Battle::getDate),
+            bigint("battle_at", Battle::getBattleAt),
+            integer("battle_type", battle -> battle.getBattleType().getBattleCode()),
+            integer("game_version", Battle::getGameVersion),
+            integer("player1_character_id", Battle::getPlayer1CharacterId),
+            text("player1_name", Battle::getPlayer1Name),
+            integer("player1_region", Battle::getPlayer1RegionId),
+            text("player1_language", Battle::getPlayer1Language),
+            text("player1_polaris_id", Battle::getPlayer1PolarisId),
+            bigint("player1_tekken_power", Battle::getPlayer1TekkenPower),
+            integer("player1_dan_rank", Battle::getPlayer1DanRank),
+            integer("player1_rating_before", Battle::getPlayer1RatingBefore),
+            integer("player1_rating_change", Battle::getPlayer1RatingChange),
+            integer("player1_rounds_won", Battle::getPlayer1RoundsWon),
+            text("player1_id", Battle::getPlayer1UserId),
+            integer("player2_character_id", Battle::getPlayer2CharacterId),
+            text("player2_name", Battle::getPlayer2Name),
+            integer("player2_region", Battle::getPlayer2RegionId),
+            text("player2_language", Battle::getPlayer2Language),
+            text("player2_polaris_id", Battle::getPlayer2PolarisId),
+            bigint("player2_tekken_power", Battle::getPlayer2TekkenPower),
+            integer("player2_dan_rank", Battle::getPlayer2DanRank),
+            integer("player2_rating_before", Battle::getPlayer2RatingBefore),
+            integer("player2_rating_change", Battle::getPlayer2RatingChange),
+            integer("player2_rounds_won", Battle::getPlayer2RoundsWon),
+            text("player2_id", Battle::getPlayer2UserId),
+            integer("stageid", Battle::getStageId),
+            integer("winner", Battle::getWinner)
+    );
+
+    private static final String COLUMN_LIST = COLUMNS.stream().map(Column::name).collect(Collectors.joining(", "));
+
+    private static final String BATCH_INSERT_SQL =
+            "INSERT INTO battles (" + COLUMN_LIST + ") VALUES (" +
+                    COLUMNS.stream().map(column -> "?").collect(Collectors.joining(", ")) + ") " +
+                    "ON CONFLICT (battle_id) DO NOTHING RETURNING battle_id";
+
+    private static final String UNNEST_INSERT_SQL =
+            "INSERT INTO battles (" + COLUMN_LIST + ") SELECT * FROM unnest(" +
+                    COLUMNS.stream().map(column -> "?::" + column.type().sqlName + "[]").collect(Collectors.joining(", ")) + ") " +
+                    "ON CONFLICT (battle_id) DO NOTHING RETURNING battle_id";
+
+    // Temporary tables are never WAL-logged and belong to the pooled connection, so each connection creates its own
+    // once and empties it before every load
+    private static final String CREATE_STAGING_SQL =
+            "CREATE TEMPORARY TABLE IF NOT EXISTS battles_staging (LIKE battles) ON COMMIT DELETE ROWS";
+    private static final String CLEAR_STAGING_SQL = "TRUNCATE battles_staging";
+    private static final String COPY_STAGING_SQL =
+            "COPY battles_staging (" + COLUMN_LIST + ") FROM STDIN WITH (FORMAT binary)";
+    private static final String STAGING_INSERT_SQL =
+            "INSERT INTO battles (" + COLUMN_LIST + ") SELECT " + COLUMN_LIST + " FROM battles_staging " +
+                    "ON CONFLICT (battle_id) DO NOTHING RETURNING battle_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Strategy strategy;
+    private final Timer insertTimer;
+
+    public BattleBulkWriter(JdbcTemplate jdbcTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${battles.insert.strategy}") String strategy) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.strategy = Strategy.valueOf(strategy.trim().toUpperCase(Locale.ROOT));
+        this.insertTimer = Timer.builder("battles.insert")
+                .description("Time to write a batch of battles")
+                .tag("strategy", this.strategy.name().toLowerCase(Locale.ROOT))
+                .register(meterRegistry);
+        log.info("Inserting battles with the {} strategy", this.strategy);
+    }
+
+    public Set<String> insert(List<Battle> battles) {
+        if (battles.isEmpty()) return Set.of();
+        return insertTimer.record(() -> switch (strategy) {
+            case BATCH -> insertWithBatches(battles);
+            case UNNEST -> insertWithUnnest(battles);
+            case COPY -> insertWithCopy(battles);
+        });
+    }
+
+    private Set<String> insertWithBatches(List<Battle> battles) {
+        Set<String> inserted = new HashSet<>(battles.size());
+        for (int start = 0; start < battles.size(); start += BATCH_CHUNK_SIZE) {
+            List<Battle> chunk = battles.subList(start, Math.min(start + BATCH_CHUNK_SIZE, battles.size()));
+            inserted.addAll(jdbcTemplate.execute(
+                    (Connection con) -> con.prepareStatement(BATCH_INSERT_SQL, new String[]{"battle_id"}),
+                    (PreparedStatement ps) -> {
+                        for (Battle battle : chunk) {
+                            for (int i = 0; i < COLUMNS.size(); i++) {
+                                COLUMNS.get(i).bind(ps, i + 1, battle);
+                            }
+                            ps.addBatch();
+                        }
+                        ps.executeBatch();
+
+                        // Postgres returns one row per successful insert
+                        Set<String> ids = new HashSet<>();
+                        try (ResultSet rs = ps.getGeneratedKeys()) {
+                            while (rs != null && rs.next()) {
+                                ids.add(rs.getString(1));
+                            }
+                        }
+                        return ids;
+                    }));
+        }
+        return inserted;
+    }
+
+    private Set<String> insertWithUnnest(List<Battle> battles) {
+        return jdbcTemplate.execute((Connection con) -> {
+            try (PreparedStatement ps = con.prepareStatement(UNNEST_INSERT_SQL)) {
+                for (int i = 0; i < COLUMNS.size(); i++) {
+                    Column column = COLUMNS.get(i);
+                    Object[] values = new Object[battles.size()];
+                    for (int row = 0; row < values.length; row++) {
+                        values[row] = column.value().apply(battles.get(row));
+                    }
+                    Array array = con.createArrayOf(column.type().sqlName, values);
+                    ps.setArray(i + 1, array);
+                }
+                return readIds(ps);
+            }
+        });
+    }
+
+    private Set<String> insertWithCopy(List<Battle> battles) {
+        return jdbcTemplate.execute((Connection con) -> {
+            try (Statement statement = con.createStatement()) {
+                statement.execute(CREATE_STAGING_SQL);
+                statement.execute(CLEAR_STAGING_SQL);
+            }
+
+            CopyIn copy = con.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING_SQL);
+            try {
+                BinaryCopyWriter writer = new BinaryCopyWriter(copy);
+                writer.writeHeader();
+                for (Battle battle : battles) {
+                    writer.writeRow(battle);
+                }
+                writer.finish();
+                copy.endCopy();
+            } finally {
+                if (copy.isActive()) copy.cancelCopy();
+            }
+
+            try (PreparedStatement ps = con.prepareStatement(STAGING_INSERT_SQL)) {
+                return readIds(ps);
+            }
+        });
+    }
+
+    private static Set<String> readIds(PreparedStatement ps) throws SQLException {
+        Set<String> ids = new HashSet<>();
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getString(1));
+            }
+        }
+        return ids;
+    }
+
+    // Rows in PostgreSQL's binary COPY format, handed to the server in COPY_FLUSH_BYTES pieces as they fill up
+    private static final class BinaryCopyWriter extends ByteArrayOutputStream {
+        private final CopyIn copy;
+
+        BinaryCopyWriter(CopyIn copy) {
+            super(COPY_FLUSH_BYTES + 1024);
+            this.copy = copy;
+        }
+
+        void writeHeader() {
+            write(COPY_SIGNATURE, 0, COPY_SIGNATURE.length);
+            writeInt(0); // flags
+            writeInt(0); // header extension length
+        }
+
+        void writeRow(Battle battle) throws SQLException {
+            writeShort(COLUMNS.size());
+            for (Column column : COLUMNS) {
+                Object value = column.value().apply(battle);
+                if (value == null) {
+                    writeInt(-1);
+                    continue;
+                }
+                switch (column.type()) {
+                    case TEXT -> {
+                        byte[] utf8 = ((String) value).getBytes(StandardCharsets.UTF_8);
+                        writeInt(utf8.length);
+                        write(utf8, 0, utf8.length);
+                    }
+                    case BIGINT -> {
+                        writeInt(8);
+                        writeLong(((Number) value).longValue());
+                    }
+                    case INTEGER -> {
+                        writeInt(4);
+                        writeInt(((Number) value).intValue());
+                    }
+                }
+            }
+            if (count >= COPY_FLUSH_BYTES) flush(copy);
+        }
+
+        void finish() throws SQLException {
+            writeShort(-1); // file trailer
+            flush(copy);
+        }
+
+        private void flush(CopyIn target) throws SQLException {
+            target.writeToCopy(buf, 0, count);
+            reset();
+        }
+
+        private void writeShort(int value) {
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void writeInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+    }
+
+    private enum ColumnType {
+        TEXT("varchar", Types.VARCHAR),
+        BIGINT("bigint", Types.BIGINT),
+        INTEGER("integer", Types.INTEGER);
+
+        private final String sqlName;
+        private final int sqlType;
+
+        ColumnType(String sqlName, int sqlType) {
+            this.sqlName = sqlName;
+            this.sqlType = sqlType;
+        }
+    }
+
+    private record Column(String name, ColumnType type, Function<Battle, Object> value) {
+        void bind(PreparedStatement ps, int index, Battle battle) throws SQLException {
+            Object columnValue = value.apply(battle);
+            if (columnValue == null) {
+                ps.setNull(index, type.sqlType);
+            } else {
+                ps.setObject(index, columnValue, type.sqlType);
+            }
+        }
+    }
+
+    private static Column text(String name, Function<Battle, String> value) {
+        return new Column(name, ColumnType.TEXT, value::apply);
+    }
+
+    private static Column bigint(String name, Function<Battle, Long> value) {
+        return new Column(name, ColumnType.BIGINT, value::apply);
+    }
+
+    private static Column integer(String name, Function<Battle, Integer> value) {
+        return new Column(name, ColumnType.INTEGER, value::apply);
+    }
+}
@@ -0,0 +1,297 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
+import org.ewgf.models.Battle;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.ewgf.utils.Constants.COVERAGE_WINDOW_SECONDS;
+
+// Tracks how many battles are stored per COVERAGE_WINDOW_SECONDS window and how many Wavu returned for it.
+// A window is complete once Wavu has been asked for it without truncation and every battle it returned is stored.
+// Refetch and backfill use this to skip windows that are already complete.
+// Stored counts are buffered after each insert commits and flushed by a single scheduled writer, so consumers
+// never queue on the row lock of the current window. Counts lost in a crash only make a window look incomplete.
+@Slf4j
+@Service
+public class BattleCoverageService implements DisposableBean {
+
+    private static final int NEIGHBOUR_WINDOWS = 6; // compared on each side when looking for thin windows
+
+    private static final String UPSERT_STORED_SQL =
+            "INSERT INTO battle_coverage (window_start, stored_count) VALUES (?, ?) " +
+            "ON CONFLICT (window_start) DO UPDATE SET stored_count = battle_coverage.stored_count + EXCLUDED.stored_count";
+
+    private static final String UPSERT_REPORTED_SQL =
+            "INSERT INTO battle_coverage (window_start, reported_count, reported_at) VALUES (?, ?, NOW()) " +
+            "ON CONFLICT (window_start) DO UPDATE SET " +
+            "reported_count = GREATEST(COALESCE(battle_coverage.reported_count, 0), EXCLUDED.reported_count), " +
+            "reported_at = EXCLUDED.reported_at";
+
+    private static final String SEED_FROM_BATTLES_SQL =
+            "INSERT INTO battle_coverage (window_start, stored_count) " +
+            "SELECT battle_at - (battle_at % " + COVERAGE_WINDOW_SECONDS + "), COUNT(*) FROM battles GROUP BY 1 " +
+            "ON CONFLICT (window_start) DO UPDATE SET stored_count = EXCLUDED.stored_count";
+
+    private static final String IS_SEEDED_SQL = "SELECT EXISTS (SELECT 1 FROM battle_coverage_seed)";
+    private static final String MARK_SEEDED_SQL =
+            "INSERT INTO battle_coverage_seed (id, seeded_at) VALUES (1, NOW()) ON CONFLICT (id) DO NOTHING";
+
+    private static final String COVERAGE_IN_RANGE_SQL =
+            "SELECT window_start, stored_count, reported_count FROM battle_coverage " +
+            "WHERE window_start >= ? AND window_start < ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final AdaptiveWindowSizer adaptiveWindowSizer;
+    private final double thinRatio;
+    private final Counter skippedWindows;
+    private final Object pendingStoredLock = new Object();
+    private TreeMap<Long, Integer> pendingStored = new TreeMap<>();
+    private final AtomicBoolean seeding = new AtomicBoolean(false);
+    private volatile boolean seeded = false;
+
+    public BattleCoverageService(
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            AdaptiveWindowSizer adaptiveWindowSizer,
+            MeterRegistry meterRegistry,
+            @Value("${coverage.thin-ratio}") double thinRatio) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.adaptiveWindowSizer = adaptiveWindowSizer;
+        this.thinRatio = thinRatio;
+        this.skippedWindows = Counter.builder("wavu.coverage.windows.skipped")
+                .description("Wavu windows not requested because the coverage map showed them complete")
+                .register(meterRegistry);
+    }
+
+    // Builds the stored counts from the battles already in the database once, then sets the seed marker.
+    // Called again from every flush until it succeeds, and runs off the scheduler thread since it scans all battles.
+    @EventListener(ApplicationReadyEvent.class)
+    public void seedIfNeeded() {
+        if (seeded || !seeding.compareAndSet(false, true)) return;
+        CompletableFuture.runAsync(() -> {
+            try {
+                if (!Boolean.TRUE.equals(jdbcTemplate.queryForObject(IS_SEEDED_SQL, Boolean.class))) {
+                    seed();
+                }
+                seeded = true;
+            } catch (Exception e) {
+                log.error("Failed to seed battle coverage, retrying on the next flush: {}", e.getMessage());
+            } finally {
+                seeding.set(false);
+            }
+        });
+    }
+
+    // Flushes are held back until the seed is done, so nothing else writes stored counts while it runs. The counts
+    // buffered so far belong to battles the seed counts itself and are dropped.
+    private void seed() {
+        long start = System.currentTimeMillis();
+        Integer windows = transactionTemplate.execute(status -> {
+            synchronized (pendingStoredLock) {
+                pendingStored = new TreeMap<>();
+            }
+            int seededWindows = jdbcTemplate.update(SEED_FROM_BATTLES_SQL);
+            jdbcTemplate.update(MARK_SEEDED_SQL);
+            return seededWindows;
+        });
+        log.info("Seeded battle coverage with {} windows in {} ms", windows, System.currentTimeMillis() - start);
+    }
+
+    public static long windowStart(long battleAt) {
+        return battleAt - Math.floorMod(battleAt, COVERAGE_WINDOW_SECONDS);
+    }
+
+    // Called inside the battle insert transaction, the counts are only buffered once it commits
+    public void recordStored(List<Battle> insertedBattles) {
+        if (insertedBattles.isEmpty()) return;
+
+        Map<Long, Integer> countsByWindow = new HashMap<>();
+        for (Battle battle : insertedBattles) {
+            countsByWindow.merge(windowStart(battle.getBattleAt()), 1, Integer::sum);
+        }
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            bufferStored(countsByWindow);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                bufferStored(countsByWindow);
+            }
+        });
+    }
+
+    @Scheduled(fixedDelayString = "${coverage.flush-interval-millis}")
+    public void flushStored() {
+        if (!seeded) {
+            seedIfNeeded();
+            return;
+        }
+
+        TreeMap<Long, Integer> countsByWindow;
+        synchronized (pendingStoredLock) {
+            if (pendingStored.isEmpty()) return;
+            countsByWindow = pendingStored;
+            pendingStored = new TreeMap<>();
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(UPSERT_STORED_SQL, toBatchArgs(countsByWindow));
+        } catch (Exception e) {
+            log.warn("Failed to flush stored coverage for {} windows, retrying on the next flush: {}", countsByWindow.size(), e.getMessage());
+            bufferStored(countsByWindow);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // Without the seed the buffered counts are dropped anyway, the seed on the next start counts those battles
+        if (seeded) flushStored();
+    }
+
+    public CoverageTally newTally() {
+        return new CoverageTally();
+    }
+
+    // Only windows that lie entirely inside the span Wavu served for 'before' are recorded. Nothing is recorded
+    // for a truncated response or a window that can still receive late replays, since either count may grow.
+    public void recordReported(long before, CoverageTally tally, WavuFetchSummaryDTO summary) {
+        if (adaptiveWindowSizer.isTruncated(summary) || !adaptiveWindowSizer.isSettled(before)) return;
+
+        TreeMap<Long, Integer> countsByWindow = new TreeMap<>();
+        for (long window = windowStart(before - adaptiveWindowSizer.getMaxWindowSeconds() + COVERAGE_WINDOW_SECONDS);
+             window + COVERAGE_WINDOW_SECONDS - 1 <= before;
+             window += COVERAGE_WINDOW_SECONDS) {
+            countsByWindow.put(window, tally.getCount(window));
+        }
+        if (countsByWindow.isEmpty()) return;
+
+        try {
+            jdbcTemplate.batchUpdate(UPSERT_REPORTED_SQL, toBatchArgs(countsByWindow));
+        } catch (Exception e) {
+            log.warn("Failed to record reported coverage before {}: {}", before, e.getMessage());
+        }
+    }
+
+    public Set<Long> findCompleteWindows(long from, long to) {
+        Set<Long> complete = new HashSet<>();
+        jdbcTemplate.query(COVERAGE_IN_RANGE_SQL, rs -> {
+            int reported = rs.getInt(3);
+            if (!rs.wasNull() && rs.getInt(2) >= reported) {
+                complete.add(rs.getLong(1));
+            }
+        }, windowStart(from), to);
+        return complete;
+    }
+
+    // Whether every window overlapping the span Wavu serves for 'before' is in completeWindows
+    public boolean coversWavuWindow(Set<Long> completeWindows, long before) {
+        for (long window = windowStart(before - adaptiveWindowSizer.getMaxWindowSeconds() + 1); window <= before; window += COVERAGE_WINDOW_SECONDS) {
+            if (!completeWindows.contains(window)) return false;
+        }
+        return true;
+    }
+
+    // Windows in [from, to) that are missing, hold fewer battles than Wavu reported, or are thin compared to
+    // the windows around them. Unverified windows that look as full as their neighbours are left alone.
+    public List<Long> findWindowsToFetch(long from, long to) {
+        long firstWindow = windowStart(from);
+        int windowCount = (int) ((to - firstWindow + COVERAGE_WINDOW_SECONDS - 1) / COVERAGE_WINDOW_SECONDS);
+        int[] stored = new int[windowCount];
+        int[] reported = new int[windowCount];
+        boolean[] present = new boolean[windowCount];
+        Arrays.fill(reported, -1);
+
+        jdbcTemplate.query(COVERAGE_IN_RANGE_SQL, rs -> {
+            int index = (int) ((rs.getLong(1) - firstWindow) / COVERAGE_WINDOW_SECONDS);
+            present[index] = true;
+            stored[index] = rs.getInt(2);
+            int reportedCount = rs.getInt(3);
+            if (!rs.wasNull()) reported[index] = reportedCount;
+        }, firstWindow, to);
+
+        List<Long> windows = new ArrayList<>();
+        for (int i = 0; i < windowCount; i++) {
+            boolean fetch;
+            if (reported[i] >= 0) {
+                fetch = stored[i] < reported[i];
+            } else {
+                fetch = !present[i] || stored[i] < thinRatio * neighbourMedian(stored, i);
+            }
+            if (fetch) windows.add(firstWindow + (long) i * COVERAGE_WINDOW_SECONDS);
+        }
+
+        recordSkipped(windowCount - windows.size());
+        return windows;
+    }
+
+    public void recordSkipped(int windows) {
+        if (windows > 0) skippedWindows.increment(windows);
+    }
+
+    private double neighbourMedian(int[] stored, int index) {
+        int from = Math.max(0, index - NEIGHBOUR_WINDOWS);
+        int to = Math.min(stored.length - 1, index + NEIGHBOUR_WINDOWS);
+        int[] neighbours = new int[to - from];
+        int n = 0;
+        for (int i = from; i <= to; i++) {
+            if (i != index) neighbours[n++] = stored[i];
+        }
+        if (n == 0) return 0;
+        Arrays.sort(neighbours, 0, n);
+        return (n % 2 == 1) ? neighbours[n / 2] : (neighbours[n / 2 - 1] + neighbours[n / 2]) / 2.0;
+    }
+
+    private void bufferStored(Map<Long, Integer> countsByWindow) {
+        synchronized (pendingStoredLock) {
+            countsByWindow.forEach((window, count) -> pendingStored.merge(window, count, Integer::sum));
+        }
+    }
+
+    private List<Object[]> toBatchArgs(Map<Long, Integer> countsByWindow) {
+        List<Object[]> batchArgs = new ArrayList<>(countsByWindow.size());
+        countsByWindow.forEach((window, count) -> batchArgs.add(new Object[]{window, count}));
+        return batchArgs;
+    }
+
+    // Counts the battles of a single Wavu response per window while its chunks are being published
+    public static class CoverageTally {
+        private final Map<Long, Integer> countsByWindow = new HashMap<>();
+
+        public synchronized void count(List<Battle> battles) {
+            for (Battle battle : battles) {
+                countsByWindow.merge(windowStart(battle.getBattleAt()), 1, Integer::sum);
+            }
+        }
+
+        synchronized int getCount(long window) {
+            return countsByWindow.getOrDefault(window, 0);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package org.ewgf.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Stage two of the staged pipeline. Consumers only commit the battle inserts and a pending row per battle; these
+// workers turn the pending rows into player, character_stats and replay counter updates in their own transactions,
+// so the row locks on hot players are held for one derivation batch instead of for the whole ingestion transaction,
+// and a slow derivation only grows the backlog instead of holding up the consumers.
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "battles.pipeline.mode", havingValue = "staged")
+public class BattleDerivationService implements SmartLifecycle {
+
+    private final BattleProcessingService battleProcessingService;
+    private final int workerCount;
+    private final int batchSize;
+    private final long idleMillis;
+    private final int maxAttempts;
+
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = false;
+
+    public BattleDerivationService(
+            BattleProcessingService battleProcessingService,
+            @Value("${battles.pipeline.derivation-workers}") int workerCount,
+            @Value("${battles.pipeline.derivation-batch-size}") int batchSize,
+            @Value("${battles.pipeline.derivation-idle-millis}") long idleMillis,
+            @Value("${battles.pipeline.derivation-max-attempts}") int maxAttempts) {
+        this.battleProcessingService = battleProcessingService;
+        this.workerCount = Math.max(1, workerCount);
+        this.batchSize = Math.max(1, batchSize);
+        this.idleMillis = Math.max(1, idleMillis);
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            workers.add(Thread.ofVirtual().name("battle-derivation-" + i).start(this::derive));
+        }
+        log.info("Battle derivation started with {} workers", workerCount);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        // Not interrupted: that would close a JDBC socket in the middle of a batch. Workers see the flag after it.
+        running = false;
+        for (Thread worker : workers) {
+            try {
+                worker.join(30_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        workers.clear();
+        log.info("Battle derivation stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void derive() {
+        while (running) {
+            try {
+                // A full batch means there is probably more waiting, so only an incomplete one backs off
+                if (battleProcessingService.derivePendingBattles(batchSize) < batchSize) {
+                    Thread.sleep(idleMillis);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                // The claimed rows were rolled back, deriving them one by one finds any battle that keeps failing
+                log.warn("Battle derivation batch failed, deriving its battles one at a time: {}", BattleRetryService.describe(e));
+                deriveIndividually();
+                sleepQuietly();
+            }
+        }
+    }
+
+    // Each battle is derived in its own transaction. One that fails with a non-transient error is charged an attempt
+    // and parked after maxAttempts, so a single bad battle cannot hold up the seqs behind it.
+    private void deriveIndividually() {
+        List<Long> seqs;
+        try {
+            seqs = battleProcessingService.findPendingDerivationSeqs(batchSize);
+        } catch (RuntimeException e) {
+            log.error("Failed to list pending derivations", e);
+            return;
+        }
+
+        for (long seq : seqs) {
+            if (!running) return;
+            try {
+                battleProcessingService.derivePendingBattle(seq);
+            } catch (RuntimeException e) {
+                recordFailure(seq, e);
+            }
+        }
+    }
+
+    private void recordFailure(long seq, RuntimeException failure) {
+        if (BattleRetryService.isRetryable(failure)) {
+            log.warn("Pending derivation {} failed with a transient error, leaving it for the next pass: {}",
+                    seq, BattleRetryService.describe(failure));
+            return;
+        }
+        try {
+            if (battleProcessingService.recordDerivationFailure(seq, BattleRetryService.describe(failure), maxAttempts)) {
+                log.error("Pending derivation {} failed {} times and was parked", seq, maxAttempts, failure);
+            } else {
+                log.warn("Pending derivation {} failed: {}", seq, BattleRetryService.describe(failure));
+            }
+        } catch (RuntimeException e) {
+            log.error("Failed to record the failure of pending derivation {}: {}", seq, e.getMessage());
+        }
+    }
+
+    private void sleepQuietly() {
+        try {
+            Thread.sleep(idleMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
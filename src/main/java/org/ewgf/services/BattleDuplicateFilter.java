@@ -0,0 +1,166 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.models.Battle;
+import org.ewgf.utils.RotatingBloomFilter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Array;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Drops battles that are already stored before they are published or inserted.
+// The Bloom filter only remembers recently stored battle ids, and a hit is confirmed against the battles table
+// in a single query per batch, so a false positive costs one lookup and never drops a new battle.
+@Slf4j
+@Service
+public class BattleDuplicateFilter {
+
+    private static final String EXISTING_BATTLE_IDS_SQL = "SELECT battle_id FROM battles WHERE battle_id = ANY(?)";
+    private static final String RECENT_BATTLE_IDS_SQL = "SELECT battle_id FROM battles WHERE battle_at > ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final RotatingBloomFilter filter;
+    private final boolean enabled;
+    private final int warmupHours;
+
+    private final Counter battlesChecked;
+    private final Counter filterHits;
+    private final Counter duplicatesDropped;
+    private final Counter falsePositives;
+
+    public BattleDuplicateFilter(
+            JdbcTemplate jdbcTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${dedup.enabled}") boolean enabled,
+            @Value("${dedup.buckets}") int buckets,
+            @Value("${dedup.bucket-minutes}") int bucketMinutes,
+            @Value("${dedup.expected-per-bucket}") int expectedPerBucket,
+            @Value("${dedup.false-positive-rate}") double falsePositiveRate,
+            @Value("${dedup.warmup-hours}") int warmupHours) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.warmupHours = warmupHours;
+        this.filter = new RotatingBloomFilter(
+                buckets, TimeUnit.MINUTES.toMillis(bucketMinutes), expectedPerBucket, falsePositiveRate);
+
+        this.battlesChecked = Counter.builder("battles.dedup.checked")
+                .description("Battles checked against the duplicate filter")
+                .register(meterRegistry);
+        this.filterHits = Counter.builder("battles.dedup.filter.hits")
+                .description("Battles the Bloom filter reported as possibly stored")
+                .register(meterRegistry);
+        this.duplicatesDropped = Counter.builder("battles.dedup.duplicates")
+                .description("Battles dropped because they were already stored")
+                .register(meterRegistry);
+        this.falsePositives = Counter.builder("battles.dedup.false.positives")
+                .description("Filter hits that turned out not to be stored")
+                .register(meterRegistry);
+        Gauge.builder("battles.dedup.duplicate.rate", this, BattleDuplicateFilter::getDuplicateRate)
+                .description("Share of checked battles that were duplicates")
+                .register(meterRegistry);
+        Gauge.builder("battles.dedup.false.positive.rate", this, BattleDuplicateFilter::getFalsePositiveRate)
+                .description("Share of filter hits that were false positives")
+                .register(meterRegistry);
+        Gauge.builder("battles.dedup.expected.false.positive.rate", filter, RotatingBloomFilter::expectedFalsePositiveRate)
+                .description("False positive rate estimated from the filter's fill")
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUp() {
+        if (!enabled) return;
+
+        long since = Instant.now().getEpochSecond() - TimeUnit.HOURS.toSeconds(warmupHours);
+        long start = System.currentTimeMillis();
+        int[] loaded = {0};
+        try {
+            jdbcTemplate.query(RECENT_BATTLE_IDS_SQL, rs -> {
+                filter.put(rs.getString(1));
+                loaded[0]++;
+            }, since);
+            log.info("Warmed battle duplicate filter with {} battle ids from the last {} hours in {} ms ({} bits x {} hashes per bucket)",
+                    loaded[0], warmupHours, System.currentTimeMillis() - start,
+                    filter.getBitsPerBucket(), filter.getHashFunctions());
+        } catch (Exception e) {
+            log.error("Failed to warm battle duplicate filter, starting cold: {}", e.getMessage());
+        }
+    }
+
+    public List<Battle> removeKnownDuplicates(List<Battle> battles) {
+        if (!enabled || battles == null || battles.isEmpty()) return battles;
+
+        battlesChecked.increment(battles.size());
+        List<String> candidateIds = new ArrayList<>();
+        for (Battle battle : battles) {
+            if (filter.mightContain(battle.getBattleId())) {
+                candidateIds.add(battle.getBattleId());
+            }
+        }
+        if (candidateIds.isEmpty()) return battles;
+
+        filterHits.increment(candidateIds.size());
+        Set<String> storedIds = findStoredBattleIds(candidateIds);
+        duplicatesDropped.increment(storedIds.size());
+        falsePositives.increment(candidateIds.size() - storedIds.size());
+        if (storedIds.isEmpty()) return battles;
+
+        log.debug("Dropped {} of {} battles already stored", storedIds.size(), battles.size());
+        return battles.stream()
+                .filter(battle -> !storedIds.contains(battle.getBattleId()))
+                .toList();
+    }
+
+    // Called inside the battle insert transaction, the ids only enter the filter once it commits
+    public void recordStored(Collection<String> battleIds) {
+        if (!enabled) return;
+
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            battleIds.forEach(filter::put);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                battleIds.forEach(filter::put);
+            }
+        });
+    }
+
+    public double getDuplicateRate() {
+        double checked = battlesChecked.count();
+        return checked == 0 ? 0.0 : duplicatesDropped.count() / checked;
+    }
+
+    public double getFalsePositiveRate() {
+        double hits = filterHits.count();
+        return hits == 0 ? 0.0 : falsePositives.count() / hits;
+    }
+
+    private Set<String> findStoredBattleIds(List<String> battleIds) {
+        Set<String> stored = new HashSet<>(battleIds.size());
+        jdbcTemplate.query(EXISTING_BATTLE_IDS_SQL,
+                ps -> {
+                    Array idArray = ps.getConnection().createArrayOf("varchar", battleIds.toArray());
+                    ps.setArray(1, idArray);
+                },
+                rs -> {
+                    stored.add(rs.getString(1));
+                });
+        return stored;
+    }
+}
@@ -1,11 +1,17 @@
 package org.ewgf.services;
 
+import org.ewgf.dtos.DerivationBacklogDTO;
 import org.ewgf.events.ReplayProcessingCompletedEvent;
 import org.ewgf.models.*;
+import org.ewgf.utils.BattleStatsAccumulator;
+import org.ewgf.utils.PlayerPartitioner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -17,6 +23,7 @@ import java.util.*;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
 
 import static org.ewgf.models.BattleType.RANKED_BATTLE;
 
@@ -25,26 +32,306 @@ public class BattleProcessingService {
 
     private final JdbcTemplate jdbcTemplate;
     private final ApplicationEventPublisher eventPublisher;
+    private final BattleDuplicateFilter battleDuplicateFilter;
+    private final BattleCoverageService battleCoverageService;
+    private final BattleBulkWriter battleBulkWriter;
+    private final StatisticsDeltaService statisticsDeltaService;
+    private final boolean deriveInSql;
+    private final boolean staged;
+    private final int summaryStripes;
 
     private static final long COOLDOWN_PERIOD = TimeUnit.MINUTES.toMillis(2); // 2 minute cooldown
     private final AtomicLong lastEventPublishTime = new AtomicLong(0);
     private final AtomicBoolean isPublishing = new AtomicBoolean(false);
     private static final Logger logger = LoggerFactory.getLogger(BattleProcessingService.class);
 
+    private static final String INSERT_HANDOFF_SQL =
+            "INSERT INTO pending_player_handoffs (battle_id, partition) VALUES (?, ?) ON CONFLICT (battle_id) DO NOTHING";
+    private static final String CLAIM_HANDOFFS_SQL =
+            "DELETE FROM pending_player_handoffs WHERE battle_id = ANY(?) RETURNING battle_id";
+    private static final String STALE_HANDOFFS_SQL =
+            "SELECT battle_id FROM pending_player_handoffs WHERE created_at < NOW() - make_interval(secs => ?) " +
+            "ORDER BY created_at LIMIT ?";
+
+    private static final String INSERT_PENDING_DERIVATIONS_SQL =
+            "INSERT INTO pending_battle_derivations (battle_id, ranked) SELECT * FROM unnest(?::varchar[], ?::boolean[])";
+    // SKIP LOCKED lets several derivation workers, in this instance or others, take disjoint slices of the backlog.
+    // Parked rows failed too often and are left for an operator.
+    private static final String CLAIM_PENDING_DERIVATIONS_SQL =
+            "SELECT p.seq, p.battle_id, p.ranked, b.game_version FROM pending_battle_derivations p " +
+            "LEFT JOIN battles b USING (battle_id) WHERE p.parked_at IS NULL " +
+            "ORDER BY p.seq LIMIT ? FOR UPDATE OF p SKIP LOCKED";
+    private static final String CLAIM_PENDING_DERIVATION_SQL =
+            "SELECT p.seq, p.battle_id, p.ranked, b.game_version FROM pending_battle_derivations p " +
+            "LEFT JOIN battles b USING (battle_id) WHERE p.seq = ? AND p.parked_at IS NULL FOR UPDATE OF p SKIP LOCKED";
+    private static final String PENDING_DERIVATION_SEQS_SQL =
+            "SELECT seq FROM pending_battle_derivations WHERE parked_at IS NULL ORDER BY seq LIMIT ?";
+    private static final String RECORD_DERIVATION_FAILURE_SQL =
+            "UPDATE pending_battle_derivations SET attempts = attempts + 1, last_error = ?, " +
+            "parked_at = CASE WHEN attempts + 1 >= ? THEN now() END " +
+            "WHERE seq = ? RETURNING parked_at IS NOT NULL";
+    private static final String DELETE_PENDING_DERIVATIONS_SQL =
+            "DELETE FROM pending_battle_derivations WHERE seq = ANY(?)";
+    private static final String PENDING_DERIVATIONS_STATUS_SQL =
+            "SELECT count(*) FILTER (WHERE parked_at IS NULL), min(seq) FILTER (WHERE parked_at IS NULL), " +
+            "max(seq) FILTER (WHERE parked_at IS NULL), " +
+            "EXTRACT(EPOCH FROM now() - min(created_at) FILTER (WHERE parked_at IS NULL))::bigint, " +
+            "count(*) FILTER (WHERE parked_at IS NOT NULL) " +
+            "FROM pending_battle_derivations";
+    private static final String SELECT_RANKED_SIDES_SQL =
+            "SELECT battle_id, battle_at, game_version, winner, " +
+            "player1_id, player1_name, player1_polaris_id, player1_region, player1_language, " +
+            "player1_tekken_power, player1_character_id, player1_dan_rank, " +
+            "player2_id, player2_name, player2_polaris_id, player2_region, player2_language, " +
+            "player2_tekken_power, player2_character_id, player2_dan_rank " +
+            "FROM battles WHERE battle_id = ANY(?) AND battle_type = 2 ORDER BY battle_at, battle_id";
+
+    private static final String UPDATE_SUMMARY_STRIPE_SQL =
+            "INSERT INTO tekken_stats_summary_stripes (stripe, ranked_replays, unranked_replays) VALUES (?, ?, ?) " +
+            "ON CONFLICT (stripe) DO UPDATE SET " +
+            "ranked_replays = tekken_stats_summary_stripes.ranked_replays + EXCLUDED.ranked_replays, " +
+            "unranked_replays = tekken_stats_summary_stripes.unranked_replays + EXCLUDED.unranked_replays";
+
+    private static final String PLAYER_CONFLICT_SQL =
+            "ON CONFLICT (player_id) DO UPDATE SET " +
+
+            "name = CASE WHEN EXCLUDED.latest_battle > players.latest_battle " +
+            "THEN EXCLUDED.name " +
+            "ELSE players.name END, " +
+
+            "tekken_power = CASE WHEN EXCLUDED.latest_battle > players.latest_battle " +
+            "THEN EXCLUDED.tekken_power " +
+            "ELSE players.tekken_power END, " +
+
+            "region_id = CASE " +
+            "WHEN EXCLUDED.latest_battle > players.latest_battle THEN COALESCE(EXCLUDED.region_id, players.region_id) " +
+            "ELSE players.region_id END, " +
+
+            "language = CASE " +
+            "WHEN EXCLUDED.latest_battle > players.latest_battle THEN COALESCE(EXCLUDED.language, players.language) " +
+            "ELSE players.language END, " +
+
+            "latest_battle = CASE WHEN EXCLUDED.latest_battle > players.latest_battle " +
+            "THEN EXCLUDED.latest_battle " +
+            "ELSE players.latest_battle END ";
+
+    private static final String CHARACTER_STATS_CONFLICT_SQL =
+            "ON CONFLICT (player_id, character_id, game_version) DO UPDATE SET " +
+
+            "dan_rank = CASE WHEN EXCLUDED.latest_battle > character_stats.latest_battle " +
+            "THEN EXCLUDED.dan_rank " +
+            "ELSE character_stats.dan_rank END, " +
+
+            "latest_battle = CASE WHEN EXCLUDED.latest_battle > character_stats.latest_battle " +
+            "THEN EXCLUDED.latest_battle " +
+            "ELSE character_stats.latest_battle END, " +
+
+            "wins = character_stats.wins + EXCLUDED.wins, " +
+            "losses = character_stats.losses + EXCLUDED.losses";
+
+    // One row per player side of the stored ranked battles in ?1 (player 1) and ?2 (player 2), with ids padded back
+    // to 18 digits the same way padPlayerIdToEighteen does
+    private static final String RANKED_SIDES_CTE =
+            "WITH sides AS (" +
+            "SELECT CASE WHEN length(player1_id) < 18 THEN lpad(player1_id, 18, '0') ELSE player1_id END AS player_id, " +
+            "player1_name AS name, player1_region AS region_id, player1_language AS language, " +
+            "player1_polaris_id AS polaris_id, player1_tekken_power AS tekken_power, " +
+            "player1_character_id::varchar AS character_id, game_version, player1_dan_rank AS dan_rank, " +
+            "battle_at, winner = 1 AS won " +
+            "FROM battles WHERE battle_id = ANY(?) AND battle_type = 2 " +
+            "UNION ALL " +
+            "SELECT CASE WHEN length(player2_id) < 18 THEN lpad(player2_id, 18, '0') ELSE player2_id END, " +
+            "player2_name, player2_region, player2_language, " +
+            "player2_polaris_id, player2_tekken_power, " +
+            "player2_character_id::varchar, game_version, player2_dan_rank, " +
+            "battle_at, winner = 2 " +
+            "FROM battles WHERE battle_id = ANY(?) AND battle_type = 2) ";
+
+    // Profile fields come from each player's newest battle in the batch; rows are ordered by player_id so concurrent
+    // batches take their row locks in the same order, as the sorted JDBC batches do
+    private static final String DERIVE_PLAYERS_SQL =
+            RANKED_SIDES_CTE +
+            "INSERT INTO players (player_id, name, region_id, language, polaris_id, tekken_power, latest_battle) " +
+            "SELECT DISTINCT ON (player_id) player_id, name, region_id, language, polaris_id, tekken_power, battle_at " +
+            "FROM sides ORDER BY player_id, battle_at DESC " +
+            PLAYER_CONFLICT_SQL;
+
+    private static final String DERIVE_CHARACTER_STATS_SQL =
+            RANKED_SIDES_CTE + ", " +
+            "latest AS (" +
+            "SELECT DISTINCT ON (player_id, character_id, game_version) player_id, character_id, game_version, dan_rank " +
+            "FROM sides ORDER BY player_id, character_id, game_version, battle_at DESC), " +
+            "totals AS (" +
+            "SELECT player_id, character_id, game_version, max(battle_at) AS latest_battle, " +
+            "count(*) FILTER (WHERE won) AS wins, count(*) FILTER (WHERE NOT won) AS losses " +
+            "FROM sides GROUP BY player_id, character_id, game_version) " +
+            "INSERT INTO character_stats (player_id, character_id, game_version, dan_rank, latest_battle, wins, losses) " +
+            "SELECT t.player_id, t.character_id, t.game_version, l.dan_rank, t.latest_battle, t.wins, t.losses " +
+            "FROM totals t JOIN latest l USING (player_id, character_id, game_version) " +
+            "ORDER BY t.player_id, t.character_id, t.game_version " +
+            CHARACTER_STATS_CONFLICT_SQL;
+
     public BattleProcessingService(JdbcTemplate jdbcTemplate,
-                                   ApplicationEventPublisher eventPublisher) {
+                                   ApplicationEventPublisher eventPublisher,
+                                   BattleDuplicateFilter battleDuplicateFilter,
+                                   BattleCoverageService battleCoverageService,
+                                   BattleBulkWriter battleBulkWriter,
+                                   StatisticsDeltaService statisticsDeltaService,
+                                   @Value("${battles.derivation.mode}") String derivationMode,
+                                   @Value("${battles.summary-stripes}") int summaryStripes,
+                                   @Value("${battles.pipeline.mode}") String pipelineMode) {
         this.jdbcTemplate = jdbcTemplate;
         this.eventPublisher = eventPublisher;
+        this.battleDuplicateFilter = battleDuplicateFilter;
+        this.battleCoverageService = battleCoverageService;
+        this.battleBulkWriter = battleBulkWriter;
+        this.statisticsDeltaService = statisticsDeltaService;
+        this.deriveInSql = "sql".equalsIgnoreCase(derivationMode.trim());
+        this.summaryStripes = Math.max(1, summaryStripes);
+        this.staged = "staged".equalsIgnoreCase(pipelineMode.trim());
+    }
+
+    public boolean isStaged() {
+        return staged;
+    }
+
+    @Transactional(rollbackFor = Exception.class)
+    public void processBattlesAsync(List<Battle> receivedBattles) {
+        processBattles(receivedBattles, (battle, playerNumber) -> true);
+    }
+
+    // Partitioned mode: the battles are stored here, but only the players that belong to this partition are updated.
+    // Ranked battles whose player 2 belongs to another partition get a pending hand-off row in the same transaction
+    // and are returned, so the caller can pass them to that partition once this transaction has committed.
+    @Transactional(rollbackFor = Exception.class)
+    public List<Battle> processPartitionBattles(List<Battle> receivedBattles, int partition, int partitions) {
+        if (staged) {
+            // The derivation stage updates both players of every battle, so nothing has to be handed off
+            processBattles(receivedBattles, (battle, playerNumber) -> true);
+            return List.of();
+        }
+        List<Battle> insertedRankedBattles = processBattles(receivedBattles,
+                (battle, playerNumber) -> PlayerPartitioner.partitionOf(getPlayerUserIdFromBattle(battle, playerNumber), partitions) == partition);
+
+        List<Battle> handoffs = insertedRankedBattles.stream()
+                .filter(battle -> PlayerPartitioner.partitionOf(battle.getPlayer2UserId(), partitions) != partition)
+                .toList();
+        if (!handoffs.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_HANDOFF_SQL, handoffs.stream()
+                    .map(battle -> new Object[]{battle.getBattleId(), PlayerPartitioner.partitionOf(battle.getPlayer2UserId(), partitions)})
+                    .toList());
+        }
+        return handoffs;
+    }
+
+    // Applies player 2 of battles another partition stored. Claiming the pending rows makes a redelivered or
+    // republished hand-off a no-op, so each battle is counted for player 2 exactly once.
+    @Transactional(rollbackFor = Exception.class)
+    public void processHandedOffBattles(List<Battle> battles) {
+        Set<String> claimedIds = claimHandoffs(battles.stream().map(Battle::getBattleId).toList());
+        List<Battle> claimedBattles = battles.stream()
+                .filter(battle -> claimedIds.contains(battle.getBattleId()))
+                .toList();
+        if (claimedBattles.isEmpty()) return;
+
+        BiPredicate<Battle, Integer> player2Only = (battle, playerNumber) -> playerNumber == 2;
+        if (deriveInSql) {
+            derivePlayersInSql(claimedBattles, player2Only);
+            return;
+        }
+        upsertAccumulatedPlayers(accumulateRankedBattles(claimedBattles, player2Only));
+    }
+
+    public List<String> findStaleHandoffIds(long olderThanSeconds, int limit) {
+        return jdbcTemplate.queryForList(STALE_HANDOFFS_SQL, String.class, olderThanSeconds, limit);
+    }
+
+    // Stage two of battles.pipeline.mode=staged: derives players, character_stats and the replay counters for up to
+    // limit committed battles. The pending rows are claimed, applied and deleted in one transaction, so a failed or
+    // interrupted run leaves them for the next one and a battle is never derived twice. Returns how many were claimed.
+    @Transactional(rollbackFor = Exception.class)
+    public int derivePendingBattles(int limit) {
+        return deriveClaimed(CLAIM_PENDING_DERIVATIONS_SQL, ps -> ps.setInt(1, limit), limit);
+    }
+
+    // Derives a single pending battle, used to find the battle that keeps failing a whole batch.
+    // Returns false when the row is gone, parked or claimed by another worker.
+    @Transactional(rollbackFor = Exception.class)
+    public boolean derivePendingBattle(long seq) {
+        return deriveClaimed(CLAIM_PENDING_DERIVATION_SQL, ps -> ps.setLong(1, seq), 1) > 0;
+    }
+
+    public List<Long> findPendingDerivationSeqs(int limit) {
+        return jdbcTemplate.queryForList(PENDING_DERIVATION_SEQS_SQL, Long.class, limit);
     }
 
+    // Charges a failed attempt to a pending row and parks it once it reaches maxAttempts. Returns whether it was parked.
     @Transactional(rollbackFor = Exception.class)
-    public void processBattlesAsync(List<Battle> battles) {
+    public boolean recordDerivationFailure(long seq, String error, int maxAttempts) {
+        List<Boolean> parked = jdbcTemplate.queryForList(RECORD_DERIVATION_FAILURE_SQL, Boolean.class, error, maxAttempts, seq);
+        return !parked.isEmpty() && Boolean.TRUE.equals(parked.get(0));
+    }
+
+    private int deriveClaimed(String claimSql, PreparedStatementSetter claimParameters, int limit) {
+        List<Long> claimedSeqs = new ArrayList<>(limit);
+        List<String> rankedIds = new ArrayList<>(limit);
+        Set<Integer> gameVersions = new HashSet<>();
+        int[] unranked = new int[1];
+        jdbcTemplate.query(claimSql, claimParameters, rs -> {
+            claimedSeqs.add(rs.getLong(1));
+            if (rs.getBoolean(3)) {
+                rankedIds.add(rs.getString(2));
+                gameVersions.add(rs.getInt(4));
+            } else {
+                unranked[0]++;
+            }
+        });
+        if (claimedSeqs.isEmpty()) return 0;
+        long startTime = System.currentTimeMillis();
+
+        if (!rankedIds.isEmpty()) {
+            if (deriveInSql) {
+                Object[] battleIds = rankedIds.toArray();
+                derivePlayersInSql(battleIds, battleIds);
+            } else {
+                upsertAccumulatedPlayers(accumulateRankedBattles(loadRankedSides(rankedIds), (battle, playerNumber) -> true));
+            }
+        }
+        updateBattleCounts(rankedIds.size(), unranked[0]);
+        jdbcTemplate.update(DELETE_PENDING_DERIVATIONS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("bigint", claimedSeqs.toArray())));
+
+        logger.info("Derived {} pending battles: {} ms", claimedSeqs.size(), (System.currentTimeMillis() - startTime));
+        tryPublishEvent(gameVersions);
+        return claimedSeqs.size();
+    }
+
+    public DerivationBacklogDTO getDerivationBacklog() {
+        return jdbcTemplate.queryForObject(PENDING_DERIVATIONS_STATUS_SQL, (rs, rowNum) -> new DerivationBacklogDTO(
+                staged,
+                rs.getLong(1),
+                (Long) rs.getObject(2),
+                (Long) rs.getObject(3),
+                (Long) rs.getObject(4),
+                rs.getLong(5)));
+    }
+
+    // Returns the ranked battles this call inserted
+    private List<Battle> processBattles(List<Battle> receivedBattles, BiPredicate<Battle, Integer> includesPlayer) {
+        // battles known to be stored already are dropped before they reach the insert
+        List<Battle> battles = battleDuplicateFilter.removeKnownDuplicates(receivedBattles);
+        if (battles.isEmpty()) {
+            logger.info("All {} battles were already stored, skipping processing", receivedBattles.size());
+            return List.of();
+        }
+
         // this will drop any duplicate battles from the batch
         Set<String> insertedBattleIds = executeBattleBatchWrite(battles);
         if (insertedBattleIds.isEmpty()) {
             logger.info("No battles inserted, skipping processing");
-            return;
+            return List.of();
         }
+        battleDuplicateFilter.recordStored(insertedBattleIds);
 
         List<Battle> InsertedRankedBattles = battles.stream()
                 .filter(battle -> insertedBattleIds.contains(battle.getBattleId()) && battle.getBattleType() == RANKED_BATTLE)
@@ -54,32 +341,95 @@ public class BattleProcessingService {
                 .filter(battle -> insertedBattleIds.contains(battle.getBattleId()) && battle.getBattleType() != RANKED_BATTLE)
                 .toList();
 
-        Set<Integer> gameVersionsToProcess = extractGameVersions(InsertedRankedBattles);
-        HashMap<String, Player> updatedPlayers = new HashMap<>();
+        battleCoverageService.recordStored(battles.stream()
+                .filter(battle -> insertedBattleIds.contains(battle.getBattleId()))
+                .toList());
 
-        // Instantiate objects and update relevant information
-        processBattlesAndPlayers(InsertedRankedBattles, updatedPlayers);
-        executePlayerUpdateOperations(updatedPlayers, InsertedRankedBattles.size(), InsertedUnrankedBattles.size());
+        if (staged) {
+            recordPendingDerivations(battles, insertedBattleIds);
+            return InsertedRankedBattles;
+        }
+
+        Set<Integer> gameVersionsToProcess = extractGameVersions(InsertedRankedBattles);
+        if (deriveInSql) {
+            derivePlayersInSql(InsertedRankedBattles, includesPlayer);
+            updateBattleCounts(InsertedRankedBattles.size(), InsertedUnrankedBattles.size());
+        } else {
+            BattleStatsAccumulator updatedPlayers = accumulateRankedBattles(InsertedRankedBattles, includesPlayer);
+            executePlayerUpdateOperations(updatedPlayers, InsertedRankedBattles.size(), InsertedUnrankedBattles.size());
+        }
         tryPublishEvent(gameVersionsToProcess);
+        return InsertedRankedBattles;
+    }
+
+    private void executePlayerUpdateOperations(BattleStatsAccumulator updatedPlayers, Integer insertedRankedBattles, Integer insertedUnrankedBattles) {
+        upsertAccumulatedPlayers(updatedPlayers);
+        updateBattleCounts(insertedRankedBattles, insertedUnrankedBattles);
     }
 
-    private void executePlayerUpdateOperations(Map<String, Player> updatedPlayers, Integer insertedRankedBattles, Integer insertedUnrankedBattles) {
-        executePlayerBulkOperations(updatedPlayers);
-        executeCharacterStatsBulkOperations(updatedPlayers);
-        if (insertedRankedBattles > 0) updateRankedBattleCount(insertedRankedBattles);
-        if (insertedUnrankedBattles > 0) updateUnrankedBattleCount(insertedUnrankedBattles);
+    private void upsertAccumulatedPlayers(BattleStatsAccumulator updatedPlayers) {
+        statisticsDeltaService.applyingDeltas(updatedPlayers.getPlayerIds(), () -> {
+            executePlayerBulkOperations(updatedPlayers);
+            executeCharacterStatsBulkOperations(updatedPlayers);
+        });
     }
 
-    private void processBattlesAndPlayers(
+    // Each thread adds to one of summaryStripes counter rows, so concurrent consumers only wait on each other's row
+    // lock when they share a stripe. Readers sum the stripes onto tekken_stats_summary.
+    private void updateBattleCounts(int insertedRankedBattles, int insertedUnrankedBattles) {
+        if (insertedRankedBattles == 0 && insertedUnrankedBattles == 0) return;
+        int stripe = (int) Math.floorMod(Thread.currentThread().threadId(), (long) summaryStripes);
+        jdbcTemplate.update(UPDATE_SUMMARY_STRIPE_SQL, stripe, insertedRankedBattles, insertedUnrankedBattles);
+    }
+
+    // battles.derivation.mode=sql: players and character_stats are upserted from the stored battle rows with two
+    // statements, instead of being built up as entities here and sent as one parameter row each
+    private void derivePlayersInSql(List<Battle> rankedBattles, BiPredicate<Battle, Integer> includesPlayer) {
+        if (rankedBattles.isEmpty()) return;
+
+        Object[] player1BattleIds = rankedBattles.stream()
+                .filter(battle -> includesPlayer.test(battle, 1))
+                .map(Battle::getBattleId)
+                .toArray();
+        Object[] player2BattleIds = rankedBattles.stream()
+                .filter(battle -> includesPlayer.test(battle, 2))
+                .map(Battle::getBattleId)
+                .toArray();
+        derivePlayersInSql(player1BattleIds, player2BattleIds);
+    }
+
+    private void derivePlayersInSql(Object[] player1BattleIds, Object[] player2BattleIds) {
+        if (player1BattleIds.length == 0 && player2BattleIds.length == 0) return;
+        long startTime = System.currentTimeMillis();
+
+        PreparedStatementSetter sides = ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("varchar", player1BattleIds));
+            ps.setArray(2, ps.getConnection().createArrayOf("varchar", player2BattleIds));
+        };
+        List<String> playerIds = statisticsDeltaService.isIncremental()
+                ? jdbcTemplate.query(RANKED_SIDES_CTE + "SELECT DISTINCT player_id FROM sides", sides, (rs, rowNum) -> rs.getString(1))
+                : List.of();
+        int[] upserted = new int[2];
+        statisticsDeltaService.applyingDeltas(playerIds, () -> {
+            upserted[0] = jdbcTemplate.update(DERIVE_PLAYERS_SQL, sides);
+            upserted[1] = jdbcTemplate.update(DERIVE_CHARACTER_STATS_SQL, sides);
+        });
+
+        logger.info("Set-based player derivation: {} ms, Players: {}, CharacterStats: {}",
+                (System.currentTimeMillis() - startTime), upserted[0], upserted[1]);
+    }
+
+    // Folds the ranked battles into this thread's accumulator, which is cleared first and reused across batches
+    private BattleStatsAccumulator accumulateRankedBattles(
             List<Battle> battles,
-            HashMap<String, Player> updatedPlayers) {
+            BiPredicate<Battle, Integer> includesPlayer) {
+        BattleStatsAccumulator updatedPlayers = BattleStatsAccumulator.forCurrentThread();
         if (battles.isEmpty()) {
             logger.warn("Battle batch was empty, Skipping player updates.");
-            return;
+            return updatedPlayers;
         }
         long startTime = System.currentTimeMillis();
 
-
         for (Battle battle : battles) {
             if (battle.getBattleType() != RANKED_BATTLE) continue;
 
@@ -87,51 +437,30 @@ public class BattleProcessingService {
             battle.setPlayer1UserId(padPlayerIdToEighteen(battle.getPlayer1UserId()));
             battle.setPlayer2UserId(padPlayerIdToEighteen(battle.getPlayer2UserId()));
 
-            // Process Player 1
-            String player1Id = getPlayerUserIdFromBattle(battle, 1);
-            Player player1 = updatedPlayers.get(player1Id);
-            if (player1 == null) {
-                player1 = new Player();
-                setPlayerStatsWithBattle(player1, battle, 1);
-                updatedPlayers.put(player1Id, player1);
-            }
-            setCharacterStatsWithBattle(player1, battle, 1);
-
-            // Process Player 2
-            String player2Id = getPlayerUserIdFromBattle(battle, 2);
-
-            Player player2 = updatedPlayers.get(player2Id);
-            if (player2 == null) {
-                player2 = new Player();
-                setPlayerStatsWithBattle(player2, battle, 2);
-                updatedPlayers.put(player2Id, player2);
-            }
-            setCharacterStatsWithBattle(player2, battle, 2);
+            if (includesPlayer.test(battle, 1)) updatedPlayers.add(battle, 1);
+            if (includesPlayer.test(battle, 2)) updatedPlayers.add(battle, 2);
         }
 
         logger.info("Updated player and battle information: {} ms", (System.currentTimeMillis() - startTime));
+        return updatedPlayers;
     }
 
 
     public Set<String> executeBattleBatchWrite(List<Battle> batch) {
         try {
-            int CHUNK_SIZE = 1000;
             long startTime = System.currentTimeMillis();
             // insert battle and increment replay count, else do nothing
 
-            Set<String> inserted = new HashSet<>(batch.size());
             // we keep the whole operation in one transaction so it is still atomic
             jdbcTemplate.execute((Connection con) -> {
                 con.setAutoCommit(false);
                 return null;
             });
 
-            for (int start = 0; start < batch.size(); start += CHUNK_SIZE) {
-                int end = Math.min(start + CHUNK_SIZE, batch.size());
-                List<Battle> slice = batch.subList(start, end);
-
-                inserted.addAll(insertChunk(slice));
+            for (Battle battle : batch) {
+                battle.setDate(getReadableDateInUTC(battle));
             }
+            Set<String> inserted = battleBulkWriter.insert(batch);
 
             logger.info("All Battles inserted successfully: {} ms", (System.currentTimeMillis() - startTime));
             return inserted;
@@ -141,82 +470,9 @@ public class BattleProcessingService {
         }
     }
 
-    private Set<String> insertChunk(List<Battle> chunk) {
-        String SQL =
-                "INSERT INTO battles (" +
-                        "battle_id, date, battle_at, battle_type, game_version, " +
-                        "player1_character_id, player1_name, player1_region, " +
-                        "player1_language, player1_polaris_id, player1_tekken_power, player1_dan_rank, " +
-                        "player1_rating_before, player1_rating_change, player1_rounds_won, player1_id, " +
-                        "player2_character_id, player2_name, player2_region, player2_language, " +
-                        "player2_polaris_id, player2_tekken_power, player2_dan_rank, " +
-                        "player2_rating_before, player2_rating_change, player2_rounds_won, player2_id, " +
-                        "stageid, winner" +
-                        ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?) " +
-                        "ON CONFLICT (battle_id) DO NOTHING " +
-                        "RETURNING battle_id";
-
-        for (Battle battle : chunk) {
-            battle.setDate(getReadableDateInUTC(battle));
-        }
+    public void executePlayerBulkOperations(BattleStatsAccumulator updatedPlayers) {
 
-        return jdbcTemplate.execute(
-                (Connection con) -> con.prepareStatement(
-                        SQL,
-                        new String[]{"battle_id"}
-                ),
-                (PreparedStatement ps) -> {
-                    for (Battle b : chunk) {
-                        int i = 1;
-                        ps.setString(i++, b.getBattleId());
-                        ps.setString(i++, b.getDate());
-                        ps.setLong(i++, b.getBattleAt());
-                        ps.setInt(i++, b.getBattleType().getBattleCode());
-                        ps.setInt(i++, b.getGameVersion());
-                        ps.setInt(i++, b.getPlayer1CharacterId());
-                        ps.setString(i++, b.getPlayer1Name());
-                        setNullableInt(ps, i++, b.getPlayer1RegionId());
-                        ps.setString(i++, b.getPlayer1Language());
-                        ps.setString(i++, b.getPlayer1PolarisId());
-                        ps.setLong(i++, b.getPlayer1TekkenPower());
-                        ps.setInt(i++, b.getPlayer1DanRank());
-                        setNullableInt(ps, i++, b.getPlayer1RegionId());
-                        setNullableInt(ps, i++, b.getPlayer1RatingChange());
-                        ps.setInt(i++, b.getPlayer1RoundsWon());
-                        ps.setString(i++, b.getPlayer1UserId());
-                        ps.setInt(i++, b.getPlayer2CharacterId());
-                        ps.setString(i++, b.getPlayer2Name());
-                        setNullableInt(ps, i++, b.getPlayer2RegionId());
-                        ps.setString(i++, b.getPlayer2Language());
-                        ps.setString(i++, b.getPlayer2PolarisId());
-                        ps.setLong(i++, b.getPlayer2TekkenPower());
-                        ps.setInt(i++, b.getPlayer2DanRank());
-                        setNullableInt(ps, i++, b.getPlayer2RatingBefore());
-                        setNullableInt(ps, i++, b.getPlayer2RatingChange());
-                        ps.setInt(i++, b.getPlayer2RoundsWon());
-                        ps.setString(i++, b.getPlayer2UserId());
-                        ps.setInt(i++, b.getStageId());
-                        ps.setInt(i++, b.getWinner());
-                        ps.addBatch();
-                    }
-
-                    /* Actually run the batch — one round‑trip */
-                    ps.executeBatch();
-
-                    /* Postgres returns one row per **successful** insert */
-                    Set<String> ids = new HashSet<>();
-                    try (ResultSet rs = ps.getGeneratedKeys()) {
-                        while (rs != null && rs.next()) {
-                            ids.add(rs.getString(1));
-                        }
-                    }
-                    return ids; // Spring returns this to the caller
-                });
-    }
-
-    public void executePlayerBulkOperations(Map<String, Player> updatedPlayersMap) {
-
-        if (updatedPlayersMap.isEmpty()) {
+        if (updatedPlayers.getPlayerCount() == 0) {
             logger.debug("Updated Player Set is empty! (Battle batch already existed in database)");
             return;
         }
@@ -227,41 +483,37 @@ public class BattleProcessingService {
                 "INSERT INTO players " +
                         "(player_id, name, region_id, language, polaris_id, tekken_power, latest_battle) " +
                         "VALUES (?, ?, ?, ?, ?, ?, ?) " +
-                        "ON CONFLICT (player_id) DO UPDATE SET " +
-
-                        "name = CASE WHEN EXCLUDED.latest_battle > players.latest_battle " +
-                        "THEN EXCLUDED.name " +
-                        "ELSE players.name END, " +
-
-                        "tekken_power = CASE WHEN EXCLUDED.latest_battle > players.latest_battle " +
-                        "THEN EXCLUDED.tekken_power " +
-                        "ELSE players.tekken_power END, " +
-
-                        "region_id = CASE " +
-                        "WHEN EXCLUDED.latest_battle > players.latest_battle THEN COALESCE(EXCLUDED.region_id, players.region_id) " +
-                        "ELSE players.region_id END, " +
-
-                        "language = CASE " +
-                        "WHEN EXCLUDED.latest_battle > players.latest_battle THEN COALESCE(EXCLUDED.language, players.language) " +
-                        "ELSE players.language END, " +
-
-                        "latest_battle = CASE WHEN EXCLUDED.latest_battle > players.latest_battle " +
-                        "THEN EXCLUDED.latest_battle " +
-                        "ELSE players.latest_battle END ";
-
-        List<Object[]> batchArgs = getPlayerBatchObjects(updatedPlayersMap);
-
-        batchArgs.sort(Comparator.comparing((Object[] args) -> (String) args[0]));
+                        PLAYER_CONFLICT_SQL;
+
+        // Sorted by player_id to reduce the rate of deadlocks occurring
+        int[] order = updatedPlayers.sortedPlayers();
+        int count = updatedPlayers.getPlayerCount();
+
+        jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                int player = order[i];
+                ps.setString(1, updatedPlayers.getPlayerId(player));
+                ps.setString(2, updatedPlayers.getName(player));
+                setNullableInt(ps, 3, updatedPlayers.getRegionId(player));
+                ps.setString(4, updatedPlayers.getLanguage(player));
+                ps.setString(5, updatedPlayers.getPolarisId(player));
+                ps.setLong(6, updatedPlayers.getTekkenPower(player));
+                ps.setLong(7, updatedPlayers.getPlayerLatestBattle(player));
+            }
 
-        // Execute batch update
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+            @Override
+            public int getBatchSize() {
+                return count;
+            }
+        });
 
         logger.info("Player Bulk Upsert: {} ms, Processed Players: {}",
-                (System.currentTimeMillis() - startTime), updatedPlayersMap.size());
+                (System.currentTimeMillis() - startTime), count);
     }
 
-    public void executeCharacterStatsBulkOperations(Map<String, Player> updatedPlayersSet) {
-        if (updatedPlayersSet.isEmpty()) {
+    public void executeCharacterStatsBulkOperations(BattleStatsAccumulator updatedPlayers) {
+        if (updatedPlayers.getCharacterStatsCount() == 0) {
             logger.debug("Player set is empty, character updates aborted (Battle batch already existed in database)");
             return;
         }
@@ -272,93 +524,33 @@ public class BattleProcessingService {
                 "INSERT INTO character_stats " +
                         "(player_id, character_id, game_version, dan_rank, latest_battle, wins, losses) " +
                         "VALUES (?, ?, ?, ?, ?, ?, ?) " +
-                        "ON CONFLICT (player_id, character_id, game_version) DO UPDATE SET " +
-
-                        "dan_rank = CASE WHEN EXCLUDED.latest_battle > character_stats.latest_battle " +
-                        "THEN EXCLUDED.dan_rank " +
-                        "ELSE character_stats.dan_rank END, " +
-
-                        "latest_battle = CASE WHEN EXCLUDED.latest_battle > character_stats.latest_battle " +
-                        "THEN EXCLUDED.latest_battle " +
-                        "ELSE character_stats.latest_battle END, " +
-
-                        "wins = character_stats.wins + EXCLUDED.wins, " +
-                        "losses = character_stats.losses + EXCLUDED.losses";
-
-        List<Object[]> batchArgs = getCharacterStatsBatchObjects(updatedPlayersSet);
+                        CHARACTER_STATS_CONFLICT_SQL;
 
         // Sorting to reduce the rate of deadlocks occurring
-        batchArgs.sort(Comparator.comparing((Object[] args) -> (String) args[0]) // player_id
-                .thenComparing(args -> (String) args[1])  // character_id
-                .thenComparing(args -> (Integer) args[2])); // game_version
+        int[] order = updatedPlayers.sortedCharacterStats();
+        int count = updatedPlayers.getCharacterStatsCount();
+
+        jdbcTemplate.batchUpdate(sql, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                int stat = order[i];
+                ps.setString(1, updatedPlayers.getStatPlayerId(stat));
+                ps.setString(2, updatedPlayers.getStatCharacterId(stat));
+                ps.setInt(3, updatedPlayers.getStatGameVersion(stat));
+                ps.setInt(4, updatedPlayers.getStatDanRank(stat));
+                ps.setLong(5, updatedPlayers.getStatLatestBattle(stat));
+                ps.setInt(6, updatedPlayers.getStatWins(stat));
+                ps.setInt(7, updatedPlayers.getStatLosses(stat));
+            }
 
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+            @Override
+            public int getBatchSize() {
+                return count;
+            }
+        });
 
         logger.info("CharacterStats Bulk Upsert: {} ms, Total Processed CharacterStats: {}",
-                (System.currentTimeMillis() - startTime), batchArgs.size());
-    }
-
-    private void setCharacterStatsWithBattle(Player player, Battle battle, int playerNumber) {
-        String characterId = getPlayerCharacterFromBattle(battle, playerNumber);
-        int gameVersion = battle.getGameVersion();
-
-        CharacterStatsId statsId = new CharacterStatsId();
-        statsId.setPlayerId(player.getPlayerId());
-        statsId.setCharacterId(characterId);
-        statsId.setGameVersion(gameVersion);
-
-        // Fetch or initialize CharacterStats for this character and game version
-        CharacterStats stats = player.getCharacterStats().get(statsId);
-
-        if (stats == null) {
-            stats = new CharacterStats();
-            stats.setId(statsId);
-            stats.setDanRank(getPlayerDanRankFromBattle(battle, playerNumber));
-            player.getCharacterStats().put(statsId, stats);
-        }
-
-        // Update wins or losses based on the battle result
-        if (battle.getWinner() == playerNumber) {
-            stats.setWinsIncrement(stats.getWinsIncrement() + 1);
-            stats.setWins(stats.getWins() + 1);
-        } else {
-            stats.setLossIncrement(stats.getLossIncrement() + 1);
-            stats.setLosses(stats.getLosses() + 1);
-        }
-
-        // Only update the danRank and latest battle if this battle is newer than the current latest one in the batch
-        if (battle.getBattleAt() > stats.getLatestBattle()) {
-            stats.setLatestBattle(battle.getBattleAt());
-            player.setLatestBattle(battle.getBattleAt());
-            player.updateTekkenPower(
-                    (getPlayerCharacterFromBattle(battle, playerNumber).equals("1") ? battle.getPlayer1TekkenPower() : battle.getPlayer2TekkenPower()),
-                    battle.getBattleAt()
-            );
-            stats.setDanRank(getPlayerDanRankFromBattle(battle, playerNumber));
-        }
-    }
-
-    private void setPlayerStatsWithBattle(Player player, Battle battle, int playerNumber) {
-        player.setPlayerId(getPlayerUserIdFromBattle(battle, playerNumber));
-        player.setName(getPlayerNameFromBattle(battle, playerNumber));
-        player.setPolarisId(getPlayerPolarisIdFromBattle(battle, playerNumber));
-        player.setTekkenPower(getPlayerTekkenPowerFromBattle(battle, playerNumber));
-        player.setLanguage(getPlayerLanguageFromBattle(battle, playerNumber));
-        player.setRegionId(getPlayerRegionIDFromBattle(battle, playerNumber));
-
-        CharacterStats characterStats = new CharacterStats();
-        CharacterStatsId statsId = new CharacterStatsId();
-
-        statsId.setPlayerId(player.getPlayerId());
-        statsId.setCharacterId(getPlayerCharacterFromBattle(battle, playerNumber));
-        statsId.setGameVersion(battle.getGameVersion());
-
-        characterStats.setId(statsId);
-        characterStats.setDanRank(getPlayerDanRankFromBattle(battle, playerNumber));
-        characterStats.setLatestBattle(battle.getBattleAt());
-
-        player.getCharacterStats().put(statsId, characterStats);
-        player.setLatestBattle(battle.getBattleAt());
+                (System.currentTimeMillis() - startTime), count);
     }
 
     private void tryPublishEvent(Set<Integer> gameVersions) {
@@ -392,78 +584,70 @@ public class BattleProcessingService {
         }
     }
 
-    private Set<Integer> extractGameVersions(List<Battle> battles) {
-        HashSet<Integer> gameVersions = new HashSet<>();
-        for (Battle battle : battles) {
-            gameVersions.add(battle.getGameVersion());
-        }
-        return gameVersions;
-    }
-
-    private List<Object[]> getPlayerBatchObjects(Map<String, Player> updatedPlayersMap) {
-        List<Object[]> batchArgs = new ArrayList<>();
-
-        for (Player updatedPlayer : updatedPlayersMap.values()) {
-            Object[] args = new Object[]{
-                    updatedPlayer.getPlayerId(),
-                    updatedPlayer.getName(),
-                    updatedPlayer.getRegionId(),
-                    updatedPlayer.getLanguage(),
-                    updatedPlayer.getPolarisId(),
-                    updatedPlayer.getTekkenPower(),
-                    updatedPlayer.getLatestBattle()
-            };
-            batchArgs.add(args);
+    // Stage one of the staged pipeline: one pending row per inserted battle, written in the insert transaction
+    private void recordPendingDerivations(List<Battle> battles, Set<String> insertedBattleIds) {
+        List<Battle> inserted = battles.stream()
+                .filter(battle -> insertedBattleIds.contains(battle.getBattleId()))
+                .toList();
+        Object[] battleIds = new Object[inserted.size()];
+        Object[] ranked = new Object[inserted.size()];
+        for (int i = 0; i < inserted.size(); i++) {
+            battleIds[i] = inserted.get(i).getBattleId();
+            ranked[i] = inserted.get(i).getBattleType() == RANKED_BATTLE;
         }
-        return batchArgs;
+        jdbcTemplate.update(INSERT_PENDING_DERIVATIONS_SQL, ps -> {
+            ps.setArray(1, ps.getConnection().createArrayOf("varchar", battleIds));
+            ps.setArray(2, ps.getConnection().createArrayOf("boolean", ranked));
+        });
     }
 
-    private List<Object[]> getCharacterStatsBatchObjects(Map<String, Player> updatedPlayersSet) {
-        List<Object[]> batchArgs = new ArrayList<>();
-
-        for (Player updatedPlayer : updatedPlayersSet.values()) {
-            String userId = updatedPlayer.getPlayerId();
-
-            Map<CharacterStatsId, CharacterStats> updatedCharacterStats = updatedPlayer.getCharacterStats();
-            if (updatedCharacterStats != null) {
-                for (Map.Entry<CharacterStatsId, CharacterStats> entry : updatedCharacterStats.entrySet()) {
-                    CharacterStatsId statsId = entry.getKey();
-                    CharacterStats updatedStats = entry.getValue();
-
-                    int winsIncrement = updatedStats.getWinsIncrement();
-                    int lossesIncrement = updatedStats.getLossIncrement();
-
-                    Object[] args = new Object[]{
-                            userId,
-                            statsId.getCharacterId(),
-                            statsId.getGameVersion(),
-                            updatedStats.getDanRank(),
-                            updatedStats.getLatestBattle(),
-                            winsIncrement,
-                            lossesIncrement
-                    };
-
-                    batchArgs.add(args);
-                }
-            }
-        }
-        return batchArgs;
+    // Only the columns the accumulator reads are loaded
+    private List<Battle> loadRankedSides(List<String> battleIds) {
+        return jdbcTemplate.query(SELECT_RANKED_SIDES_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", battleIds.toArray())),
+                (rs, rowNum) -> {
+                    Battle battle = new Battle();
+                    battle.setBattleId(rs.getString("battle_id"));
+                    battle.setBattleType(RANKED_BATTLE);
+                    battle.setBattleAt(rs.getLong("battle_at"));
+                    battle.setGameVersion(rs.getInt("game_version"));
+                    battle.setWinner(rs.getInt("winner"));
+                    battle.setPlayer1UserId(rs.getString("player1_id"));
+                    battle.setPlayer1Name(rs.getString("player1_name"));
+                    battle.setPlayer1PolarisId(rs.getString("player1_polaris_id"));
+                    battle.setPlayer1RegionId((Integer) rs.getObject("player1_region"));
+                    battle.setPlayer1Language(rs.getString("player1_language"));
+                    battle.setPlayer1TekkenPower(rs.getLong("player1_tekken_power"));
+                    battle.setPlayer1CharacterId(rs.getInt("player1_character_id"));
+                    battle.setPlayer1DanRank(rs.getInt("player1_dan_rank"));
+                    battle.setPlayer2UserId(rs.getString("player2_id"));
+                    battle.setPlayer2Name(rs.getString("player2_name"));
+                    battle.setPlayer2PolarisId(rs.getString("player2_polaris_id"));
+                    battle.setPlayer2RegionId((Integer) rs.getObject("player2_region"));
+                    battle.setPlayer2Language(rs.getString("player2_language"));
+                    battle.setPlayer2TekkenPower(rs.getLong("player2_tekken_power"));
+                    battle.setPlayer2CharacterId(rs.getInt("player2_character_id"));
+                    battle.setPlayer2DanRank(rs.getInt("player2_dan_rank"));
+                    return battle;
+                });
     }
 
-    private void updateRankedBattleCount(int battleCount) {
-        if (battleCount == 0) return;
-        String sql = "UPDATE tekken_stats_summary SET " +
-                "total_ranked_replays = total_ranked_replays + ?";
-
-        jdbcTemplate.update(sql, battleCount);
+    private Set<String> claimHandoffs(List<String> battleIds) {
+        Set<String> claimed = new HashSet<>(battleIds.size());
+        jdbcTemplate.query(CLAIM_HANDOFFS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", battleIds.toArray())),
+                rs -> {
+                    claimed.add(rs.getString(1));
+                });
+        return claimed;
     }
 
-    private void updateUnrankedBattleCount(int battleCount) {
-        if (battleCount == 0) return;
-        String sql = "UPDATE tekken_stats_summary SET " +
-                "total_unranked_replays = total_unranked_replays + ?";
-
-        jdbcTemplate.update(sql, battleCount);
+    private Set<Integer> extractGameVersions(List<Battle> battles) {
+        HashSet<Integer> gameVersions = new HashSet<>();
+        for (Battle battle : battles) {
+            gameVersions.add(battle.getGameVersion());
+        }
+        return gameVersions;
     }
 
     private String getReadableDateInUTC(Battle battle) {
@@ -472,42 +656,16 @@ public class BattleProcessingService {
                 .format(DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss 'UTC'"));
     }
 
-    private String getPlayerNameFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? battle.getPlayer1Name() : battle.getPlayer2Name();
-    }
-
-    private String getPlayerLanguageFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? battle.getPlayer1Language() : battle.getPlayer2Language();
-    }
-
-    private Integer getPlayerRegionIDFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? battle.getPlayer1RegionId() : battle.getPlayer2RegionId();
-    }
-
-    private String getPlayerCharacterFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? String.valueOf(battle.getPlayer1CharacterId()) : String.valueOf(battle.getPlayer2CharacterId());
-    }
-
     private String getPlayerUserIdFromBattle(Battle battle, int playerNumber) {
         return playerNumber == 1 ? battle.getPlayer1UserId() : battle.getPlayer2UserId();
     }
 
-    private String getPlayerPolarisIdFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? battle.getPlayer1PolarisId() : battle.getPlayer2PolarisId();
-    }
-
-    private long getPlayerTekkenPowerFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? battle.getPlayer1TekkenPower() : battle.getPlayer2TekkenPower();
-    }
-
-    private int getPlayerDanRankFromBattle(Battle battle, int playerNumber) {
-        return playerNumber == 1 ? battle.getPlayer1DanRank() : battle.getPlayer2DanRank();
-    }
-
-    private static void setNullableInt(PreparedStatement ps, int idx, Integer val)
-            throws SQLException {
-        if (val == null) ps.setNull(idx, Types.INTEGER);
-        else ps.setInt(idx, val);
+    private void setNullableInt(PreparedStatement ps, int index, Integer value) throws SQLException {
+        if (value == null) {
+            ps.setNull(index, Types.INTEGER);
+        } else {
+            ps.setInt(index, value);
+        }
     }
 
     private String padPlayerIdToEighteen(String playerId) {
@@ -0,0 +1,226 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.configuration.RabbitMQConfig;
+import org.ewgf.dtos.RetryQueueStatusDTO;
+import org.postgresql.util.PSQLException;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.ewgf.utils.Constants.PARKING_LEVEL;
+import static org.ewgf.utils.Constants.RETRY_ATTEMPT_HEADER;
+import static org.ewgf.utils.Constants.RETRY_FAILURE_HEADER;
+import static org.ewgf.utils.Constants.RETRY_LEVEL_HEADER;
+
+// Takes the messages of a batch that failed to process and moves them to the next delay queue, or to the parking queue
+// once every level has been tried or the failure is not one a retry can fix. The listener then returns normally, so its
+// consumer and connection go straight back to other work instead of sleeping through a backoff.
+@Slf4j
+@Service
+public class BattleRetryService {
+
+    private static final int MAX_FAILURE_HEADER_LENGTH = 1000;
+    private static final int REPUBLISH_ATTEMPTS = 3;
+    private static final long REPUBLISH_RETRY_DELAY_MILLIS = 500;
+
+    private final RabbitTemplate rabbitTemplate;
+    private final RabbitAdmin rabbitAdmin;
+    private final RabbitMQConfig rabbitMQConfig;
+    private final long confirmTimeoutMillis;
+    private final Counter[] retriesPublished;
+    private final Counter parkedMessages;
+
+    public BattleRetryService(RabbitTemplate rabbitTemplate,
+                              RabbitAdmin rabbitAdmin,
+                              RabbitMQConfig rabbitMQConfig,
+                              MeterRegistry meterRegistry,
+                              @Value("${rabbitmq.publisher.confirm-timeout-millis}") long confirmTimeoutMillis) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.rabbitAdmin = rabbitAdmin;
+        this.rabbitMQConfig = rabbitMQConfig;
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+
+        this.retriesPublished = new Counter[rabbitMQConfig.getRetryLevels() + 1];
+        for (int level = 1; level <= rabbitMQConfig.getRetryLevels(); level++) {
+            retriesPublished[level] = Counter.builder("rabbitmq.retry.published")
+                    .description("Failed battle messages sent to a delay queue")
+                    .tag("level", String.valueOf(level))
+                    .register(meterRegistry);
+        }
+        this.parkedMessages = Counter.builder("rabbitmq.retry.parked")
+                .description("Battle messages moved to the parking queue")
+                .register(meterRegistry);
+    }
+
+    // Throws if a message could not be handed on, which makes the container requeue the batch instead of losing it.
+    // The messages are published together and only those the retry exchange did not confirm are published again,
+    // so a partial failure does not republish the rest; a copy is only left behind if the broker keeps refusing.
+    public void retryOrPark(List<Message> messages, Exception failure) {
+        boolean retryable = isRetryable(failure);
+        List<Republish> pending = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            MessageProperties properties = message.getMessageProperties();
+            int attempt = attemptOf(properties);
+
+            if (retryable && attempt < rabbitMQConfig.getRetryLevels()) {
+                int level = attempt + 1;
+                properties.setHeader(RETRY_LEVEL_HEADER, String.valueOf(level));
+                properties.setHeader(RETRY_ATTEMPT_HEADER, level);
+                pending.add(new Republish(message, properties.getReceivedRoutingKey(), level));
+            } else {
+                properties.setHeader(RETRY_LEVEL_HEADER, PARKING_LEVEL);
+                properties.setHeader(RETRY_FAILURE_HEADER, truncate(describe(failure)));
+                pending.add(new Republish(message, properties.getReceivedRoutingKey(), 0));
+            }
+        }
+
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            pending = publishAndConfirm(pending);
+            if (pending.isEmpty()) break;
+            if (attempt == REPUBLISH_ATTEMPTS) {
+                throw new AmqpException(pending.size() + " of " + messages.size() + " failed messages were not accepted by the retry exchange");
+            }
+            log.warn("{} of {} failed messages were not confirmed by the retry exchange, republishing only those",
+                    pending.size(), messages.size());
+            try {
+                Thread.sleep(REPUBLISH_RETRY_DELAY_MILLIS * attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AmqpException(e);
+            }
+        }
+
+        if (retryable) {
+            log.warn("Batch of {} messages failed, scheduled for a delayed retry: {}", messages.size(), describe(failure));
+        } else {
+            log.error("Batch of {} messages failed with a non-retryable error and was parked", messages.size(), failure);
+        }
+    }
+
+    public List<RetryQueueStatusDTO> getStatus() {
+        List<RetryQueueStatusDTO> status = new ArrayList<>();
+        for (int level = 1; level <= rabbitMQConfig.getRetryLevels(); level++) {
+            String queueName = rabbitMQConfig.getRetryQueueName(level);
+            status.add(new RetryQueueStatusDTO(queueName, level, rabbitMQConfig.getRetryDelaysMillis()[level - 1],
+                    messagesWaiting(queueName), (long) retriesPublished[level].count()));
+        }
+        String parkingQueue = rabbitMQConfig.getParkingQueueName();
+        status.add(new RetryQueueStatusDTO(parkingQueue, 0, 0, messagesWaiting(parkingQueue), (long) parkedMessages.count()));
+        return status;
+    }
+
+    // Sends every message before waiting for any confirm and returns the ones that were not confirmed
+    private List<Republish> publishAndConfirm(List<Republish> republishes) {
+        List<CorrelationData> sent = new ArrayList<>(republishes.size());
+        for (Republish republish : republishes) {
+            CorrelationData correlationData = new CorrelationData(UUID.randomUUID().toString());
+            try {
+                rabbitTemplate.send(rabbitMQConfig.getRetryExchangeName(), republish.routingKey(), republish.message(), correlationData);
+                sent.add(correlationData);
+            } catch (AmqpException e) {
+                log.warn("Failed to publish message for retry: {}", e.getMessage());
+                sent.add(null);
+            }
+        }
+
+        List<Republish> unconfirmed = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(confirmTimeoutMillis);
+        for (int i = 0; i < republishes.size(); i++) {
+            Republish republish = republishes.get(i);
+            if (isConfirmed(sent.get(i), deadline)) {
+                if (republish.level() == 0) {
+                    parkedMessages.increment();
+                } else {
+                    retriesPublished[republish.level()].increment();
+                }
+            } else {
+                unconfirmed.add(republish);
+            }
+        }
+        return unconfirmed;
+    }
+
+    private boolean isConfirmed(CorrelationData correlationData, long deadline) {
+        if (correlationData == null) return false;
+        try {
+            long remainingNanos = Math.max(0, deadline - System.nanoTime());
+            CorrelationData.Confirm confirm = correlationData.getFuture().get(remainingNanos, TimeUnit.NANOSECONDS);
+            if (!confirm.isAck()) {
+                log.warn("Retry exchange did not accept a failed message: {}", confirm.getReason());
+                return false;
+            }
+            return correlationData.getReturned() == null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AmqpException(e);
+        } catch (Exception e) {
+            log.warn("No confirm for a failed message republished for retry: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private int messagesWaiting(String queueName) {
+        try {
+            QueueInformation info = rabbitAdmin.getQueueInfo(queueName);
+            return info == null ? -1 : info.getMessageCount();
+        } catch (Exception e) {
+            log.warn("Failed to read depth of queue {}: {}", queueName, e.getMessage());
+            return -1;
+        }
+    }
+
+    private static int attemptOf(MessageProperties properties) {
+        Object attempt = properties.getHeader(RETRY_ATTEMPT_HEADER);
+        return attempt instanceof Number number ? number.intValue() : 0;
+    }
+
+    // Lock conflicts, timeouts and lost connections can succeed on a later attempt, constraint or data errors cannot
+    static boolean isRetryable(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TransientDataAccessException) return true;
+            if (cause instanceof PSQLException psqlException && psqlException.getSQLState() != null) {
+                String state = psqlException.getSQLState();
+                // 40 transaction rollback (deadlock, serialization), 08 connection, 55P03 lock not available,
+                // 57014 statement or lock timeout
+                if (state.startsWith("40") || state.startsWith("08") || state.equals("55P03") || state.equals("57014")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static String truncate(String value) {
+        return value.length() <= MAX_FAILURE_HEADER_LENGTH ? value : value.substring(0, MAX_FAILURE_HEADER_LENGTH);
+    }
+
+    static String describe(Throwable failure) {
+        Throwable root = failure;
+        while (root.getCause() != null && root.getCause() != root) {
+            root = root.getCause();
+        }
+        if (root instanceof PSQLException psqlException) {
+            return String.format("SQL State: %s, Message: %s", psqlException.getSQLState(), psqlException.getMessage());
+        }
+        return root.getClass().getSimpleName() + ": " + root.getMessage();
+    }
+
+    // level 0 is the parking queue
+    private record Republish(Message message, String routingKey, int level) {
+    }
+}
@@ -0,0 +1,42 @@
+package org.ewgf.services;
+
+import org.ewgf.models.Battle;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// Carries fetched battles from the Wavu fetchers to BattleProcessingService. transport.type picks the implementation:
+// RabbitService goes through the broker, InMemoryBattleTransport hands batches over inside the JVM.
+public interface BattleTransport {
+
+    // Completes once the batch is safe with the transport, so the window it came from can be recorded as fetched
+    CompletableFuture<Void> sendBattles(List<Battle> battles, String dateAndTime);
+
+    default PublishConfirmations newPublishConfirmations() {
+        return new PublishConfirmations();
+    }
+
+    // Collects the confirms of every batch sent for one Wavu window, so its cursor only moves once all of them are in
+    class PublishConfirmations {
+        private final List<CompletableFuture<Void>> confirms = new ArrayList<>();
+
+        public synchronized void add(CompletableFuture<Void> confirm) {
+            confirms.add(confirm);
+        }
+
+        public synchronized CompletableFuture<Void> allConfirmed() {
+            return CompletableFuture.allOf(confirms.toArray(CompletableFuture[]::new));
+        }
+
+        public void await() {
+            try {
+                allConfirmed().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package org.ewgf.services;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.configuration.BackpressureManager;
+import org.ewgf.dtos.BackfillFailedWindowDTO;
+import org.ewgf.dtos.BackfillPartitionProgressDTO;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
+import org.ewgf.models.IngestionCursor;
+import org.ewgf.repositories.IngestionCursorRepository;
+import org.ewgf.utils.DateTimeUtils;
+import org.ewgf.utils.RequestRateLimiter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+@Slf4j
+@Service
+public class HistoricalBackfillService implements DisposableBean {
+
+    private static final int MAX_WINDOW_ATTEMPTS = 3;
+    private static final long RETRY_DELAY_MILLIS = 2000;
+    private static final long MANUAL_PAUSE_CHECK_MILLIS = 60000; // 1 minute
+    private static final int PROGRESS_LOG_INTERVAL = 50; // windows
+    private static final String PARTITION_CURSOR_PREFIX = "backfill-partition-";
+    private static final String FAILED_WINDOW_CURSOR_PREFIX = "backfill-failed-";
+
+    private final WavuApiClient wavuApiClient;
+    private final AdaptiveWindowSizer adaptiveWindowSizer;
+    private final BattleCoverageService battleCoverageService;
+    private final BattleTransport battleTransport;
+    private final BackpressureManager backpressureManager;
+    private final RequestRateLimiter wavuRateLimiter;
+    private final IngestionCursorRepository ingestionCursorRepository;
+    private final ExecutorService backfillExecutor;
+    private final int workers;
+
+    private volatile List<BackfillPartition> partitions = List.of();
+    private volatile boolean stopped = false;
+
+    public HistoricalBackfillService(
+            WavuApiClient wavuApiClient,
+            AdaptiveWindowSizer adaptiveWindowSizer,
+            BattleCoverageService battleCoverageService,
+            BattleTransport battleTransport,
+            BackpressureManager backpressureManager,
+            RequestRateLimiter wavuRateLimiter,
+            IngestionCursorRepository ingestionCursorRepository,
+            @Qualifier("backfillThreadExecutor") ExecutorService backfillExecutor,
+            @Value("${wavu.backfill.workers}") int workers) {
+        this.wavuApiClient = wavuApiClient;
+        this.adaptiveWindowSizer = adaptiveWindowSizer;
+        this.battleCoverageService = battleCoverageService;
+        this.battleTransport = battleTransport;
+        this.backpressureManager = backpressureManager;
+        this.wavuRateLimiter = wavuRateLimiter;
+        this.ingestionCursorRepository = ingestionCursorRepository;
+        this.backfillExecutor = backfillExecutor;
+        this.workers = Math.max(1, workers);
+    }
+
+    @Override
+    public void destroy() {
+        stopped = true;
+    }
+
+    public boolean isPartitionedBackfillEnabled() {
+        return workers > 1;
+    }
+
+    // Splits (oldestTimestamp, newestTimestamp] into disjoint partitions and walks each one backwards on its own worker.
+    // Partitions persisted by an interrupted run are resumed instead of being recreated.
+    public CompletableFuture<Void> runBackfill(long newestTimestamp, long oldestTimestamp) {
+        List<BackfillPartition> newPartitions = loadPersistedPartitions();
+
+        if (newPartitions.isEmpty()) {
+            newPartitions = createPartitions(newestTimestamp, oldestTimestamp);
+            newPartitions.forEach(this::persistPartition);
+            log.info("Starting partitioned backfill from {} UTC to {} UTC with {} workers",
+                    DateTimeUtils.toReadableTime(newestTimestamp),
+                    DateTimeUtils.toReadableTime(oldestTimestamp),
+                    newPartitions.size());
+        } else {
+            log.info("Resuming partitioned backfill with {} persisted partitions", newPartitions.size());
+        }
+        loadFailedWindows(newPartitions);
+        partitions = newPartitions;
+
+        List<BackfillPartition> runPartitions = newPartitions;
+        CompletableFuture<?>[] futures = runPartitions.stream()
+                .map(partition -> CompletableFuture.runAsync(() -> runPartition(partition), backfillExecutor))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures).thenRun(() -> {
+            if (runPartitions.stream().anyMatch(partition -> !partition.isCompleted())) {
+                throw new IllegalStateException("Backfill stopped before every partition completed");
+            }
+            ingestionCursorRepository.deleteCursorsWithPrefix(PARTITION_CURSOR_PREFIX);
+        });
+    }
+
+    public List<BackfillPartitionProgressDTO> getProgress() {
+        return partitions.stream()
+                .map(partition -> partition.toProgressDTO(adaptiveWindowSizer.getMaxWindowSeconds()))
+                .toList();
+    }
+
+    private List<BackfillPartition> createPartitions(long newestTimestamp, long oldestTimestamp) {
+        long totalSeconds = Math.max(0, newestTimestamp - oldestTimestamp);
+        // No point in splitting below a single window per worker
+        int partitionCount = (int) Math.max(1, Math.min(workers, totalSeconds / adaptiveWindowSizer.getMaxWindowSeconds()));
+        long partitionSize = totalSeconds / partitionCount;
+
+        List<BackfillPartition> result = new ArrayList<>(partitionCount);
+        for (int i = 0; i < partitionCount; i++) {
+            long upperBound = newestTimestamp - (i * partitionSize);
+            long lowerBound = (i == partitionCount - 1) ? oldestTimestamp : upperBound - partitionSize;
+            result.add(new BackfillPartition(i, upperBound, lowerBound));
+        }
+        return result;
+    }
+
+    private List<BackfillPartition> loadPersistedPartitions() {
+        List<IngestionCursor> cursors =
+                ingestionCursorRepository.findByCursorNameStartingWithOrderByCursorNameAsc(PARTITION_CURSOR_PREFIX);
+
+        List<BackfillPartition> result = new ArrayList<>(cursors.size());
+        for (int i = 0; i < cursors.size(); i++) {
+            IngestionCursor cursor = cursors.get(i);
+            BackfillPartition partition = new BackfillPartition(i, cursor.getUpperBound(), cursor.getLowerBound());
+            partition.setCursor(cursor.getFetchTimestamp());
+            result.add(partition);
+        }
+        return result;
+    }
+
+    // Windows that failed in an earlier run are handed to the partition covering them and retried when it finishes
+    private void loadFailedWindows(List<BackfillPartition> targetPartitions) {
+        for (IngestionCursor cursor : ingestionCursorRepository.findByCursorNameStartingWithOrderByCursorNameAsc(FAILED_WINDOW_CURSOR_PREFIX)) {
+            long before = cursor.getFetchTimestamp();
+            BackfillPartition owner = targetPartitions.stream()
+                    .filter(partition -> before <= partition.getUpperBound() && before > partition.getLowerBound())
+                    .findFirst()
+                    .orElse(targetPartitions.get(0));
+            owner.addFailedWindow(before);
+        }
+    }
+
+    private void persistFailedWindow(long before) {
+        try {
+            ingestionCursorRepository.upsertCursor(
+                    FAILED_WINDOW_CURSOR_PREFIX + before,
+                    before,
+                    before - adaptiveWindowSizer.getMaxWindowSeconds(),
+                    before,
+                    false);
+        } catch (Exception e) {
+            log.error("Failed to persist failed backfill window before {}: {}", before, e.getMessage());
+        }
+    }
+
+    private void deleteFailedWindow(long before) {
+        try {
+            ingestionCursorRepository.deleteById(FAILED_WINDOW_CURSOR_PREFIX + before);
+        } catch (Exception e) {
+            log.error("Failed to delete recovered backfill window before {}: {}", before, e.getMessage());
+        }
+    }
+
+    private void persistPartition(BackfillPartition partition) {
+        try {
+            ingestionCursorRepository.upsertCursor(
+                    PARTITION_CURSOR_PREFIX + partition.getUpperBound(),
+                    partition.getCursor(),
+                    partition.getLowerBound(),
+                    partition.getUpperBound(),
+                    false);
+        } catch (Exception e) {
+            log.error("Failed to persist cursor for backfill partition {}: {}", partition.getIndex(), e.getMessage());
+        }
+    }
+
+    private void runPartition(BackfillPartition partition) {
+        log.info("Backfill partition {} started: {} UTC -> {} UTC",
+                partition.getIndex(),
+                DateTimeUtils.toReadableTime(partition.getUpperBound()),
+                DateTimeUtils.toReadableTime(partition.getLowerBound()));
+
+        // Windows already verified complete by an earlier run or refetch are stepped over without a request
+        Set<Long> completeWindows = battleCoverageService.findCompleteWindows(partition.getLowerBound(), partition.getCursor() + 1);
+
+        try {
+            while (partition.getCursor() > partition.getLowerBound() && !stopped) {
+                long before = partition.getCursor();
+                if (battleCoverageService.coversWavuWindow(completeWindows, before)) {
+                    partition.recordSkippedWindow(adaptiveWindowSizer.predictNextBefore(before));
+                    battleCoverageService.recordSkipped(1);
+                    continue;
+                }
+
+                waitWhileManuallyPaused();
+                fetchWindow(partition);
+
+                if ((partition.getWindowsFetched() + partition.getFailedWindows()) % PROGRESS_LOG_INTERVAL == 0) {
+                    logProgress(partition);
+                }
+            }
+            if (!stopped) retryFailedWindows(partition);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Backfill partition {} interrupted at {}", partition.getIndex(), partition.getCursor());
+            return;
+        }
+
+        if (stopped) {
+            log.info("Backfill partition {} stopped at {}", partition.getIndex(), partition.getCursor());
+            return;
+        }
+
+        partition.markCompleted();
+        logProgress(partition);
+        for (long before : partition.getFailedWindowsBefore()) {
+            log.error("Backfill partition {} finished without window {} UTC -> {} UTC (before {}), refetch it through /admin/refetch",
+                    partition.getIndex(),
+                    DateTimeUtils.toReadableTime(before),
+                    DateTimeUtils.toReadableTime(before - adaptiveWindowSizer.getMaxWindowSeconds()),
+                    before);
+        }
+    }
+
+    private void fetchWindow(BackfillPartition partition) throws InterruptedException {
+        long before = partition.getCursor();
+        WavuFetchSummaryDTO summary = fetchWithRetries(partition, before);
+        if (summary != null) {
+            partition.recordWindow(summary.getBattleCount(), adaptiveWindowSizer.nextBefore(before, summary));
+            persistPartition(partition);
+            return;
+        }
+
+        // The cursor moves on so the partition is not stuck on one window, but the window is kept for a retry
+        log.error("Backfill partition {} failed window {} UTC -> {} UTC (before {}) after {} attempts, retrying it once the partition finishes",
+                partition.getIndex(),
+                DateTimeUtils.toReadableTime(before),
+                DateTimeUtils.toReadableTime(before - adaptiveWindowSizer.getMaxWindowSeconds()),
+                before,
+                MAX_WINDOW_ATTEMPTS);
+        persistFailedWindow(before);
+        partition.recordFailedWindow(before, adaptiveWindowSizer.predictNextBefore(before));
+        persistPartition(partition);
+    }
+
+    private void retryFailedWindows(BackfillPartition partition) throws InterruptedException {
+        for (long before : partition.getFailedWindowsBefore()) {
+            if (stopped) return;
+            waitWhileManuallyPaused();
+            WavuFetchSummaryDTO summary = fetchWithRetries(partition, before);
+            if (summary == null) continue;
+
+            log.info("Backfill partition {} recovered window before {} with {} battles", partition.getIndex(), before, summary.getBattleCount());
+            partition.recordRecoveredWindow(before, summary.getBattleCount());
+            deleteFailedWindow(before);
+        }
+    }
+
+    // Returns null once every attempt failed. Each attempt is a Wavu request and takes its own rate limiter permit.
+    private WavuFetchSummaryDTO fetchWithRetries(BackfillPartition partition, long before) throws InterruptedException {
+        for (int attempt = 1; attempt <= MAX_WINDOW_ATTEMPTS; attempt++) {
+            wavuRateLimiter.acquire();
+            try {
+                String readableTimestamp = DateTimeUtils.toReadableTime(before) + " UTC";
+                BattleCoverageService.CoverageTally tally = battleCoverageService.newTally();
+                BattleTransport.PublishConfirmations confirmations = battleTransport.newPublishConfirmations();
+                WavuFetchSummaryDTO summary = wavuApiClient.streamBattles(before, chunk -> {
+                    tally.count(chunk);
+                    confirmations.add(battleTransport.sendBattles(chunk, readableTimestamp));
+                });
+                // The partition cursor is persisted afterwards, so the window has to be safely queued first
+                confirmations.await();
+                battleCoverageService.recordReported(before, tally, summary);
+                return summary;
+            } catch (Exception e) {
+                log.warn("Backfill partition {} failed to fetch window before {} (attempt {}/{}): {}",
+                        partition.getIndex(), before, attempt, MAX_WINDOW_ATTEMPTS, e.getMessage());
+                if (attempt < MAX_WINDOW_ATTEMPTS) Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+            }
+        }
+        return null;
+    }
+
+    private void waitWhileManuallyPaused() throws InterruptedException {
+        while (backpressureManager.isManuallyActivated() && !stopped) {
+            Thread.sleep(MANUAL_PAUSE_CHECK_MILLIS);
+        }
+    }
+
+    private void logProgress(BackfillPartition partition) {
+        log.info("Backfill partition {}: {}% complete, cursor at {} UTC, {} windows, {} battles, {} failed windows, {} skipped windows",
+                partition.getIndex(),
+                String.format("%.2f", partition.getPercentComplete()),
+                DateTimeUtils.toReadableTime(partition.getCursor()),
+                partition.getWindowsFetched(),
+                partition.getBattlesFetched(),
+                partition.getFailedWindows(),
+                partition.getSkippedWindows());
+    }
+
+    @Getter
+    private static class BackfillPartition {
+        private final int index;
+        private final long upperBound;
+        private final long lowerBound;
+        private volatile long cursor;
+        private volatile boolean completed = false;
+        private final AtomicInteger windowsFetchedCounter = new AtomicInteger(0);
+        private final AtomicInteger failedWindowsCounter = new AtomicInteger(0);
+        private final AtomicInteger skippedWindowsCounter = new AtomicInteger(0);
+        private final AtomicLong battlesFetchedCounter = new AtomicLong(0);
+        private final Set<Long> failedWindowsBefore = new ConcurrentSkipListSet<>(Comparator.reverseOrder());
+
+        BackfillPartition(int index, long upperBound, long lowerBound) {
+            this.index = index;
+            this.upperBound = upperBound;
+            this.lowerBound = lowerBound;
+            this.cursor = upperBound;
+        }
+
+        void recordWindow(int battleCount, long nextBefore) {
+            windowsFetchedCounter.incrementAndGet();
+            battlesFetchedCounter.addAndGet(battleCount);
+            cursor = nextBefore;
+        }
+
+        void recordFailedWindow(long before, long nextBefore) {
+            failedWindowsCounter.incrementAndGet();
+            failedWindowsBefore.add(before);
+            cursor = nextBefore;
+        }
+
+        void addFailedWindow(long before) {
+            failedWindowsBefore.add(before);
+        }
+
+        void recordRecoveredWindow(long before, int battleCount) {
+            failedWindowsBefore.remove(before);
+            windowsFetchedCounter.incrementAndGet();
+            battlesFetchedCounter.addAndGet(battleCount);
+        }
+
+        List<Long> getFailedWindowsBefore() {
+            return List.copyOf(failedWindowsBefore);
+        }
+
+        void recordSkippedWindow(long nextBefore) {
+            skippedWindowsCounter.incrementAndGet();
+            cursor = nextBefore;
+        }
+
+        void setCursor(long cursor) {
+            this.cursor = cursor;
+        }
+
+        void markCompleted() {
+            completed = true;
+        }
+
+        int getWindowsFetched() {
+            return windowsFetchedCounter.get();
+        }
+
+        int getFailedWindows() {
+            return failedWindowsCounter.get();
+        }
+
+        int getSkippedWindows() {
+            return skippedWindowsCounter.get();
+        }
+
+        long getBattlesFetched() {
+            return battlesFetchedCounter.get();
+        }
+
+        double getPercentComplete() {
+            long total = upperBound - lowerBound;
+            if (completed || total <= 0) return 100.0;
+            return Math.min(100.0, ((upperBound - cursor) * 100.0) / total);
+        }
+
+        BackfillPartitionProgressDTO toProgressDTO(int windowSeconds) {
+            return new BackfillPartitionProgressDTO(
+                    index,
+                    upperBound,
+                    lowerBound,
+                    cursor,
+                    getWindowsFetched(),
+                    getFailedWindows(),
+                    failedWindowsBefore.stream()
+                            .map(before -> new BackfillFailedWindowDTO(before, before - windowSeconds))
+                            .toList(),
+                    getSkippedWindows(),
+                    getBattlesFetched(),
+                    getPercentComplete(),
+                    completed);
+        }
+    }
+}
@@ -0,0 +1,429 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.configuration.BackpressureManager;
+import org.ewgf.models.Battle;
+import org.ewgf.utils.BattleBatchCodec;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Single node transport: batches go into a bounded ring buffer and consumer threads in the same JVM drain up to
+// batchSize of them into one processing call, so battles are never serialized on the way. A batch sent straight to the
+// buffer confirms once its transaction has committed, because nothing else would survive a restart. With a spill
+// directory configured, batches that do not fit are written to disk with BattleBatchCodec and confirm as soon as the
+// file is synced; consumers read them back as the buffer frees up, and files left by a previous run are picked up
+// on startup. Without one, senders block while the buffer is full and fail after enqueueTimeoutMillis.
+// A spilled batch that fails is renamed with its attempt count and read back only after the next retry delay, while
+// later files go ahead of it; once every delay has been tried it is moved aside with a .failed suffix.
+@Slf4j
+@Service
+@ConditionalOnProperty(name = "transport.type", havingValue = "memory")
+public class InMemoryBattleTransport implements BattleTransport, SmartLifecycle {
+
+    private static final String SPILL_SUFFIX = ".batch";
+    private static final Pattern SPILL_ATTEMPT = Pattern.compile("^(.*?)(?:\\.attempt-(\\d+))?\\.batch$");
+    // Stops after the scheduler, web server and listeners that lead to sends. Fetchers shut down as plain beans later,
+    // so sends that still arrive are spilled or failed by sendBattles.
+    private static final int PHASE = SmartLifecycle.DEFAULT_PHASE - 2048;
+
+    private final BattleProcessingService battleProcessingService;
+    private final BattleDuplicateFilter battleDuplicateFilter;
+    private final BackpressureManager backpressureManager;
+    private final BlockingQueue<BufferedBatch> buffer;
+    private final int consumerCount;
+    private final int batchSize;
+    private final long receiveTimeoutMillis;
+    private final long enqueueTimeoutMillis;
+    private final Path spillDirectory;
+    private final long[] spillRetryDelaysMillis;
+    private final Counter quarantinedSpillFiles;
+
+    private final AtomicInteger spilledBatches = new AtomicInteger();
+    private final AtomicLong spillSequence = new AtomicLong();
+    // Spill files already read back into the buffer, so a refill does not queue them twice
+    private final Set<Path> spillFilesInBuffer = new HashSet<>();
+    // Spill files waiting out a retry delay, by the time they may be read back. Lost on restart, which only means
+    // one earlier retry, the attempt count itself is kept in the file name.
+    private final Map<Path, Long> spillRetryAt = new HashMap<>();
+    private final Object spillLock = new Object();
+    private final List<Thread> consumers = new ArrayList<>();
+    private volatile boolean running = false;
+    private volatile boolean stopped = false;
+    private volatile boolean paused = false;
+
+    public InMemoryBattleTransport(
+            BattleProcessingService battleProcessingService,
+            BattleDuplicateFilter battleDuplicateFilter,
+            BackpressureManager backpressureManager,
+            MeterRegistry meterRegistry,
+            @Value("${transport.memory.capacity}") int capacity,
+            @Value("${transport.memory.consumers}") int consumerCount,
+            @Value("${transport.memory.batch-size}") int batchSize,
+            @Value("${transport.memory.receive-timeout-millis}") long receiveTimeoutMillis,
+            @Value("${transport.memory.enqueue-timeout-millis}") long enqueueTimeoutMillis,
+            @Value("${transport.memory.spill-directory}") String spillDirectory,
+            @Value("${transport.memory.spill-retry-delays-millis}") long[] spillRetryDelaysMillis) {
+        this.battleProcessingService = battleProcessingService;
+        this.battleDuplicateFilter = battleDuplicateFilter;
+        this.backpressureManager = backpressureManager;
+        this.buffer = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.consumerCount = Math.max(1, consumerCount);
+        this.batchSize = Math.max(1, batchSize);
+        this.receiveTimeoutMillis = receiveTimeoutMillis;
+        this.enqueueTimeoutMillis = enqueueTimeoutMillis;
+        this.spillDirectory = spillDirectory == null || spillDirectory.isBlank() ? null : Path.of(spillDirectory);
+        this.spillRetryDelaysMillis = spillRetryDelaysMillis;
+
+        if (this.spillDirectory != null) {
+            try {
+                Files.createDirectories(this.spillDirectory);
+                try (Stream<Path> files = Files.list(this.spillDirectory)) {
+                    spilledBatches.set((int) files.filter(this::isSpillFile).count());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot use spill directory " + spillDirectory, e);
+            }
+            if (spilledBatches.get() > 0) {
+                log.info("Found {} spilled battle batches from a previous run in {}", spilledBatches.get(), spillDirectory);
+            }
+        }
+
+        Gauge.builder("transport.memory.buffered", buffer, BlockingQueue::size)
+                .description("Battle batches waiting in the in-memory buffer")
+                .register(meterRegistry);
+        Gauge.builder("transport.memory.spilled", spilledBatches, AtomicInteger::get)
+                .description("Battle batches waiting on disk because the buffer was full")
+                .register(meterRegistry);
+        this.quarantinedSpillFiles = Counter.builder("transport.memory.spill.quarantined")
+                .description("Spilled battle batches moved aside after failing every retry or being unreadable")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public CompletableFuture<Void> sendBattles(List<Battle> receivedBattles, String dateAndTime) {
+        List<Battle> battles = battleDuplicateFilter.removeKnownDuplicates(receivedBattles);
+        if (battles.isEmpty()) return CompletableFuture.completedFuture(null);
+
+        // Nothing drains the buffer after stop(), so later batches go to disk or fail instead of waiting forever
+        if (stopped) return sendAfterStop(battles);
+
+        BufferedBatch batch = new BufferedBatch(battles, new CompletableFuture<>(), null);
+        if (spillFilesPending() || !buffer.offer(batch)) {
+            // Once anything is on disk new batches queue up behind it, so older battles are only overtaken by newer
+            // ones while a failed batch waits out its retry delay
+            if (spillDirectory != null) {
+                return spill(battles);
+            }
+            try {
+                if (!buffer.offer(batch, enqueueTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    return CompletableFuture.failedFuture(
+                            new TimeoutException("In-memory battle buffer stayed full for " + enqueueTimeoutMillis + " ms"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        // stop() may have drained the buffer while the batch was being added; whoever removes it handles it
+        if (stopped && buffer.remove(batch)) return sendAfterStop(battles);
+        backpressureManager.recordPublished();
+        return batch.processed();
+    }
+
+    private CompletableFuture<Void> sendAfterStop(List<Battle> battles) {
+        if (spillDirectory != null) return spill(battles);
+        return CompletableFuture.failedFuture(new IllegalStateException("In-memory battle transport stopped"));
+    }
+
+    // Batches in the buffer plus those on disk, which is what the flow controller steers on in place of queue depth
+    public int getPendingBatches() {
+        return buffer.size() + spilledBatches.get();
+    }
+
+    // Consumers stop taking batches but the buffer and spill files are kept, senders fill them up as usual
+    public void pause() {
+        paused = true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        stopped = false;
+        for (int i = 0; i < consumerCount; i++) {
+            consumers.add(Thread.ofVirtual().name("memory-transport-" + i).start(this::consume));
+        }
+        log.info("In-memory battle transport started with {} consumers", consumerCount);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        stopped = true;
+        for (Thread consumer : consumers) {
+            try {
+                consumer.join(receiveTimeoutMillis * 2 + 30_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        consumers.clear();
+
+        // Whatever is still buffered goes to disk if it can, otherwise its senders learn it was not processed
+        List<BufferedBatch> remaining = new ArrayList<>();
+        buffer.drainTo(remaining);
+        for (BufferedBatch batch : remaining) {
+            if (batch.spillFile() != null) {
+                forgetSpillFileInBuffer(batch.spillFile());
+            } else if (spillDirectory != null) {
+                spill(batch.battles()).whenComplete((ignored, throwable) -> complete(batch, throwable));
+            } else {
+                batch.processed().completeExceptionally(new IllegalStateException("In-memory battle transport stopped"));
+            }
+        }
+        log.info("In-memory battle transport stopped, {} batches left unprocessed", remaining.size());
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return PHASE;
+    }
+
+    private void consume() {
+        while (running) {
+            try {
+                if (paused) {
+                    Thread.sleep(receiveTimeoutMillis);
+                    continue;
+                }
+                BufferedBatch first = buffer.poll(receiveTimeoutMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    refillFromSpill();
+                    continue;
+                }
+                List<BufferedBatch> batches = new ArrayList<>(batchSize);
+                batches.add(first);
+                buffer.drainTo(batches, batchSize - 1);
+                process(batches);
+                refillFromSpill();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("In-memory battle consumer failed", e);
+            }
+        }
+    }
+
+    private void process(List<BufferedBatch> batches) {
+        long start = System.currentTimeMillis();
+        Throwable failure = processTogether(batches);
+        if (failure != null && batches.size() > 1) {
+            // One bad batch fails the whole transaction, so each is tried alone and only the bad one counts a failure
+            for (BufferedBatch batch : batches) {
+                complete(batch, processTogether(List.of(batch)));
+            }
+        } else {
+            for (BufferedBatch batch : batches) {
+                complete(batch, failure);
+            }
+        }
+        backpressureManager.recordConsumed(batches.size());
+        log.info("Processed {} buffered batches in {} ms", batches.size(), System.currentTimeMillis() - start);
+    }
+
+    // Producers see a failure and keep their windows unrecorded; spilled batches are retried from disk
+    private Throwable processTogether(List<BufferedBatch> batches) {
+        Map<String, Battle> battlesById = new LinkedHashMap<>();
+        for (BufferedBatch batch : batches) {
+            for (Battle battle : batch.battles()) {
+                battlesById.putIfAbsent(battle.getBattleId(), battle);
+            }
+        }
+        try {
+            battleProcessingService.processBattlesAsync(new ArrayList<>(battlesById.values()));
+            return null;
+        } catch (RuntimeException e) {
+            log.error("Failed to process {} buffered batches with {} battles", batches.size(), battlesById.size(), e);
+            return e;
+        }
+    }
+
+    private void complete(BufferedBatch batch, Throwable failure) {
+        if (batch.spillFile() != null) {
+            if (failure == null) {
+                deleteSpillFile(batch.spillFile());
+                forgetSpillFileInBuffer(batch.spillFile());
+            } else {
+                retryOrQuarantine(batch.spillFile(), failure);
+            }
+        } else if (failure == null) {
+            batch.processed().complete(null);
+        } else {
+            batch.processed().completeExceptionally(failure);
+        }
+    }
+
+    private CompletableFuture<Void> spill(List<Battle> battles) {
+        String name = String.format("%019d-%012d%s", System.currentTimeMillis(), spillSequence.incrementAndGet(), SPILL_SUFFIX);
+        Path target = spillDirectory.resolve(name);
+        Path temporary = spillDirectory.resolve(name + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            ByteBuffer data = ByteBuffer.wrap(BattleBatchCodec.encode(battles));
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+            channel.force(true);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("Failed to spill battle batch", e));
+        }
+        try {
+            // Renamed only once complete, so a crash mid-write never leaves a truncated batch to be read back
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("Failed to spill battle batch", e));
+        }
+        spilledBatches.incrementAndGet();
+        backpressureManager.recordPublished();
+        return CompletableFuture.completedFuture(null);
+    }
+
+    // Moves spilled batches back into the buffer, oldest first, while it has room
+    private void refillFromSpill() {
+        if (spillDirectory == null) return;
+        synchronized (spillLock) {
+            if (spilledBatches.get() <= spillFilesInBuffer.size()) return;
+
+            long now = System.currentTimeMillis();
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(spillDirectory)) {
+                files = listing.filter(this::isSpillFile)
+                        .filter(file -> !spillFilesInBuffer.contains(file))
+                        .filter(file -> spillRetryAt.getOrDefault(file, 0L) <= now)
+                        .sorted()
+                        .toList();
+            } catch (IOException e) {
+                log.error("Failed to list spill directory {}", spillDirectory, e);
+                return;
+            }
+
+            for (Path file : files) {
+                if (buffer.remainingCapacity() == 0) return;
+                List<Battle> battles;
+                try {
+                    battles = BattleBatchCodec.decode(Files.readAllBytes(file));
+                } catch (IOException | IllegalArgumentException e) {
+                    log.error("Spill file {} is unreadable, moving it aside", file, e);
+                    quarantine(file, ".unreadable");
+                    continue;
+                }
+                if (!buffer.offer(new BufferedBatch(battles, null, file))) return;
+                spillRetryAt.remove(file);
+                spillFilesInBuffer.add(file);
+            }
+        }
+    }
+
+    private boolean spillFilesPending() {
+        return spilledBatches.get() > 0;
+    }
+
+    private void forgetSpillFileInBuffer(Path file) {
+        synchronized (spillLock) {
+            spillFilesInBuffer.remove(file);
+        }
+    }
+
+    // Renames the file to its next attempt and holds it back for that attempt's delay, or moves it aside for good
+    private void retryOrQuarantine(Path file, Throwable failure) {
+        synchronized (spillLock) {
+            spillFilesInBuffer.remove(file);
+            Matcher name = SPILL_ATTEMPT.matcher(file.getFileName().toString());
+            if (!name.matches()) return;
+            int attempt = name.group(2) == null ? 0 : Integer.parseInt(name.group(2));
+
+            if (attempt >= spillRetryDelaysMillis.length) {
+                log.error("Spill file {} failed {} times, moving it aside: {}", file, attempt + 1, failure.getMessage());
+                quarantine(file, ".failed");
+                return;
+            }
+            Path next = file.resolveSibling(name.group(1) + ".attempt-" + (attempt + 1) + SPILL_SUFFIX);
+            try {
+                Files.move(file, next, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // Still retried, just without the attempt counted, which at worst adds one more round
+                log.error("Failed to rename spill file {} for its next attempt", file, e);
+                next = file;
+            }
+            spillRetryAt.put(next, System.currentTimeMillis() + spillRetryDelaysMillis[attempt]);
+            log.warn("Spill file {} failed, retrying in {} ms", next.getFileName(), spillRetryDelaysMillis[attempt]);
+        }
+    }
+
+    private void quarantine(Path file, String suffix) {
+        try {
+            Files.move(file, file.resolveSibling(file.getFileName() + suffix), StandardCopyOption.REPLACE_EXISTING);
+            spilledBatches.decrementAndGet();
+            quarantinedSpillFiles.increment();
+        } catch (IOException e) {
+            log.error("Failed to move spill file {} aside", file, e);
+        }
+    }
+
+    private void deleteSpillFile(Path file) {
+        try {
+            if (Files.deleteIfExists(file)) spilledBatches.decrementAndGet();
+        } catch (IOException e) {
+            log.error("Failed to delete processed spill file {}, its battles will be skipped as duplicates", file, e);
+        }
+    }
+
+    private boolean isSpillFile(Path file) {
+        return file.getFileName().toString().endsWith(SPILL_SUFFIX);
+    }
+
+    private record BufferedBatch(List<Battle> battles, CompletableFuture<Void> processed, Path spillFile) {
+    }
+}
@@ -3,15 +3,31 @@ package org.ewgf.services;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import org.ewgf.configuration.BackpressureManager;
+import org.ewgf.configuration.RabbitMQConfig;
 import org.ewgf.utils.DateTimeUtils;
+import org.ewgf.utils.PlayerPartitioner;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.core.Message;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.jdbc.core.JdbcTemplate;
-import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import org.springframework.transaction.annotation.Transactional;
@@ -19,33 +35,246 @@ import org.ewgf.events.ReplayProcessingCompletedEvent;
 import org.ewgf.models.*;
 import org.ewgf.repositories.BattleRepository;
 
+import java.lang.reflect.Type;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
+import static org.ewgf.utils.Constants.PLAYER_HANDOFF_HEADER;
 import static org.ewgf.utils.Constants.TIMESTAMP_HEADER;
 
 @Slf4j
 @Service
-public class RabbitService {
+@ConditionalOnProperty(name = "transport.type", havingValue = "rabbitmq", matchIfMissing = true)
+public class RabbitService implements BattleTransport, RabbitListenerConfigurer {
+
+    private static final Type BATTLE_LIST_TYPE = new TypeReference<List<Battle>>() {}.getType();
+    private static final int STALE_HANDOFF_LIMIT = 1000;
 
     private final BattleProcessingService battleProcessingService;
+    private final RabbitTemplate rabbitTemplate;
+    private final RabbitMQConfig rabbitMQConfig;
+    private final BattleDuplicateFilter battleDuplicateFilter;
+    private final BackpressureManager backpressureManager;
+    private final Semaphore unconfirmedBatches;
+    private final int maxUnconfirmedBatches;
+    private final long confirmTimeoutMillis;
+    private final MessageConverter messageConverter;
+    private final BattleRepository battleRepository;
+    private final BattleRetryService battleRetryService;
+    private final long handoffRetrySeconds;
 
-    public RabbitService(BattleProcessingService battleProcessingService) {
+    public RabbitService(BattleProcessingService battleProcessingService,
+                         RabbitTemplate rabbitTemplate,
+                         RabbitMQConfig rabbitMQConfig,
+                         BattleDuplicateFilter battleDuplicateFilter,
+                         BackpressureManager backpressureManager,
+                         MeterRegistry meterRegistry,
+                         MessageConverter messageConverter,
+                         BattleRepository battleRepository,
+                         BattleRetryService battleRetryService,
+                         @Value("${rabbitmq.publisher.max-unconfirmed}") int maxUnconfirmedBatches,
+                         @Value("${rabbitmq.publisher.confirm-timeout-millis}") long confirmTimeoutMillis,
+                         @Value("${rabbitmq.partitions.handoff-retry-seconds}") long handoffRetrySeconds) {
         this.battleProcessingService = battleProcessingService;
+        this.rabbitTemplate = rabbitTemplate;
+        this.rabbitMQConfig = rabbitMQConfig;
+        this.battleDuplicateFilter = battleDuplicateFilter;
+        this.backpressureManager = backpressureManager;
+        this.maxUnconfirmedBatches = Math.max(1, maxUnconfirmedBatches);
+        this.unconfirmedBatches = new Semaphore(this.maxUnconfirmedBatches);
+        this.confirmTimeoutMillis = confirmTimeoutMillis;
+        this.messageConverter = messageConverter;
+        this.battleRepository = battleRepository;
+        this.battleRetryService = battleRetryService;
+        this.handoffRetrySeconds = handoffRetrySeconds;
+
+        Gauge.builder("rabbitmq.publisher.unconfirmed", this,
+                        service -> service.maxUnconfirmedBatches - service.unconfirmedBatches.availablePermits())
+                .description("Battle batches published and not yet confirmed by the broker")
+                .register(meterRegistry);
+    }
+
+    // Completes once the broker has confirmed the batch, and fails if it was nacked, returned as unroutable or not
+    // confirmed in time. At most maxUnconfirmedBatches can be outstanding, further sends block until one settles.
+    // When partitioned, the batch is split by the partition of player 1 and each part goes to that partition's queue.
+    @Override
+    public CompletableFuture<Void> sendBattles(List<Battle> receivedBattles, String dateAndTime) {
+        List<Battle> battles = battleDuplicateFilter.removeKnownDuplicates(receivedBattles);
+        if (battles.isEmpty()) return CompletableFuture.completedFuture(null);
+        if (!rabbitMQConfig.isPartitioned()) {
+            return publish(battles, rabbitMQConfig.getRoutingKey(), dateAndTime, false);
+        }
+
+        Map<Integer, List<Battle>> battlesByPartition = battles.stream()
+                .collect(Collectors.groupingBy(battle -> partitionOf(battle.getPlayer1UserId())));
+        return CompletableFuture.allOf(battlesByPartition.entrySet().stream()
+                .map(entry -> publish(entry.getValue(), rabbitMQConfig.getPartitionRoutingKey(entry.getKey()), dateAndTime, false))
+                .toArray(CompletableFuture[]::new));
     }
 
+    private CompletableFuture<Void> publish(List<Battle> battles, String routingKey, String dateAndTime, boolean handoff) {
+        try {
+            unconfirmedBatches.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CorrelationData correlationData = new CorrelationData(UUID.randomUUID().toString());
+        try {
+            rabbitTemplate.convertAndSend(
+                    rabbitMQConfig.getExchangeName(),
+                    routingKey,
+                    battles,
+                    msg -> {
+                        msg.getMessageProperties()
+                                .setHeader(TIMESTAMP_HEADER, dateAndTime);
+                        if (handoff) {
+                            msg.getMessageProperties().setHeader(PLAYER_HANDOFF_HEADER, true);
+                        }
+                        return msg;
+                    },
+                    correlationData
+            );
+        } catch (RuntimeException e) {
+            unconfirmedBatches.release();
+            return CompletableFuture.failedFuture(e);
+        }
+        backpressureManager.recordPublished();
+
+        return correlationData.getFuture()
+                .orTimeout(confirmTimeoutMillis, TimeUnit.MILLISECONDS)
+                .whenComplete((confirm, throwable) -> unconfirmedBatches.release())
+                .thenAccept(confirm -> {
+                    if (!confirm.isAck()) {
+                        throw new AmqpException("Broker rejected battle batch: " + confirm.getReason());
+                    }
+                    if (correlationData.getReturned() != null) {
+                        throw new AmqpException("Battle batch could not be routed: " + correlationData.getReturned().getReplyText());
+                    }
+                });
+    }
+
+    // Each element is one delivery. Overlapping windows can put the same battle in more than one message, so the
+    // merged batch keeps only the first copy before it is processed in a single transaction. A batch that fails is
+    // handed to the delayed retry queues and acked, rather than retried on this thread.
     @RabbitListener(queues = "#{rabbitMQConfig.queueName}",
             containerFactory = "rabbitListenerContainerFactory")
-    public void receiveMessage(List<Battle> battles, @Header(TIMESTAMP_HEADER) String timestamp) {
-        log.info("Received {} battles from RabbitMQ, timestamp: {}", battles.size(), timestamp);
+    public void receiveMessage(List<Message> messages) {
         long start = System.currentTimeMillis();
-        battleProcessingService.processBattlesAsync(battles);
+        try {
+            Map<String, Battle> battlesById = new LinkedHashMap<>();
+            for (Message message : messages) {
+                for (Battle battle : convertBattles(message)) {
+                    battlesById.putIfAbsent(battle.getBattleId(), battle);
+                }
+            }
+            log.info("Received {} messages from RabbitMQ with {} distinct battles", messages.size(), battlesById.size());
+
+            battleProcessingService.processBattlesAsync(new ArrayList<>(battlesById.values()));
+        } catch (RuntimeException e) {
+            battleRetryService.retryOrPark(messages, e);
+        }
+        // Counted once processing has returned, which is when the container acks the messages
+        backpressureManager.recordConsumed(messages.size());
         log.info("Total operation time: {} ms", System.currentTimeMillis() - start);
     }
+
+    // One single-consumer listener per partition queue, so a player's rows are only ever written by one transaction
+    // at a time. The queues are declared with single active consumer, which keeps that true across instances.
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+        if (!rabbitMQConfig.isPartitioned()) return;
+
+        for (int partition = 0; partition < rabbitMQConfig.getPartitionCount(); partition++) {
+            int ownedPartition = partition;
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId("battlePartition" + partition);
+            endpoint.setQueueNames(rabbitMQConfig.getPartitionQueueName(partition));
+            endpoint.setConcurrency("1");
+            endpoint.setBatchListener(true);
+            endpoint.setMessageListener((BatchMessageListener) messages -> receivePartitionMessages(messages, ownedPartition));
+            registrar.registerEndpoint(endpoint);
+        }
+    }
+
+    // Battles are stored by the partition of player 1. Hand-offs are battles another partition stored whose player 2
+    // belongs here; their pending rows are created in the storing transaction, so they are only published after it has
+    // committed. A hand-off whose publish fails stays pending and is picked up by republishStaleHandoffs.
+    private void receivePartitionMessages(List<Message> messages, int partition) {
+        long start = System.currentTimeMillis();
+        try {
+            Map<String, Battle> battlesById = new LinkedHashMap<>();
+            Map<String, Battle> handoffsById = new LinkedHashMap<>();
+            for (Message message : messages) {
+                boolean handoff = Boolean.TRUE.equals(message.getMessageProperties().getHeader(PLAYER_HANDOFF_HEADER));
+                Map<String, Battle> target = handoff ? handoffsById : battlesById;
+                for (Battle battle : convertBattles(message)) {
+                    target.putIfAbsent(battle.getBattleId(), battle);
+                }
+            }
+            log.info("Partition {} received {} messages with {} battles and {} player hand-offs",
+                    partition, messages.size(), battlesById.size(), handoffsById.size());
+
+            if (!battlesById.isEmpty()) {
+                List<Battle> handoffs = battleProcessingService.processPartitionBattles(
+                        new ArrayList<>(battlesById.values()), partition, rabbitMQConfig.getPartitionCount());
+                publishHandoffs(handoffs);
+            }
+            if (!handoffsById.isEmpty()) {
+                battleProcessingService.processHandedOffBattles(new ArrayList<>(handoffsById.values()));
+            }
+        } catch (RuntimeException e) {
+            // Battles already stored by the failed attempt are dropped as duplicates when the retry comes back
+            battleRetryService.retryOrPark(messages, e);
+        }
+
+        backpressureManager.recordConsumed(messages.size());
+        log.info("Partition {} operation time: {} ms", partition, System.currentTimeMillis() - start);
+    }
+
+    @Scheduled(fixedDelayString = "${rabbitmq.partitions.handoff-retry-seconds}", timeUnit = TimeUnit.SECONDS)
+    public void republishStaleHandoffs() {
+        if (!rabbitMQConfig.isPartitioned()) return;
+
+        List<String> staleIds = battleProcessingService.findStaleHandoffIds(handoffRetrySeconds, STALE_HANDOFF_LIMIT);
+        if (staleIds.isEmpty()) return;
+
+        log.warn("Republishing {} player hand-offs that are still pending after {} s", staleIds.size(), handoffRetrySeconds);
+        publishHandoffs(battleRepository.findAllById(staleIds));
+    }
+
+    private void publishHandoffs(List<Battle> handoffs) {
+        if (handoffs.isEmpty()) return;
+
+        String dateAndTime = DateTimeUtils.toReadableTime(Instant.now().getEpochSecond());
+        Map<Integer, List<Battle>> handoffsByPartition = handoffs.stream()
+                .collect(Collectors.groupingBy(battle -> partitionOf(battle.getPlayer2UserId())));
+        handoffsByPartition.forEach((partition, battles) ->
+                publish(battles, rabbitMQConfig.getPartitionRoutingKey(partition), dateAndTime, true)
+                        .exceptionally(throwable -> {
+                            log.warn("Hand-off of {} battles to partition {} was not confirmed, it will be retried: {}",
+                                    battles.size(), partition, throwable.getMessage());
+                            return null;
+                        }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Battle> convertBattles(Message message) {
+        // Only read by the JSON converter, binary batches always decode to battles
+        message.getMessageProperties().setInferredArgumentType(BATTLE_LIST_TYPE);
+        return (List<Battle>) messageConverter.fromMessage(message);
+    }
+
+    private int partitionOf(String playerId) {
+        return PlayerPartitioner.partitionOf(playerId, rabbitMQConfig.getPartitionCount());
+    }
 }
@@ -1,53 +1,127 @@
 package org.ewgf.services;
 
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.ewgf.configuration.BackpressureManager;
-import org.ewgf.models.Battle;
+import org.ewgf.dtos.RefetchJobDTO;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
+import org.ewgf.utils.RequestRateLimiter;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
 import java.time.Instant;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.ewgf.utils.Constants.COVERAGE_WINDOW_SECONDS;
 
 @Service
 @Slf4j
-public class RefetchBattleService {
-    private final RestTemplate restTemplate;
-    private final WavuService wavuService;
+public class RefetchBattleService implements DisposableBean {
+    private final WavuApiClient wavuApiClient;
+    private final BattleTransport battleTransport;
+    private final BattleCoverageService battleCoverageService;
     private final BackpressureManager backpressureManager;
-    private final String wavuApi;
-    private static final long STEP_SECONDS = 600;
+    private final RequestRateLimiter wavuRateLimiter;
+    private final ExecutorService refetchExecutor;
+    private final int workers;
+    private static final long STEP_SECONDS = COVERAGE_WINDOW_SECONDS;
     private static final long MAX_DAYS = 365;
-    private static final long DELAY_BETWEEN_REQUESTS = 500L;
+    private static final long FINISHED_JOB_RETENTION_SECONDS = TimeUnit.DAYS.toSeconds(1);
+
+    private final Map<String, RefetchJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger runningJobs = new AtomicInteger(0);
 
     public RefetchBattleService(
-            RestTemplate restTemplate,
-            WavuService wavuService,
+            WavuApiClient wavuApiClient,
+            BattleTransport battleTransport,
+            BattleCoverageService battleCoverageService,
             BackpressureManager backpressureManager,
-            @Value("${wavu.api}") String wavuApi) {
-        this.restTemplate = restTemplate;
-        this.wavuService = wavuService;
+            RequestRateLimiter wavuRateLimiter,
+            @Qualifier("refetchThreadExecutor") ExecutorService refetchExecutor,
+            @Value("${wavu.refetch.workers}") int workers) {
+        this.wavuApiClient = wavuApiClient;
+        this.battleTransport = battleTransport;
+        this.battleCoverageService = battleCoverageService;
         this.backpressureManager = backpressureManager;
-        this.wavuApi = wavuApi;
+        this.wavuRateLimiter = wavuRateLimiter;
+        this.refetchExecutor = refetchExecutor;
+        this.workers = Math.max(1, workers);
+    }
+
+    @Override
+    public void destroy() {
+        jobs.values().forEach(RefetchJob::cancel);
     }
 
-    public void fetchHistoricalBattles(int daysToFetch) throws IllegalArgumentException, InterruptedException {
+    // Starts the refetch in the background and returns its job id straight away.
+    // Steps are handed out to the workers one at a time, and every request takes a permit from the shared Wavu limiter.
+    public String startRefetch(int daysToFetch) throws IllegalArgumentException {
         validateInput(daysToFetch);
+        removeExpiredJobs();
 
         long now = Instant.now().getEpochSecond();
         long daysInSeconds = daysToFetch * 24 * 3600L;
-        long startTime = now - daysInSeconds;
+        // Steps line up with the coverage windows, so only windows with missing or thin data are requested
+        long endTime = BattleCoverageService.windowStart(now) + STEP_SECONDS;
+        List<Long> stepWindows = battleCoverageService.findWindowsToFetch(endTime - daysInSeconds, endTime);
+        int skippedSteps = calculateTotalSteps(daysInSeconds) - stepWindows.size();
 
-        backpressureManager.manualBackpressureActivation();
-        try {
-            processBattlesFetch(now, startTime, daysToFetch);
-        } finally {
-            backpressureManager.manualBackpressureDeactivation();
+        RefetchJob job = new RefetchJob(UUID.randomUUID().toString(), daysToFetch, stepWindows, Math.max(0, skippedSteps), workers);
+        jobs.put(job.getJobId(), job);
+
+        if (runningJobs.getAndIncrement() == 0) {
+            backpressureManager.manualBackpressureActivation();
+        }
+
+        log.info("Starting refetch job {} from {} to {} ({} days) in {}-second steps with {} workers, {} steps already covered",
+                job.getJobId(),
+                Instant.ofEpochSecond(endTime - daysInSeconds),
+                Instant.ofEpochSecond(endTime),
+                daysToFetch,
+                STEP_SECONDS,
+                workers,
+                job.getSkippedSteps());
+
+        CompletableFuture<?>[] workerFutures = new CompletableFuture<?>[workers];
+        for (int i = 0; i < workers; i++) {
+            workerFutures[i] = CompletableFuture.runAsync(() -> runWorker(job), refetchExecutor);
+        }
+
+        CompletableFuture.allOf(workerFutures).whenComplete((ignored, throwable) -> finishJob(job, throwable));
+        return job.getJobId();
+    }
+
+    public Optional<RefetchJobDTO> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId)).map(RefetchJob::toDTO);
+    }
+
+    public List<RefetchJobDTO> getJobs() {
+        return jobs.values().stream()
+                .sorted(Comparator.comparingLong(RefetchJob::getStartedAt).reversed())
+                .map(RefetchJob::toDTO)
+                .toList();
+    }
+
+    public boolean cancelJob(String jobId) {
+        RefetchJob job = jobs.get(jobId);
+        if (job == null || job.getStatus() != RefetchJobStatus.RUNNING) {
+            return false;
         }
+        job.cancel();
+        log.info("Cancellation requested for refetch job {}", jobId);
+        return true;
     }
 
     private void validateInput(int daysToFetch) {
@@ -57,61 +131,166 @@ public class RefetchBattleService {
         }
     }
 
-    private void processBattlesFetch(long endTime, long startTime, int daysToFetch) throws InterruptedException {
-        long currentBefore = endTime;
-        int processedSteps = 0;
-        int totalSteps = calculateTotalSteps(endTime - startTime);
-
-        log.info("Starting historical battle fetch from {} to {} ({} days) in {}-second steps",
-                Instant.ofEpochSecond(startTime),
-                Instant.ofEpochSecond(endTime),
-                daysToFetch,
-                STEP_SECONDS);
+    private void runWorker(RefetchJob job) {
+        try {
+            while (!job.isCancelRequested()) {
+                int step = job.claimStep();
+                if (step >= job.getTotalSteps()) return;
 
-        while (currentBefore > startTime) {
-            fetchAndProcessBattleBatch(currentBefore, ++processedSteps, totalSteps);
-            currentBefore -= STEP_SECONDS;
-            Thread.sleep(DELAY_BETWEEN_REQUESTS);
+                wavuRateLimiter.acquire();
+                fetchAndProcessBattleBatch(job, job.getStepWindows().get(step) + STEP_SECONDS, step + 1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.cancel();
         }
-
-        log.info("Completed historical battle fetch for {} days of data.", daysToFetch);
     }
 
-    private void fetchAndProcessBattleBatch(long currentBefore, int currentStep, int totalSteps) {
-        String url = buildUrl(currentBefore);
-        log.info("Requesting replays: battle_at <= {} AND battle_at > {} (Progress: {}/{})",
-                currentBefore, currentBefore - 700, currentStep, totalSteps);
+    private void fetchAndProcessBattleBatch(RefetchJob job, long currentBefore, int currentStep) {
+        log.debug("Refetch job {} requesting replays: battle_at <= {} AND battle_at > {} (Step: {}/{})",
+                job.getJobId(), currentBefore, currentBefore - STEP_SECONDS, currentStep, job.getTotalSteps());
 
         try {
-            ResponseEntity<List<Battle>> response = restTemplate.exchange(
-                    url,
-                    HttpMethod.GET,
-                    null,
-                    new ParameterizedTypeReference<>() {}
-            );
-
-            processApiResponse(response.getBody(), currentBefore);
+            BattleCoverageService.CoverageTally tally = battleCoverageService.newTally();
+            BattleTransport.PublishConfirmations confirmations = battleTransport.newPublishConfirmations();
+            WavuFetchSummaryDTO summary = wavuApiClient.streamBattles(currentBefore, chunk -> {
+                tally.count(chunk);
+                confirmations.add(battleTransport.sendBattles(chunk, String.valueOf(currentBefore)));
+            });
+            confirmations.await();
+            battleCoverageService.recordReported(currentBefore, tally, summary);
+            if (summary.getBattleCount() == 0) {
+                log.warn("Got empty response from Wavu API for 'before={}'", currentBefore);
+            }
+            job.recordStep(summary.getBattleCount());
         } catch (Exception e) {
             log.error("Error fetching replays for 'before={}', skipping step. Reason: {}",
                     currentBefore, e.getMessage());
+            job.recordFailedStep();
         }
     }
 
-    private String buildUrl(long before) {
-        return wavuApi + "?before=" + before;
+    private void finishJob(RefetchJob job, Throwable throwable) {
+        if (throwable != null) {
+            job.finish(RefetchJobStatus.FAILED);
+            log.error("Refetch job {} failed: {}", job.getJobId(), throwable.getMessage());
+        } else if (job.isCancelRequested()) {
+            job.finish(RefetchJobStatus.CANCELLED);
+            log.info("Refetch job {} cancelled after {}/{} steps", job.getJobId(), job.getProcessedSteps(), job.getTotalSteps());
+        } else {
+            job.finish(RefetchJobStatus.COMPLETED);
+            log.info("Completed refetch job {} for {} days of data: {} battles, {} failed steps",
+                    job.getJobId(), job.getDaysToFetch(), job.getBattlesFetched(), job.getFailedSteps());
+        }
+
+        if (runningJobs.decrementAndGet() == 0) {
+            backpressureManager.manualBackpressureDeactivation();
+        }
+    }
+
+    private void removeExpiredJobs() {
+        long expiredBefore = Instant.now().getEpochSecond() - FINISHED_JOB_RETENTION_SECONDS;
+        jobs.values().removeIf(job -> job.getStatus() != RefetchJobStatus.RUNNING && job.getFinishedAt() < expiredBefore);
     }
 
     private int calculateTotalSteps(long totalSeconds) {
         return (int) (totalSeconds / STEP_SECONDS);
     }
 
-    private void processApiResponse(List<Battle> battles, long beforeValue) {
-        if (battles == null) {
-            log.warn("Got empty response from Wavu API for 'before={}'", beforeValue);
-            return;
+    private enum RefetchJobStatus {
+        RUNNING, COMPLETED, CANCELLED, FAILED
+    }
+
+    @Getter
+    private static class RefetchJob {
+        private final String jobId;
+        private final int daysToFetch;
+        private final List<Long> stepWindows;
+        private final int totalSteps;
+        private final int skippedSteps;
+        private final int workers;
+        private final long startedAt = Instant.now().getEpochSecond();
+        private volatile long finishedAt = 0;
+        private volatile boolean cancelRequested = false;
+        private volatile RefetchJobStatus status = RefetchJobStatus.RUNNING;
+        private final AtomicInteger nextStep = new AtomicInteger(0);
+        private final AtomicInteger completedStepsCounter = new AtomicInteger(0);
+        private final AtomicInteger failedStepsCounter = new AtomicInteger(0);
+        private final AtomicLong battlesFetchedCounter = new AtomicLong(0);
+
+        RefetchJob(String jobId, int daysToFetch, List<Long> stepWindows, int skippedSteps, int workers) {
+            this.jobId = jobId;
+            this.daysToFetch = daysToFetch;
+            // Newest first, like the walk this replaces
+            this.stepWindows = stepWindows.reversed();
+            this.totalSteps = stepWindows.size();
+            this.skippedSteps = skippedSteps;
+            this.workers = workers;
+        }
+
+        int claimStep() {
+            return nextStep.getAndIncrement();
+        }
+
+        void recordStep(int battleCount) {
+            completedStepsCounter.incrementAndGet();
+            battlesFetchedCounter.addAndGet(battleCount);
+        }
+
+        void recordFailedStep() {
+            failedStepsCounter.incrementAndGet();
+        }
+
+        void cancel() {
+            cancelRequested = true;
         }
 
-        log.debug("Received response of length {} for 'before={}'", battles.size(), beforeValue);
-        wavuService.sendToRabbitMQ(battles, String.valueOf(beforeValue));
+        void finish(RefetchJobStatus finalStatus) {
+            finishedAt = Instant.now().getEpochSecond();
+            status = finalStatus;
+        }
+
+        int getCompletedSteps() {
+            return completedStepsCounter.get();
+        }
+
+        int getFailedSteps() {
+            return failedStepsCounter.get();
+        }
+
+        int getProcessedSteps() {
+            return getCompletedSteps() + getFailedSteps();
+        }
+
+        long getBattlesFetched() {
+            return battlesFetchedCounter.get();
+        }
+
+        RefetchJobDTO toDTO() {
+            long elapsedSeconds = (status == RefetchJobStatus.RUNNING ? Instant.now().getEpochSecond() : finishedAt) - startedAt;
+            int processedSteps = getProcessedSteps();
+            double percentComplete = totalSteps == 0 ? 100.0 : Math.min(100.0, (processedSteps * 100.0) / totalSteps);
+
+            // Extrapolates from the average pace so far, which already reflects the worker count and rate limit
+            Long etaSeconds = null;
+            if (status == RefetchJobStatus.RUNNING && processedSteps > 0) {
+                etaSeconds = Math.round((double) elapsedSeconds / processedSteps * (totalSteps - processedSteps));
+            }
+
+            return new RefetchJobDTO(
+                    jobId,
+                    status.name(),
+                    daysToFetch,
+                    workers,
+                    totalSteps,
+                    getCompletedSteps(),
+                    getFailedSteps(),
+                    skippedSteps,
+                    getBattlesFetched(),
+                    percentComplete,
+                    startedAt,
+                    elapsedSeconds,
+                    etaSeconds);
+        }
     }
 }
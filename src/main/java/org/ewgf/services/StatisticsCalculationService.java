@@ -1,23 +1,37 @@
 package org.ewgf.services;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.ewgf.repositories.TekkenStatsSummaryRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.scheduling.annotation.Async;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.ewgf.aggregations.AggregatedStatistic;
 import org.ewgf.aggregations.AggregatedStatisticId;
-import org.ewgf.aggregations.IndividualStatistic;
+import org.ewgf.aggregations.StatisticsCube;
+import org.ewgf.aggregations.StatisticsCube.Measure;
 import org.ewgf.events.ReplayProcessingCompletedEvent;
 import org.ewgf.repositories.AggregatedStatisticsRepository;
 import org.ewgf.repositories.CharacterStatsRepository;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -30,18 +44,54 @@ public class StatisticsCalculationService {
     private final AggregatedStatisticsRepository aggregatedStatisticsRepository;
     private final TekkenStatsSummaryRepository tekkenStatsSummaryRepository;
     private final Executor statisticsExecutor;
+    private final StatisticsDeltaService statisticsDeltaService;
+    private final StatisticsCubeService statisticsCubeService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionTemplate snapshotTemplate;
+    private final Counter reconciliationDrift;
     private static final Logger logger = LoggerFactory.getLogger(StatisticsCalculationService.class);
     private final AtomicBoolean isProcessing = new AtomicBoolean(false);
+    private final int fetchSize;
+
+    // Ordered by player so each player's rows arrive together; the character_stats primary key starts with player_id
+    private static final String STATS_BY_GAME_VERSION_SQL =
+            "SELECT cs.player_id, cs.character_id, cs.dan_rank, cs.wins, cs.losses, p.region_id " +
+            "FROM character_stats cs JOIN players p ON cs.player_id = p.player_id " +
+            "WHERE cs.game_version = ? ORDER BY cs.player_id";
+
+    private static final String STORED_CELLS_SQL =
+            "SELECT character_id, dan_rank, region_id, category, COALESCE(total_wins, 0), COALESCE(total_losses, 0), " +
+            "COALESCE(total_players, 0), COALESCE(total_replays, 0) FROM aggregated_statistics " +
+            "WHERE game_version = ? AND category IN ('" + STANDARD_CATEGORY + "', '" + OVERALL_CATEGORY + "')";
 
     public StatisticsCalculationService(
             CharacterStatsRepository characterStatsRepository,
             AggregatedStatisticsRepository aggregatedStatisticsRepository,
             TekkenStatsSummaryRepository tekkenStatsSummaryRepository,
-            @Qualifier("statisticsThreadExecutor") Executor statisticsExecutor) {
+            @Qualifier("statisticsThreadExecutor") Executor statisticsExecutor,
+            StatisticsDeltaService statisticsDeltaService,
+            StatisticsCubeService statisticsCubeService,
+            JdbcTemplate jdbcTemplate,
+            TransactionTemplate transactionTemplate,
+            MeterRegistry meterRegistry,
+            @Value("${statistics.fetch-size}") int fetchSize) {
         this.characterStatsRepository = characterStatsRepository;
         this.aggregatedStatisticsRepository = aggregatedStatisticsRepository;
         this.tekkenStatsSummaryRepository = tekkenStatsSummaryRepository;
         this.statisticsExecutor = statisticsExecutor;
+        this.statisticsDeltaService = statisticsDeltaService;
+        this.statisticsCubeService = statisticsCubeService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        // Every statement in a REPEATABLE READ transaction sees the database as of its first one
+        this.snapshotTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        this.snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+        this.snapshotTemplate.setReadOnly(true);
+        this.fetchSize = Math.max(1, fetchSize);
+        this.reconciliationDrift = Counter.builder("statistics.reconciliation.drift")
+                .description("Aggregated statistics cells a full rebuild found different from the incrementally kept ones")
+                .register(meterRegistry);
     }
 
     @EventListener
@@ -53,8 +103,12 @@ public class StatisticsCalculationService {
         }
 
         try {
-            logger.info("Computing statistics for game versions: {} ", event.getGameVersions());
-            processGameVersions(event.getGameVersions());
+            // Batches already applied their deltas, only an explicit request rebuilds
+            if (!statisticsDeltaService.isIncremental() || event.isFullRebuild()) {
+                logger.info("Computing statistics for game versions: {} ", event.getGameVersions());
+                processGameVersions(event.getGameVersions());
+                statisticsCubeService.refresh();
+            }
             tekkenStatsSummaryRepository.updateTotalPlayersCount();
         } catch (Exception e) {
             logger.error("Error computing statistics: ", e);
@@ -64,201 +118,211 @@ public class StatisticsCalculationService {
         }
     }
 
-    private void processGameVersions(Set<Integer> gameVersions) {
-        for (int gameVersion : gameVersions) {
-            processGameVersionStatistics(gameVersion);
+    // In incremental mode the full rebuild only checks and repairs what the deltas built up
+    @Scheduled(fixedDelayString = "${statistics.reconciliation-interval-minutes}",
+            initialDelayString = "${statistics.reconciliation-interval-minutes}", timeUnit = TimeUnit.MINUTES)
+    public void reconcileStatistics() {
+        if (!statisticsDeltaService.isIncremental()) return;
+        if (!acquireProcessingLock()) {
+            logger.info("Statistics computation already in progress, skipping reconciliation.");
+            return;
         }
-    }
-
-    private void processGameVersionStatistics(int gameVersion) {
-        logger.info("Processing statistics for game version: {}", gameVersion);
-        List<Object[]> allStats = characterStatsRepository.findAllStatsByGameVersion(gameVersion);
-        processStatisticsByCategory(allStats,gameVersion, STANDARD_CATEGORY);
-        processStatisticsByCategory(allStats,gameVersion, OVERALL_CATEGORY);
-    }
 
-    private void processStatisticsByCategory(List<Object[]> allStats, int gameVersion, String category) {
-        Map<AggregatedStatisticId, AggregatedStatistic> existingStatsMap =
-                loadExistingStatistics(gameVersion, category);
-
-        if (category.equals(STANDARD_CATEGORY)) {
-            Map<String, IndividualStatistic> playerMainCharacters = identifyPlayerMainCharacters(allStats);
-            Map<AggregatedStatisticId, AggregatedStatistic> aggregatedData =
-                    aggregateStatistics(playerMainCharacters, category, gameVersion, existingStatsMap);
-            saveAggregatedStatistics(aggregatedData.values());
-        } else {
-            Map<String, List<IndividualStatistic>> allPlayerCharacters = getAllPlayerCharacters(allStats);
-            Map<AggregatedStatisticId, AggregatedStatistic> aggregatedData =
-                    aggregateOverallStatistics(allPlayerCharacters, gameVersion, existingStatsMap);
-            saveAggregatedStatistics(aggregatedData.values());
+        try {
+            characterStatsRepository.findAllGameVersions().ifPresent(gameVersions -> {
+                logger.info("Reconciling statistics for game versions: {}", gameVersions);
+                processGameVersions(new HashSet<>(gameVersions));
+                statisticsCubeService.refresh();
+            });
+        } catch (Exception e) {
+            logger.error("Error reconciling statistics: ", e);
+        } finally {
+            releaseProcessingLock();
         }
     }
 
-    private Map<String, IndividualStatistic> identifyPlayerMainCharacters(List<Object[]> stats) {
-        Map<String, IndividualStatistic> playerDataMap = new HashMap<>();
-
-        for (Object[] row : stats) {
-            // Skip records with missing region
-            if (row[5] == null) continue;
-            try {
-                String playerId = (String) row[0];
-                IndividualStatistic characterData = extractFromDbRow(row);
-                updateMainCharacter(playerDataMap, playerId, characterData);
-            } catch (ClassCastException | NullPointerException e) {
-                logger.error("Error processing row for main character statistics: ", e);
+    private void processGameVersions(Set<Integer> gameVersions) {
+        for (int gameVersion : gameVersions) {
+            if (statisticsDeltaService.isIncremental()) {
+                reconcileGameVersion(gameVersion);
+                continue;
             }
+            // The cursor only streams inside a transaction, otherwise the driver reads the whole result up front
+            transactionTemplate.executeWithoutResult(status -> {
+                StatisticsCube cube = rebuildGameVersion(gameVersion);
+                saveCategory(cube, StatisticsCube.STANDARD, gameVersion, STANDARD_CATEGORY);
+                saveCategory(cube, StatisticsCube.OVERALL, gameVersion, OVERALL_CATEGORY);
+            });
         }
-
-        return playerDataMap;
     }
 
-    private void updateMainCharacter(
-            Map<String, IndividualStatistic> playerDataMap,
-            String playerId,
-            IndividualStatistic newData) {
-
-        IndividualStatistic currentData = playerDataMap.get(playerId);
-
-        if (currentData == null ||
-                newData.getDanRank() > currentData.getDanRank() ||
-                (newData.getDanRank() == currentData.getDanRank() &&
-                        newData.getTotalPlays() > currentData.getTotalPlays())) {
-            playerDataMap.put(playerId, newData);
+    // Batches keep applying deltas while this runs. The rebuild and the stored cells come from one snapshot, so their
+    // difference is the drift as of that snapshot, and adding it onto the cells the way batches add theirs keeps every
+    // delta committed since. Cells the rebuild no longer produces come out as minus their stored counts, down to zero.
+    // The difference is written in a separate transaction: an upsert inside the snapshot would fail on any cell a
+    // batch changed after it was taken.
+    private void reconcileGameVersion(int gameVersion) {
+        Map<AggregatedStatisticId, int[]> drift = snapshotTemplate.execute(status -> {
+            Map<AggregatedStatisticId, int[]> difference = new HashMap<>();
+            StatisticsCube cube = rebuildGameVersion(gameVersion);
+            forEachCell(cube, StatisticsCube.STANDARD, gameVersion, STANDARD_CATEGORY,
+                    (id, counts) -> addCounts(difference, id, counts, 1));
+            forEachCell(cube, StatisticsCube.OVERALL, gameVersion, OVERALL_CATEGORY,
+                    (id, counts) -> addCounts(difference, id, counts, 1));
+            jdbcTemplate.query(STORED_CELLS_SQL, ps -> ps.setInt(1, gameVersion), rs -> {
+                AggregatedStatisticId id = new AggregatedStatisticId(
+                        gameVersion, rs.getString(1), rs.getInt(2), rs.getString(4), rs.getInt(3));
+                addCounts(difference, id, new int[]{rs.getInt(5), rs.getInt(6), rs.getInt(7), rs.getInt(8)}, -1);
+            });
+            return difference;
+        });
+
+        int corrected = transactionTemplate.execute(status -> statisticsDeltaService.applyDeltas(drift));
+        if (corrected > 0) {
+            reconciliationDrift.increment(corrected);
+            logger.warn("Reconciliation corrected {} cells for game version {}", corrected, gameVersion);
         }
     }
 
-    private Map<String, List<IndividualStatistic>> getAllPlayerCharacters(List<Object[]> stats) {
-        Map<String, List<IndividualStatistic>> playerDataMap = new HashMap<>();
-
-        for (Object[] row : stats) {
-            // Skip records with missing region
-            if (row[5] == null) continue;
-
-            try {
-                String playerId = (String) row[0];
-                IndividualStatistic characterData = extractFromDbRow(row);
-
-                // Add this character to the player's list
-                playerDataMap.computeIfAbsent(playerId, k -> new ArrayList<>())
-                        .add(characterData);
-            } catch (ClassCastException | NullPointerException e) {
-                logger.error("Error processing row for overall character statistics: ", e);
-            }
+    private static void addCounts(Map<AggregatedStatisticId, int[]> difference, AggregatedStatisticId id, int[] counts, int sign) {
+        int[] total = difference.computeIfAbsent(id, k -> new int[counts.length]);
+        for (int i = 0; i < counts.length; i++) {
+            total[i] += sign * counts[i];
         }
-        return playerDataMap;
     }
 
-    private IndividualStatistic extractFromDbRow(Object[] row) {
-        String characterId = (String) row[1];
-        int danRank = ((Number) row[2]).intValue();
-        int wins = ((Number) row[3]).intValue();
-        int losses = ((Number) row[4]).intValue();
-        int regionId = ((Number) row[5]).intValue();
-        int totalPlays = wins + losses;
-        return new IndividualStatistic(characterId, danRank, wins, losses, totalPlays, regionId);
+    private StatisticsCube rebuildGameVersion(int gameVersion) {
+        logger.info("Processing statistics for game version: {}", gameVersion);
+        long startTime = System.currentTimeMillis();
+        SinglePassAggregation aggregation = new SinglePassAggregation(gameVersion);
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(STATS_BY_GAME_VERSION_SQL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            ps.setInt(1, gameVersion);
+            return ps;
+        }, aggregation);
+        aggregation.finish();
+
+        logger.info("Processed {} character rows for game version {}: {} ms",
+                aggregation.rows, gameVersion, (System.currentTimeMillis() - startTime));
+        return aggregation.cells.build();
     }
 
-    private Map<AggregatedStatisticId, AggregatedStatistic> aggregateStatistics(
-            Map<String, IndividualStatistic> playerCharacters,
-            String category,
-            int gameVersion,
-            Map<AggregatedStatisticId, AggregatedStatistic> existingStats) {
-
-        Map<AggregatedStatisticId, AggregatedStatistic> aggregatedData = new HashMap<>();
-        Map<AggregatedStatisticId, Set<String>> playersPerStat = new HashMap<>();
-
-        for (Map.Entry<String, IndividualStatistic> entry : playerCharacters.entrySet()) {
-                String playerId = entry.getKey();
-                IndividualStatistic data = entry.getValue();
-
-                AggregatedStatisticId id = createStatisticId(gameVersion, data, category);
-                AggregatedStatistic stat = getOrCreateStatistic(id, existingStats, aggregatedData);
+    // Entities are only created here, one per output cell, and stored ones are updated in place
+    private void saveCategory(StatisticsCube cube, int category, int gameVersion, String categoryName) {
+        Map<AggregatedStatisticId, AggregatedStatistic> existingStats = loadExistingStatistics(gameVersion, categoryName);
+        List<AggregatedStatistic> aggregatedData = new ArrayList<>();
+        forEachCell(cube, category, gameVersion, categoryName, (id, counts) -> {
+            AggregatedStatistic stat = getOrCreateStatistic(id, existingStats);
+            stat.setTotalWins(counts[0]);
+            stat.setTotalLosses(counts[1]);
+            stat.setTotalPlayers(counts[2]);
+            stat.setTotalReplays(counts[3]);
+            aggregatedData.add(stat);
+        });
+        saveAggregatedStatistics(aggregatedData);
+    }
 
-                updateStatisticCounts(stat, data);
-                playersPerStat.computeIfAbsent(id, k -> new HashSet<>()).add(playerId);
-                aggregatedData.put(id, stat);
+    // Hands each stored cell of one category to action with its wins, losses, players and replays. The cube was built
+    // from this game version alone, so its only version index is 0.
+    private void forEachCell(StatisticsCube cube, int category, int gameVersion, String categoryName,
+                             BiConsumer<AggregatedStatisticId, int[]> action) {
+        for (int version = 0; version < cube.getGameVersionCount(); version++) {
+            for (int character = 0; character < cube.getCharacterCount(); character++) {
+                for (int dan = 0; dan < cube.getDanRankCount(); dan++) {
+                    for (int region = 0; region < cube.getRegionCount(); region++) {
+                        if (!cube.isPresent(version, character, dan, dan, region, category)) continue;
+
+                        AggregatedStatisticId id = new AggregatedStatisticId(
+                                gameVersion, cube.getCharacterId(character), dan, categoryName, cube.getRegionId(region));
+                        action.accept(id, new int[]{
+                                (int) cube.sum(Measure.WINS, version, character, dan, dan, region, category),
+                                (int) cube.sum(Measure.LOSSES, version, character, dan, dan, region, category),
+                                (int) cube.sum(Measure.PLAYERS, version, character, dan, dan, region, category),
+                                (int) cube.sum(Measure.REPLAYS, version, character, dan, dan, region, category)});
+                    }
+                }
+            }
         }
-        updatePlayerCounts(aggregatedData, playersPerStat);
-        return aggregatedData;
     }
 
-    private Map<AggregatedStatisticId, AggregatedStatistic> aggregateOverallStatistics(
-            Map<String, List<IndividualStatistic>> allPlayerCharacters,
-            int gameVersion,
-            Map<AggregatedStatisticId, AggregatedStatistic> existingStats) {
+    // Rows arrive ordered by player, so the main character of a player is settled as soon as the next player's rows
+    // start. Memory holds the cube's cells and one pending main character, not a map of every player.
+    private static final class SinglePassAggregation implements RowCallbackHandler {
+        private final int gameVersion;
+        private final StatisticsCube.Builder cells = new StatisticsCube.Builder();
+        private String currentPlayerId;
+        private String mainCharacterId;
+        private int mainDanRank;
+        private int mainWins;
+        private int mainLosses;
+        private int mainRegionId;
+        private long rows;
+
+        private SinglePassAggregation(int gameVersion) {
+            this.gameVersion = gameVersion;
+        }
 
-        Map<AggregatedStatisticId, AggregatedStatistic> aggregatedData = new HashMap<>();
-        Map<AggregatedStatisticId, Set<String>> playersPerStat = new HashMap<>();
+        // Each player has one character_stats row per character and game version, so every row added to a cell
+        // is a different player and counts as one
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            rows++;
+            int regionId = rs.getInt(6);
+            // Skip records with missing region
+            if (rs.wasNull()) return;
 
-        for (Map.Entry<String, List<IndividualStatistic>> entry : allPlayerCharacters.entrySet()) {
-            String playerId = entry.getKey();
-            List<IndividualStatistic> characterDataList = entry.getValue();
+            String playerId = rs.getString(1);
+            if (!playerId.equals(currentPlayerId)) {
+                finish();
+                currentPlayerId = playerId;
+            }
 
-            for (IndividualStatistic data : characterDataList) {
-                AggregatedStatisticId id = createStatisticId(gameVersion, data, OVERALL_CATEGORY);
-                AggregatedStatistic stat = getOrCreateStatistic(id, existingStats, aggregatedData);
+            String characterId = rs.getString(2);
+            int danRank = rs.getInt(3);
+            int wins = rs.getInt(4);
+            int losses = rs.getInt(5);
+            cells.add(gameVersion, characterId, danRank, regionId, StatisticsCube.OVERALL, wins, losses, wins + losses, 1);
+            if (isNewMainCharacter(characterId, danRank, wins + losses)) {
+                mainCharacterId = characterId;
+                mainDanRank = danRank;
+                mainWins = wins;
+                mainLosses = losses;
+                mainRegionId = regionId;
+            }
+        }
 
-                updateStatisticCounts(stat, data);
-                playersPerStat.computeIfAbsent(id, k -> new HashSet<>()).add(playerId);
-                aggregatedData.put(id, stat);
+        private void finish() {
+            if (mainCharacterId != null) {
+                cells.add(gameVersion, mainCharacterId, mainDanRank, mainRegionId, StatisticsCube.STANDARD,
+                        mainWins, mainLosses, mainWins + mainLosses, 1);
+                mainCharacterId = null;
             }
         }
-        updatePlayerCounts(aggregatedData, playersPerStat);
-        return aggregatedData;
-    }
 
-    private AggregatedStatisticId createStatisticId(int gameVersion, IndividualStatistic data, String category) {
-        return new AggregatedStatisticId(
-                gameVersion,
-                data.getCharacterId(),
-                data.getDanRank(),
-                category,
-                data.getRegionId()
-        );
+        private boolean isNewMainCharacter(String characterId, int danRank, int totalPlays) {
+            int mainTotalPlays = mainWins + mainLosses;
+            return mainCharacterId == null ||
+                    danRank > mainDanRank ||
+                    (danRank == mainDanRank && totalPlays > mainTotalPlays) ||
+                    // full ties go to the lowest character id, so the result does not depend on row order
+                    (danRank == mainDanRank && totalPlays == mainTotalPlays &&
+                            characterId.compareTo(mainCharacterId) < 0);
+        }
     }
 
     private AggregatedStatistic getOrCreateStatistic(
             AggregatedStatisticId id,
-            Map<AggregatedStatisticId, AggregatedStatistic> existingStats,
-            Map<AggregatedStatisticId, AggregatedStatistic> aggregatedData) {
+            Map<AggregatedStatisticId, AggregatedStatistic> existingStats) {
 
         AggregatedStatistic stat = existingStats.get(id);
-
         if (stat == null) {
             stat = new AggregatedStatistic(id);
-            stat.setComputedAt(LocalDateTime.now());
-        } else if (!aggregatedData.containsKey(id)) {
-            // Reset counts if this is the first time we're processing this existing statistic
-            resetStatisticCounts(stat);
         }
-
-        return stat;
-    }
-
-    private void resetStatisticCounts(AggregatedStatistic stat) {
-        stat.setTotalWins(0);
-        stat.setTotalLosses(0);
-        stat.setTotalPlayers(0);
-        stat.setTotalReplays(0);
         stat.setComputedAt(LocalDateTime.now());
-    }
-
-    private void updateStatisticCounts(AggregatedStatistic stat, IndividualStatistic data) {
-        stat.setTotalWins(stat.getTotalWins() + data.getWins());
-        stat.setTotalLosses(stat.getTotalLosses() + data.getLosses());
-        stat.setTotalReplays(stat.getTotalReplays() + data.getTotalPlays());
-    }
-
-    private void updatePlayerCounts(
-            Map<AggregatedStatisticId, AggregatedStatistic> aggregatedData,
-            Map<AggregatedStatisticId, Set<String>> playersPerStat) {
-
-        for (Map.Entry<AggregatedStatisticId, AggregatedStatistic> entry : aggregatedData.entrySet()) {
-            AggregatedStatisticId id = entry.getKey();
-            AggregatedStatistic stat = entry.getValue();
-            Set<String> players = playersPerStat.getOrDefault(id, Collections.emptySet());
-            stat.setTotalPlayers(players.size());
-        }
+        return stat;
     }
 
     private Map<AggregatedStatisticId, AggregatedStatistic> loadExistingStatistics(int gameVersion, String category) {
@@ -0,0 +1,67 @@
+package org.ewgf.services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.aggregations.StatisticsCube;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.ewgf.utils.Constants.OVERALL_CATEGORY;
+import static org.ewgf.utils.Constants.STANDARD_CATEGORY;
+
+// Holds aggregated_statistics in memory as a StatisticsCube for the statistics endpoints. A refresh builds a whole
+// new cube off to the side and swaps it in, so readers always see one complete snapshot and never wait on a refresh.
+// Refreshes run one at a time so a slow one cannot swap in an older snapshot over a newer one.
+@Slf4j
+@Service
+public class StatisticsCubeService {
+
+    private static final String CUBE_CELLS_SQL =
+            "SELECT game_version, character_id, dan_rank, region_id, category, " +
+            "total_wins, total_losses, total_replays, total_players " +
+            "FROM aggregated_statistics WHERE category IN ('" + STANDARD_CATEGORY + "', '" + OVERALL_CATEGORY + "')";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AtomicReference<StatisticsCube> cube = new AtomicReference<>(StatisticsCube.empty());
+
+    public StatisticsCubeService(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public StatisticsCube getCube() {
+        return cube.get();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        refresh();
+    }
+
+    // Picks up the deltas batches apply in incremental mode; the rebuild refreshes on its own when it finishes
+    @Scheduled(fixedDelayString = "${statistics.cube.refresh-seconds}",
+            initialDelayString = "${statistics.cube.refresh-seconds}", timeUnit = TimeUnit.SECONDS)
+    public synchronized void refresh() {
+        long startTime = System.currentTimeMillis();
+        try {
+            StatisticsCube.Builder builder = new StatisticsCube.Builder();
+            jdbcTemplate.query(CUBE_CELLS_SQL, rs -> {
+                builder.add(rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getInt(4),
+                        STANDARD_CATEGORY.equals(rs.getString(5)) ? StatisticsCube.STANDARD : StatisticsCube.OVERALL,
+                        rs.getLong(6), rs.getLong(7), rs.getLong(8), rs.getLong(9));
+            });
+            StatisticsCube refreshed = builder.build();
+            cube.set(refreshed);
+            log.info("Refreshed statistics cube: {} game versions, {} characters, {} regions in {} ms",
+                    refreshed.getGameVersionCount(), refreshed.getCharacterCount(), refreshed.getRegionCount(),
+                    System.currentTimeMillis() - startTime);
+        } catch (Exception e) {
+            // The previous cube keeps serving until the next refresh succeeds
+            log.error("Failed to refresh statistics cube: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.ewgf.services;
+
+import org.ewgf.aggregations.AggregatedStatisticId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+import static org.ewgf.utils.Constants.OVERALL_CATEGORY;
+import static org.ewgf.utils.Constants.STANDARD_CATEGORY;
+
+// statistics.mode=incremental: keeps aggregated_statistics up to date batch by batch instead of rebuilding it from
+// every character_stats row. The cells a player contributes to are a function of that player's rows only, so the
+// change a batch makes is what its players contributed after the upserts minus what they contributed before. That
+// difference is added onto the stored cells, which also moves a player between standard cells when their main
+// character changes. The reconciliation in StatisticsCalculationService repairs drift the same additive way, so
+// neither side ever overwrites the other's changes and no lock is held between them.
+@Service
+public class StatisticsDeltaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsDeltaService.class);
+
+    private static final int PLAYER_LOCK_CLASS = 0x41475354;
+
+    // Taken in hash order so two batches sharing players queue up instead of deadlocking. Without them a concurrent
+    // batch could commit between this batch's two snapshots and have its change counted twice.
+    private static final String LOCK_PLAYERS_SQL =
+            "SELECT pg_advisory_xact_lock(" + PLAYER_LOCK_CLASS + ", k) FROM (" +
+            "SELECT DISTINCT hashtext(player_id) AS k FROM unnest(?::varchar[]) AS player_id ORDER BY k) keys";
+
+    // Same rules as the full rebuild in StatisticsCalculationService: players without a region are left out, overall
+    // counts every character row, standard only the highest ranked character per game version, ties going to the most
+    // played one and then to the lowest character id.
+    private static final String PLAYER_CONTRIBUTIONS_SQL =
+            "WITH player_rows AS (" +
+            "SELECT cs.game_version, cs.character_id, cs.dan_rank, p.region_id, cs.player_id, cs.wins, cs.losses " +
+            "FROM character_stats cs JOIN players p ON cs.player_id = p.player_id " +
+            "WHERE cs.player_id = ANY(?) AND p.region_id IS NOT NULL), " +
+            "main_rows AS (" +
+            "SELECT DISTINCT ON (player_id, game_version) * FROM player_rows " +
+            "ORDER BY player_id, game_version, dan_rank DESC, wins + losses DESC, character_id COLLATE \"C\") " +
+            "SELECT game_version, character_id, dan_rank, region_id, '" + OVERALL_CATEGORY + "', " +
+            "sum(wins), sum(losses), count(*) FROM player_rows GROUP BY game_version, character_id, dan_rank, region_id " +
+            "UNION ALL " +
+            "SELECT game_version, character_id, dan_rank, region_id, '" + STANDARD_CATEGORY + "', " +
+            "sum(wins), sum(losses), count(*) FROM main_rows GROUP BY game_version, character_id, dan_rank, region_id";
+
+    private static final String APPLY_DELTA_SQL =
+            "INSERT INTO aggregated_statistics " +
+            "(game_version, character_id, dan_rank, category, region_id, total_wins, total_losses, total_players, total_replays, computed_at) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, now()) " +
+            "ON CONFLICT (game_version, character_id, dan_rank, category, region_id) DO UPDATE SET " +
+            "total_wins = COALESCE(aggregated_statistics.total_wins, 0) + EXCLUDED.total_wins, " +
+            "total_losses = COALESCE(aggregated_statistics.total_losses, 0) + EXCLUDED.total_losses, " +
+            "total_players = COALESCE(aggregated_statistics.total_players, 0) + EXCLUDED.total_players, " +
+            "total_replays = COALESCE(aggregated_statistics.total_replays, 0) + EXCLUDED.total_replays, " +
+            "computed_at = EXCLUDED.computed_at";
+
+    private static final Comparator<AggregatedStatisticId> CELL_ORDER =
+            Comparator.comparingInt(AggregatedStatisticId::getGameVersion)
+                    .thenComparing(AggregatedStatisticId::getCharacterId)
+                    .thenComparingInt(AggregatedStatisticId::getDanRank)
+                    .thenComparing(AggregatedStatisticId::getCategory)
+                    .thenComparingInt(AggregatedStatisticId::getRegionId);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean incremental;
+
+    public StatisticsDeltaService(JdbcTemplate jdbcTemplate, @Value("${statistics.mode}") String mode) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.incremental = "incremental".equalsIgnoreCase(mode.trim());
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    // Runs upserts, which write the players and character_stats rows of playerIds, and adds the change they make to
+    // aggregated_statistics. Must be called inside the transaction that runs the upserts.
+    public void applyingDeltas(Collection<String> playerIds, Runnable upserts) {
+        if (!incremental || playerIds.isEmpty()) {
+            upserts.run();
+            return;
+        }
+        Object[] ids = playerIds.toArray();
+        jdbcTemplate.query(LOCK_PLAYERS_SQL, ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", ids)), rs -> {});
+
+        Map<AggregatedStatisticId, int[]> deltas = new HashMap<>();
+        addContributions(ids, deltas, -1);
+        upserts.run();
+        addContributions(ids, deltas, 1);
+
+        long startTime = System.currentTimeMillis();
+        int applied = applyDeltas(deltas);
+        if (applied > 0) {
+            logger.info("Applied {} aggregated statistics deltas for {} players: {} ms",
+                    applied, ids.length, (System.currentTimeMillis() - startTime));
+        }
+    }
+
+    // Adds each delta (wins, losses, players, replays) onto its cell, creating cells that do not exist yet. Cells are
+    // written in one fixed order so concurrent callers lock rows in the same order. Returns the cells changed.
+    public int applyDeltas(Map<AggregatedStatisticId, int[]> deltas) {
+        List<Map.Entry<AggregatedStatisticId, int[]>> changed = deltas.entrySet().stream()
+                .filter(entry -> !isZero(entry.getValue()))
+                .sorted(Map.Entry.comparingByKey(CELL_ORDER))
+                .toList();
+        if (changed.isEmpty()) return 0;
+
+        jdbcTemplate.batchUpdate(APPLY_DELTA_SQL, new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(PreparedStatement ps, int i) throws SQLException {
+                AggregatedStatisticId cell = changed.get(i).getKey();
+                int[] delta = changed.get(i).getValue();
+                ps.setInt(1, cell.getGameVersion());
+                ps.setString(2, cell.getCharacterId());
+                ps.setInt(3, cell.getDanRank());
+                ps.setString(4, cell.getCategory());
+                ps.setInt(5, cell.getRegionId());
+                ps.setInt(6, delta[0]);
+                ps.setInt(7, delta[1]);
+                ps.setInt(8, delta[2]);
+                ps.setInt(9, delta[3]);
+            }
+
+            @Override
+            public int getBatchSize() {
+                return changed.size();
+            }
+        });
+        return changed.size();
+    }
+
+    // A player's replays on a character are always their wins plus losses
+    private void addContributions(Object[] playerIds, Map<AggregatedStatisticId, int[]> deltas, int sign) {
+        jdbcTemplate.query(PLAYER_CONTRIBUTIONS_SQL,
+                ps -> ps.setArray(1, ps.getConnection().createArrayOf("varchar", playerIds)),
+                rs -> {
+                    AggregatedStatisticId cell = new AggregatedStatisticId(
+                            rs.getInt(1), rs.getString(2), rs.getInt(3), rs.getString(5), rs.getInt(4));
+                    int[] delta = deltas.computeIfAbsent(cell, k -> new int[4]);
+                    delta[0] += sign * rs.getInt(6);
+                    delta[1] += sign * rs.getInt(7);
+                    delta[2] += sign * rs.getInt(8);
+                    delta[3] += sign * (rs.getInt(6) + rs.getInt(7));
+                });
+    }
+
+    private static boolean isZero(int[] delta) {
+        return delta[0] == 0 && delta[1] == 0 && delta[2] == 0 && delta[3] == 0;
+    }
+}
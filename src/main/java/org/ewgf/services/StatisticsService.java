@@ -2,14 +2,15 @@ package org.ewgf.services;
 
 import lombok.extern.slf4j.Slf4j;
 
+import org.ewgf.aggregations.StatisticsCube;
+import org.ewgf.aggregations.StatisticsCube.Measure;
 import org.ewgf.dtos.*;
-import org.ewgf.interfaces.RankDistributionProjection;
 import org.ewgf.interfaces.WinrateChangesProjection;
 import org.springframework.stereotype.Service;
-import org.ewgf.interfaces.CharacterAnalyticsProjection;
-import org.ewgf.interfaces.CharacterWinrateProjection;
 import org.ewgf.utils.TekkenDataMapperUtils;
 import org.ewgf.repositories.AggregatedStatisticsRepository;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -19,185 +20,166 @@ import static org.ewgf.utils.Constants.*;
 @Slf4j
 public class StatisticsService {
 
+    private static final RankRange ALL_RANKS_RANGE = new RankRange(0, Integer.MAX_VALUE);
+    private static final RankRange MASTER_RANKS = new RankRange(27, Integer.MAX_VALUE);
+    private static final RankRange ADVANCED_RANKS = new RankRange(21, 26);
+    private static final RankRange INTERMEDIATE_RANKS = new RankRange(15, 20);
+    private static final RankRange BEGINNER_RANKS = new RankRange(0, 14);
+    private static final int TOP_CHARACTERS = 5;
+
     private final AggregatedStatisticsRepository aggregatedStatisticsRepository;
+    private final StatisticsCubeService statisticsCubeService;
 
     public StatisticsService(
-            AggregatedStatisticsRepository repository) {
+            AggregatedStatisticsRepository repository,
+            StatisticsCubeService statisticsCubeService) {
         this.aggregatedStatisticsRepository = repository;
+        this.statisticsCubeService = statisticsCubeService;
     }
 
     public Map<String, CharacterWinratesDTO> getAllVersionWinrates() throws Exception {
-        List<CharacterWinrateProjection> allStats = aggregatedStatisticsRepository.findAllWinrateStats();
-
-            // First group by version
-        Map<Integer, List<CharacterWinrateProjection>> statsByVersion = allStats.stream()
-                .collect(Collectors.groupingBy(CharacterWinrateProjection::getGameVersion));
-
+        StatisticsCube cube = statisticsCubeService.getCube();
         Map<String, CharacterWinratesDTO> result = new HashMap<>();
 
-        for (Map.Entry<Integer, List<CharacterWinrateProjection>> versionEntry : statsByVersion.entrySet()) {
-            String version = String.valueOf(versionEntry.getKey());
-            List<CharacterWinrateProjection> versionStats = versionEntry.getValue();
-
-            // Group by rank category
-            Map<String, List<CharacterWinrateProjection>> statsByRank = versionStats.stream()
-                    .collect(Collectors.groupingBy(CharacterWinrateProjection::getRankCategory));
-
-                // Process each rank range
-            RegionalCharacterWinrateDTO allRanks = processWinrateStatsWithRegions(statsByRank.get(ALL_RANKS));
-            RegionalCharacterWinrateDTO masterRanks = processWinrateStatsWithRegions(statsByRank.get(MASTER_RANK_CATEGORY));
-            RegionalCharacterWinrateDTO advancedRanks = processWinrateStatsWithRegions(statsByRank.get(ADVANCED_RANK_CATEGORY));
-            RegionalCharacterWinrateDTO intermediateRanks = processWinrateStatsWithRegions(statsByRank.get(INTERMEDIATE_RANK_CATEGORY));
-            RegionalCharacterWinrateDTO beginnerRanks = processWinrateStatsWithRegions(statsByRank.get(BEGINNER_RANK_CATEGORY));
-
-            result.put(version, new CharacterWinratesDTO(allRanks, masterRanks, advancedRanks, intermediateRanks, beginnerRanks));
+        for (int version = 0; version < cube.getGameVersionCount(); version++) {
+            RegionalCharacterWinrateDTO allRanks = winratesWithRegions(cube, version, ALL_RANKS_RANGE);
+            // Versions without a single played standard cell were never part of the response
+            if (allRanks.getGlobalStats().isEmpty()) continue;
+
+            result.put(String.valueOf(cube.getGameVersion(version)), new CharacterWinratesDTO(
+                    allRanks,
+                    winratesWithRegions(cube, version, MASTER_RANKS),
+                    winratesWithRegions(cube, version, ADVANCED_RANKS),
+                    winratesWithRegions(cube, version, INTERMEDIATE_RANKS),
+                    winratesWithRegions(cube, version, BEGINNER_RANKS)));
         }
         return result;
     }
 
-    private RegionalCharacterWinrateDTO processWinrateStatsWithRegions(List<CharacterWinrateProjection> stats) {
-        if (stats == null || stats.isEmpty()) {
-            return new RegionalCharacterWinrateDTO(new HashMap<>(), new HashMap<>());
+    private RegionalCharacterWinrateDTO winratesWithRegions(StatisticsCube cube, int version, RankRange ranks) {
+        Map<String, Double> globalStats = new HashMap<>();
+        Map<String, Map<String, Double>> regionalStats = new HashMap<>();
+
+        for (int character = 0; character < cube.getCharacterCount(); character++) {
+            String characterName = TekkenDataMapperUtils.getCharacterName(cube.getCharacterId(character));
+            putWinrate(globalStats, characterName, cube, version, character, ranks, StatisticsCube.ALL);
+            for (int region = 0; region < cube.getRegionCount(); region++) {
+                Map<String, Double> regionStats = regionalStats.computeIfAbsent(
+                        String.valueOf(cube.getRegionId(region)), k -> new HashMap<>());
+                putWinrate(regionStats, characterName, cube, version, character, ranks, region);
+            }
         }
-
-        // Group by region first
-        Map<String, List<CharacterWinrateProjection>> groupedByRegion = stats.stream()
-                .collect(Collectors.groupingBy(CharacterWinrateProjection::getRegionId));
-
-        // Process global stats
-        Map<String, Double> globalStats = groupedByRegion.getOrDefault(GLOBAL_REGION, Collections.emptyList())
-                .stream()
-                .collect(Collectors.toMap(
-                        stat -> TekkenDataMapperUtils.getCharacterName((stat.getCharacterId())),
-                        this::calculateWinrate
-                ));
-
-        // Process regional stats
-        Map<String, Map<String, Double>> regionalStats = groupedByRegion.entrySet().stream()
-                .filter(entry -> !GLOBAL_REGION.equals(entry.getKey()))
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> entry.getValue().stream()
-                                .collect(Collectors.toMap(
-                                        stat -> TekkenDataMapperUtils.getCharacterName(stat.getCharacterId()),
-                                        this::calculateWinrate
-                                ))
-                ));
+        regionalStats.values().removeIf(Map::isEmpty);
         return new RegionalCharacterWinrateDTO(globalStats, regionalStats);
     }
 
-    public Map<String, CharacterPopularityDTO> getAllVersionPopularity() throws Exception {
-        List<CharacterAnalyticsProjection> allStats = aggregatedStatisticsRepository.findAllCharactersByPopularity();
-
-        // First group by version
-        Map<Integer, List<CharacterAnalyticsProjection>> statsByVersion = allStats.stream()
-                .collect(Collectors.groupingBy(CharacterAnalyticsProjection::getGameVersion));
+    private void putWinrate(Map<String, Double> stats, String characterName, StatisticsCube cube,
+                            int version, int character, RankRange ranks, int region) {
+        long wins = cube.sum(Measure.WINS, version, character, ranks.from(), ranks.to(), region, StatisticsCube.STANDARD);
+        long losses = cube.sum(Measure.LOSSES, version, character, ranks.from(), ranks.to(), region, StatisticsCube.STANDARD);
+        if (wins + losses > 0) {
+            stats.put(characterName, (wins * 100.0) / (wins + losses));
+        }
+    }
 
+    public Map<String, CharacterPopularityDTO> getAllVersionPopularity() throws Exception {
+        StatisticsCube cube = statisticsCubeService.getCube();
         Map<String, CharacterPopularityDTO> result = new HashMap<>();
 
-        for (Map.Entry<Integer, List<CharacterAnalyticsProjection>> versionEntry : statsByVersion.entrySet()) {
-            String version = String.valueOf(versionEntry.getKey());
-            List<CharacterAnalyticsProjection> versionStats = versionEntry.getValue();
-
-            // Group by rank category
-            Map<String, List<CharacterAnalyticsProjection>> statsByRank = versionStats.stream()
-                    .collect(Collectors.groupingBy(CharacterAnalyticsProjection::getRankCategory));
+        for (int version = 0; version < cube.getGameVersionCount(); version++) {
+            if (!cube.isPresent(version, StatisticsCube.ALL, ALL_RANKS_RANGE.from(), ALL_RANKS_RANGE.to(),
+                    StatisticsCube.ALL, StatisticsCube.STANDARD)) continue;
 
-            RegionalCharacterPopularityDTO allRanks = processStats(statsByRank.get(ALL_RANKS));
-            RegionalCharacterPopularityDTO masterRanks = processStats(statsByRank.get(MASTER_RANK_CATEGORY));
-            RegionalCharacterPopularityDTO advancedRanks = processStats(statsByRank.get(ADVANCED_RANK_CATEGORY));
-            RegionalCharacterPopularityDTO intermediateRanks = processStats(statsByRank.get(INTERMEDIATE_RANK_CATEGORY));
-            RegionalCharacterPopularityDTO beginnerRanks = processStats(statsByRank.get(BEGINNER_RANK_CATEGORY));
-            result.put(version, new CharacterPopularityDTO(allRanks, masterRanks, advancedRanks, intermediateRanks, beginnerRanks));
-            }
-            return result;
+            result.put(String.valueOf(cube.getGameVersion(version)), new CharacterPopularityDTO(
+                    popularityWithRegions(cube, version, ALL_RANKS_RANGE),
+                    popularityWithRegions(cube, version, MASTER_RANKS),
+                    popularityWithRegions(cube, version, ADVANCED_RANKS),
+                    popularityWithRegions(cube, version, INTERMEDIATE_RANKS),
+                    popularityWithRegions(cube, version, BEGINNER_RANKS)));
+        }
+        return result;
     }
 
-    private RegionalCharacterPopularityDTO processStats(List<CharacterAnalyticsProjection> stats) {
-        if (stats == null || stats.isEmpty()) {
-            return new RegionalCharacterPopularityDTO(new HashMap<>(), new HashMap<>());
-        }
+    private RegionalCharacterPopularityDTO popularityWithRegions(StatisticsCube cube, int version, RankRange ranks) {
+        Map<String, Long> globalStats = new HashMap<>();
+        Map<String, Map<String, Long>> regionalStats = new HashMap<>();
 
-        Map<String, List<CharacterAnalyticsProjection>> groupedByRegion = stats.stream()
-                .collect(Collectors.groupingBy(CharacterAnalyticsProjection::getRegionId));
-
-        // Process global stats
-        Map<String, Long> globalStats = groupedByRegion.getOrDefault(GLOBAL_REGION, Collections.emptyList())
-                .stream()
-                .collect(Collectors.toMap(
-                        stat -> TekkenDataMapperUtils.getCharacterName(stat.getCharacterId()),
-                        CharacterAnalyticsProjection::getTotalBattles
-                ));
-
-        // Process regional stats
-        Map<String, Map<String, Long>> regionalStats = groupedByRegion.entrySet().stream()
-                .filter(entry -> !GLOBAL_REGION.equals(entry.getKey()))
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> entry.getValue().stream()
-                                .collect(Collectors.toMap(
-                                        stat -> TekkenDataMapperUtils.getCharacterName(stat.getCharacterId()),
-                                        CharacterAnalyticsProjection::getTotalBattles
-                                ))
-                ));
+        for (int character = 0; character < cube.getCharacterCount(); character++) {
+            String characterName = TekkenDataMapperUtils.getCharacterName(cube.getCharacterId(character));
+            // Globally every character with a stored cell is listed, even one nobody played
+            if (cube.isPresent(version, character, ranks.from(), ranks.to(), StatisticsCube.ALL, StatisticsCube.STANDARD)) {
+                globalStats.put(characterName, cube.sum(Measure.REPLAYS, version, character,
+                        ranks.from(), ranks.to(), StatisticsCube.ALL, StatisticsCube.STANDARD));
+            }
+            for (int region = 0; region < cube.getRegionCount(); region++) {
+                long replays = cube.sum(Measure.REPLAYS, version, character,
+                        ranks.from(), ranks.to(), region, StatisticsCube.STANDARD);
+                if (replays > 0) {
+                    regionalStats.computeIfAbsent(String.valueOf(cube.getRegionId(region)), k -> new HashMap<>())
+                            .put(characterName, replays);
+                }
+            }
+        }
         return new RegionalCharacterPopularityDTO(globalStats, regionalStats);
     }
 
     public CharacterPopularityDTO getHomePageCharacterPopularity() throws Exception {
-        List<CharacterAnalyticsProjection> stats = aggregatedStatisticsRepository.findTopCharactersByPopularity();
-        // Group by rank category
-        Map<String, List<CharacterAnalyticsProjection>> statsByRank = stats.stream()
-                    .collect(Collectors.groupingBy(CharacterAnalyticsProjection::getRankCategory));
-
-        Map<String, Long> masterRankStats = processTopStats(statsByRank.getOrDefault(MASTER_RANK_CATEGORY, Collections.emptyList()));
-        Map<String, Long> advcancedRankStats = processTopStats(statsByRank.getOrDefault(ADVANCED_RANK_CATEGORY, Collections.emptyList()));
-        Map<String, Long> intermediateRankStats = processTopStats(statsByRank.getOrDefault(INTERMEDIATE_RANK_CATEGORY, Collections.emptyList()));
-        Map<String, Long> beginnerRankStats = processTopStats(statsByRank.getOrDefault(BEGINNER_RANK_CATEGORY, Collections.emptyList()));
+        StatisticsCube cube = statisticsCubeService.getCube();
+        int latestVersion = cube.getGameVersionCount() - 1;
 
         // Since we're only returning top characters (for the front page) , we only need global stats
-        RegionalCharacterPopularityDTO masterRanks = new RegionalCharacterPopularityDTO(masterRankStats, new HashMap<>());
-        RegionalCharacterPopularityDTO advancedRanks = new RegionalCharacterPopularityDTO(advcancedRankStats, new HashMap<>());
-        RegionalCharacterPopularityDTO intermediateRanks = new RegionalCharacterPopularityDTO(intermediateRankStats, new HashMap<>());
-        RegionalCharacterPopularityDTO beginnerRanks = new RegionalCharacterPopularityDTO(beginnerRankStats, new HashMap<>());
+        RegionalCharacterPopularityDTO masterRanks = new RegionalCharacterPopularityDTO(topPopularity(cube, latestVersion, MASTER_RANKS), new HashMap<>());
+        RegionalCharacterPopularityDTO advancedRanks = new RegionalCharacterPopularityDTO(topPopularity(cube, latestVersion, ADVANCED_RANKS), new HashMap<>());
+        RegionalCharacterPopularityDTO intermediateRanks = new RegionalCharacterPopularityDTO(topPopularity(cube, latestVersion, INTERMEDIATE_RANKS), new HashMap<>());
+        RegionalCharacterPopularityDTO beginnerRanks = new RegionalCharacterPopularityDTO(topPopularity(cube, latestVersion, BEGINNER_RANKS), new HashMap<>());
         return new CharacterPopularityDTO(masterRanks, advancedRanks, intermediateRanks, beginnerRanks);
     }
 
     public CharacterWinratesDTO getHomePageCharacterWinrates() throws Exception {
-        List<CharacterAnalyticsProjection> stats = aggregatedStatisticsRepository.findTopCharactersByWinrate();
-        // Group by rank category
-        Map<String, List<CharacterAnalyticsProjection>> statsByRank = stats.stream()
-                .collect(Collectors.groupingBy(CharacterAnalyticsProjection::getRankCategory));
-
-        Map<String, Double> masterRankStats = processTopWinrates(statsByRank.getOrDefault(MASTER_RANK_CATEGORY, Collections.emptyList()));
-        Map<String, Double> advancedRankStats = processTopWinrates(statsByRank.getOrDefault(ADVANCED_RANK_CATEGORY, Collections.emptyList()));
-        Map<String, Double> intermediateRankStats = processTopWinrates(statsByRank.getOrDefault(INTERMEDIATE_RANK_CATEGORY, Collections.emptyList()));
-        Map<String, Double> beginnnerRankStats = processTopWinrates(statsByRank.getOrDefault(BEGINNER_RANK_CATEGORY, Collections.emptyList()));
+        StatisticsCube cube = statisticsCubeService.getCube();
+        int latestVersion = cube.getGameVersionCount() - 1;
 
         // Since we're only returning top characters (for the front page) , we only need global stats
-        RegionalCharacterWinrateDTO masterRanks = new RegionalCharacterWinrateDTO(masterRankStats, new HashMap<>());
-        RegionalCharacterWinrateDTO highRank = new RegionalCharacterWinrateDTO(advancedRankStats, new HashMap<>());
-        RegionalCharacterWinrateDTO mediumRank = new RegionalCharacterWinrateDTO(intermediateRankStats, new HashMap<>());
-        RegionalCharacterWinrateDTO lowRank = new RegionalCharacterWinrateDTO(beginnnerRankStats, new HashMap<>());
+        RegionalCharacterWinrateDTO masterRanks = new RegionalCharacterWinrateDTO(topWinrates(cube, latestVersion, MASTER_RANKS), new HashMap<>());
+        RegionalCharacterWinrateDTO highRank = new RegionalCharacterWinrateDTO(topWinrates(cube, latestVersion, ADVANCED_RANKS), new HashMap<>());
+        RegionalCharacterWinrateDTO mediumRank = new RegionalCharacterWinrateDTO(topWinrates(cube, latestVersion, INTERMEDIATE_RANKS), new HashMap<>());
+        RegionalCharacterWinrateDTO lowRank = new RegionalCharacterWinrateDTO(topWinrates(cube, latestVersion, BEGINNER_RANKS), new HashMap<>());
         return new CharacterWinratesDTO(masterRanks,highRank, mediumRank, lowRank);
     }
 
     public Optional<List<Integer>> getGameVersions() {
-        return aggregatedStatisticsRepository.getGameVersions();
+        StatisticsCube cube = statisticsCubeService.getCube();
+        List<Integer> gameVersions = new ArrayList<>(cube.getGameVersionCount());
+        for (int version = 0; version < cube.getGameVersionCount(); version++) {
+            gameVersions.add(cube.getGameVersion(version));
+        }
+        return Optional.of(gameVersions);
     }
 
     public Map<Integer, RankDistributionDTO> getAllRankDistributions() {
-        Optional<List<Integer>> gameVersions = aggregatedStatisticsRepository.getGameVersions();
-        List<RankDistributionProjection> distributions = aggregatedStatisticsRepository.getAllRankDistributions(gameVersions.get());
+        StatisticsCube cube = statisticsCubeService.getCube();
         Map<Integer, RankDistributionDTO> result = new TreeMap<>(Collections.reverseOrder());
 
-        distributions.forEach(dist -> {
-            result.computeIfAbsent(dist.getGameVersion(), k -> new RankDistributionDTO())
-                    .addDistribution(dist.getCategory(),
-                            new RankDistributionEntry(dist.getRank(), dist.getPercentage()));
-        });
+        for (int version = 0; version < cube.getGameVersionCount(); version++) {
+            addRankDistribution(result, cube, version, StatisticsCube.OVERALL, OVERALL_CATEGORY);
+            addRankDistribution(result, cube, version, StatisticsCube.STANDARD, STANDARD_CATEGORY);
+        }
         return result;
     }
 
+    private void addRankDistribution(Map<Integer, RankDistributionDTO> result, StatisticsCube cube,
+                                     int version, int category, String categoryName) {
+        int lastDan = cube.getDanRankCount() - 1;
+        long totalPlayers = cube.sum(Measure.PLAYERS, version, StatisticsCube.ALL, 0, lastDan, StatisticsCube.ALL, category);
+        for (int dan = 0; dan <= lastDan; dan++) {
+            if (!cube.isPresent(version, StatisticsCube.ALL, dan, dan, StatisticsCube.ALL, category)) continue;
+            long players = cube.sum(Measure.PLAYERS, version, StatisticsCube.ALL, dan, dan, StatisticsCube.ALL, category);
+            double percentage = totalPlayers > 0 ? (players * 100.0) / totalPlayers : 0.0;
+            result.computeIfAbsent(cube.getGameVersion(version), k -> new RankDistributionDTO())
+                    .addDistribution(categoryName, new RankDistributionEntry(dan, percentage));
+        }
+    }
+
     public Map<String, List<RankWinrateChangesDTO>> getHomePageWinrateChanges() {
         List<WinrateChangesProjection> projections = aggregatedStatisticsRepository.getWinrateChanges();
         List<RankWinrateChangesDTO> changes = projections.stream()
@@ -223,25 +205,49 @@ public class StatisticsService {
     }
 
 
-    private Map<String, Long> processTopStats(List<CharacterAnalyticsProjection> stats) {
-        if (stats == null) return new HashMap<>();
-        return stats.stream().collect(Collectors.toMap(
-                stat -> TekkenDataMapperUtils.getCharacterName(stat.getCharacterId()),
-                CharacterAnalyticsProjection::getTotalBattles
-        ));
-    }
-    private Map<String, Double> processTopWinrates(List<CharacterAnalyticsProjection> stats) {
-        if (stats == null) return new HashMap<>();
-        return stats.stream().collect(Collectors.toMap(
-                stat -> TekkenDataMapperUtils.getCharacterName(stat.getCharacterId()),
-                CharacterAnalyticsProjection::getWinratePercentage
-        ));
+    private Map<String, Long> topPopularity(StatisticsCube cube, int version, RankRange ranks) {
+        if (version < 0) return new HashMap<>();
+        long[] replays = new long[cube.getCharacterCount()];
+        List<Integer> played = new ArrayList<>();
+        for (int character = 0; character < cube.getCharacterCount(); character++) {
+            replays[character] = cube.sum(Measure.REPLAYS, version, character,
+                    ranks.from(), ranks.to(), StatisticsCube.ALL, StatisticsCube.STANDARD);
+            if (replays[character] > 0) played.add(character);
+        }
+        played.sort(Comparator.comparingLong((Integer character) -> replays[character]).reversed());
+
+        Map<String, Long> top = new HashMap<>();
+        for (int character : played.subList(0, Math.min(TOP_CHARACTERS, played.size()))) {
+            top.put(TekkenDataMapperUtils.getCharacterName(cube.getCharacterId(character)), replays[character]);
+        }
+        return top;
     }
 
-    private double calculateWinrate(CharacterWinrateProjection stat) {
-        long totalMatches = stat.getTotalWins() + stat.getTotalLosses();
-        return totalMatches > 0
-                ? (stat.getTotalWins() * 100.0) / totalMatches
-                : 0.0;
+    private Map<String, Double> topWinrates(StatisticsCube cube, int version, RankRange ranks) {
+        if (version < 0) return new HashMap<>();
+        long[] wins = new long[cube.getCharacterCount()];
+        long[] matches = new long[cube.getCharacterCount()];
+        List<Integer> played = new ArrayList<>();
+        for (int character = 0; character < cube.getCharacterCount(); character++) {
+            wins[character] = cube.sum(Measure.WINS, version, character,
+                    ranks.from(), ranks.to(), StatisticsCube.ALL, StatisticsCube.STANDARD);
+            matches[character] = wins[character] + cube.sum(Measure.LOSSES, version, character,
+                    ranks.from(), ranks.to(), StatisticsCube.ALL, StatisticsCube.STANDARD);
+            if (matches[character] > 0) played.add(character);
+        }
+        played.sort(Comparator.comparingDouble((Integer character) -> (double) wins[character] / matches[character]).reversed());
+
+        Map<String, Double> top = new HashMap<>();
+        for (int character : played.subList(0, Math.min(TOP_CHARACTERS, played.size()))) {
+            // Rounded half up to two decimals from the exact ratio, as the front page has always shown it
+            double winrate = BigDecimal.valueOf(wins[character] * 100)
+                    .divide(BigDecimal.valueOf(matches[character]), 2, RoundingMode.HALF_UP)
+                    .doubleValue();
+            top.put(TekkenDataMapperUtils.getCharacterName(cube.getCharacterId(character)), winrate);
+        }
+        return top;
     }
+
+    // Dan rank bounds of a rank category, both inclusive
+    private record RankRange(int from, int to) {}
 }
\ No newline at end of file
@@ -0,0 +1,226 @@
+package org.ewgf.services;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
+import org.ewgf.models.Battle;
+import org.ewgf.utils.RequestRateLimiter;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+@Slf4j
+@Service
+public class WavuApiClient {
+
+    private final HttpClient wavuHttpClient;
+    private final ExecutorService wavuClientExecutor;
+    private final ObjectMapper objectMapper;
+    private final RequestRateLimiter wavuRateLimiter;
+    private final ObjectReader battleReader;
+    private final String wavuApiUrl;
+    private final int chunkSize;
+    private final Duration requestTimeout;
+    private final long exchangeTimeoutMillis;
+    private final long hedgeDelayMillis;
+
+    public WavuApiClient(
+            HttpClient wavuHttpClient,
+            @Qualifier("wavuClientThreadExecutor") ExecutorService wavuClientExecutor,
+            ObjectMapper objectMapper,
+            RequestRateLimiter wavuRateLimiter,
+            @Value("${wavu.api}") String wavuApiUrl,
+            @Value("${wavu.stream.chunk-size}") int chunkSize,
+            @Value("${wavu.client.request-timeout-millis}") long requestTimeoutMillis,
+            @Value("${wavu.client.exchange-timeout-millis}") long exchangeTimeoutMillis,
+            @Value("${wavu.client.hedge-delay-millis}") long hedgeDelayMillis) {
+        this.wavuHttpClient = wavuHttpClient;
+        this.wavuClientExecutor = wavuClientExecutor;
+        this.objectMapper = objectMapper;
+        this.wavuRateLimiter = wavuRateLimiter;
+        this.battleReader = objectMapper.readerFor(Battle.class);
+        this.wavuApiUrl = wavuApiUrl;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.exchangeTimeoutMillis = exchangeTimeoutMillis;
+        this.hedgeDelayMillis = hedgeDelayMillis;
+    }
+
+    // Parses the response one battle at a time and hands them to chunkConsumer in groups of chunkSize,
+    // so only a single chunk is held in memory and the first chunk is published before the body is fully read.
+    // A failure part way through leaves the earlier chunks published; the battle insert ignores duplicates on retry.
+    // The request timeout only covers the response headers, so the whole exchange is bounded separately and the
+    // response body is closed when it runs out, which ends a read stalled on a body that stopped arriving.
+    // A read still running at that point hands on no further chunks, since the caller already counts the request as failed.
+    public CompletableFuture<WavuFetchSummaryDTO> streamBattlesAsync(long before, Consumer<List<Battle>> chunkConsumer) {
+        String url = UriComponentsBuilder.fromUriString(wavuApiUrl)
+                .queryParam("before", before)
+                .toUriString();
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                .timeout(requestTimeout)
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .GET()
+                .build();
+
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        Consumer<List<Battle>> guardedConsumer = chunk -> {
+            if (timedOut.get()) throw new CancellationException("Wavu request " + request.uri() + " timed out");
+            chunkConsumer.accept(chunk);
+        };
+
+        CompletableFuture<HttpResponse<InputStream>> response = sendHedged(request);
+        CompletableFuture<WavuFetchSummaryDTO> exchange = response
+                .thenApplyAsync(r -> readBattles(r, guardedConsumer), wavuClientExecutor)
+                .orTimeout(exchangeTimeoutMillis, TimeUnit.MILLISECONDS);
+        exchange.whenComplete((summary, error) -> {
+            if (error instanceof TimeoutException) {
+                timedOut.set(true);
+                log.warn("Wavu request {} did not complete within {} ms, closing the response", request.uri(), exchangeTimeoutMillis);
+                response.thenAccept(this::discard);
+            }
+        });
+        return exchange;
+    }
+
+    public WavuFetchSummaryDTO streamBattles(long before, Consumer<List<Battle>> chunkConsumer) {
+        try {
+            return streamBattlesAsync(before, chunkConsumer).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Only the response headers are raced. Once one of the requests has answered, its body is parsed and the
+    // other response is closed unread, so chunks are never published twice for the same request.
+    // If the first request fails before the hedge delay, the hedge acts as a single retry.
+    // The hedge needs its own permit from the shared rate limiter and is skipped when none is free, so a slow Wavu
+    // never gets more requests than the configured rate and the backpressure controller allow.
+    private CompletableFuture<HttpResponse<InputStream>> sendHedged(HttpRequest request) {
+        CompletableFuture<HttpResponse<InputStream>> primary = send(request);
+        if (hedgeDelayMillis <= 0) return primary;
+
+        CompletableFuture<HttpResponse<InputStream>> hedge = CompletableFuture
+                .runAsync(() -> {}, CompletableFuture.delayedExecutor(hedgeDelayMillis, TimeUnit.MILLISECONDS, wavuClientExecutor))
+                .thenCompose(ignored -> {
+                    if (primary.isDone() && !primary.isCompletedExceptionally()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    if (!wavuRateLimiter.tryAcquire()) {
+                        log.debug("Wavu request {} has not answered after {} ms, no permit left for a hedge", request.uri(), hedgeDelayMillis);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    log.debug("Wavu request {} has not answered after {} ms, sending hedge", request.uri(), hedgeDelayMillis);
+                    return send(request);
+                });
+
+        CompletableFuture<HttpResponse<InputStream>> winner = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(2);
+        AtomicReference<Throwable> lastError = new AtomicReference<>();
+
+        BiConsumer<HttpResponse<InputStream>, Throwable> onComplete = (response, error) -> {
+            if (response != null) {
+                if (!winner.complete(response)) discard(response);
+                return;
+            }
+            if (error != null) lastError.set(error);
+            if (outstanding.decrementAndGet() == 0) {
+                Throwable cause = lastError.get();
+                winner.completeExceptionally(cause != null ? cause : new IllegalStateException("No response from Wavu API"));
+            }
+        };
+        primary.whenComplete(onComplete);
+        hedge.whenComplete(onComplete);
+        return winner;
+    }
+
+    private CompletableFuture<HttpResponse<InputStream>> send(HttpRequest request) {
+        return wavuHttpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private WavuFetchSummaryDTO readBattles(HttpResponse<InputStream> response, Consumer<List<Battle>> chunkConsumer) {
+        if (response.statusCode() < 200 || response.statusCode() >= 300) {
+            discard(response);
+            throw new RuntimeException("API request failed with status: " + response.statusCode());
+        }
+
+        int battleCount = 0;
+        long oldestBattleAt = Long.MAX_VALUE;
+        long newestBattleAt = Long.MIN_VALUE;
+
+        try (InputStream body = decode(response);
+             JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            JsonToken token = parser.nextToken();
+            if (token == null || token == JsonToken.VALUE_NULL) {
+                return new WavuFetchSummaryDTO(0, oldestBattleAt, newestBattleAt);
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new IOException("Expected a JSON array from Wavu API but got " + token);
+            }
+
+            List<Battle> chunk = new ArrayList<>(chunkSize);
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Battle battle = battleReader.readValue(parser);
+                chunk.add(battle);
+                battleCount++;
+                oldestBattleAt = Math.min(oldestBattleAt, battle.getBattleAt());
+                newestBattleAt = Math.max(newestBattleAt, battle.getBattleAt());
+
+                if (chunk.size() == chunkSize) {
+                    chunkConsumer.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+
+            if (!chunk.isEmpty()) {
+                chunkConsumer.accept(chunk);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read Wavu API response", e);
+        }
+
+        return new WavuFetchSummaryDTO(battleCount, oldestBattleAt, newestBattleAt);
+    }
+
+    private InputStream decode(HttpResponse<InputStream> response) throws IOException {
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("");
+        return "gzip".equalsIgnoreCase(encoding) ? new GZIPInputStream(response.body()) : response.body();
+    }
+
+    private void discard(HttpResponse<InputStream> response) {
+        try {
+            response.body().close();
+        } catch (IOException e) {
+            log.debug("Failed to close discarded Wavu response: {}", e.getMessage());
+        }
+    }
+}
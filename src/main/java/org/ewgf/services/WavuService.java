@@ -1,32 +1,34 @@
 package org.ewgf.services;
 
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.ewgf.utils.DateTimeUtils;
 import org.ewgf.utils.EventPublisherUtils;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.ewgf.utils.LiveTailPacer;
+import org.ewgf.utils.RequestRateLimiter;
 import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.ParameterizedTypeReference;
-import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
-import org.springframework.web.util.UriComponentsBuilder;
 import org.ewgf.configuration.BackpressureManager;
-import org.ewgf.configuration.RabbitMQConfig;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
 import org.ewgf.models.Battle;
+import org.ewgf.models.IngestionCursor;
 import org.ewgf.repositories.BattleRepository;
+import org.ewgf.repositories.IngestionCursorRepository;
 import org.ewgf.repositories.TekkenStatsSummaryRepository;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ScheduledFuture;
 
-import static org.ewgf.utils.Constants.TIMESTAMP_HEADER;
 
 @Slf4j
 @Service
@@ -36,49 +38,76 @@ public class WavuService implements InitializingBean, DisposableBean {
     private static final int BACKPRESSURE_CHECK_DELAY_MILLIS = 60000; // 1 minute
     private static final int NEW_REPLAYS_DELAY_MILLIS = 30000;// 30 seconds
     private static final int NEW_REPLAYS_DELAY_SECONDS = 30;
-    private static final int TIME_STEP = 700;
-    private static final int TIME_STEP_OVERLAP = 60; // Overlap to ensure no battles are missed
+    private static final String MAIN_CURSOR_NAME = "wavu-main";
     private static long OLDEST_HISTORICAL_TIMESTAMP = 1711548580L;
 
-    private final RabbitTemplate rabbitTemplate;
-    private final RabbitMQConfig rabbitMQConfig;
+    private final BattleTransport battleTransport;
     private final BackpressureManager backpressureManager;
-    private final RestTemplate restTemplate;
+    private final WavuApiClient wavuApiClient;
+    private final AdaptiveWindowSizer adaptiveWindowSizer;
+    private final BattleCoverageService battleCoverageService;
+    private final RequestRateLimiter wavuRateLimiter;
+    private final HistoricalBackfillService historicalBackfillService;
     private final BattleRepository battleRepository;
+    private final IngestionCursorRepository ingestionCursorRepository;
     private final TaskScheduler taskScheduler;
     private final TekkenStatsSummaryRepository tekkenStatsSummaryRepository;
     private final EventPublisherUtils eventPublisherUtils;
+    private final int maxInFlight;
+    private final boolean liveTailEnabled;
+    private final LiveTailPacer liveTailPacer;
 
     private ScheduledFuture<?> scheduledTask;
     private boolean isFetchingNewReplays = false;
     private long currentFetchTimestamp;
     private long newestBattleTimestampInDatabase;
+    private long fetchUpperBound; // timestamp the current backwards walk started from
     private boolean currentFetchIsBelowNewestBattleInDatabase = false;
-
-    @Value("${wavu.api}")
-    private String wavuApiUrl;
+    private volatile long newestBattleSeen = 0; // newest battle_at published by the live tail
 
     @Value("${spring.profiles.active:}")
     private String activeProfile;
 
     public WavuService(
-            RabbitTemplate rabbitTemplate,
+            BattleTransport battleTransport,
             BackpressureManager backpressureManager,
-            RestTemplate restTemplate,
+            WavuApiClient wavuApiClient,
+            AdaptiveWindowSizer adaptiveWindowSizer,
+            BattleCoverageService battleCoverageService,
+            RequestRateLimiter wavuRateLimiter,
+            HistoricalBackfillService historicalBackfillService,
             BattleRepository battleRepository,
+            IngestionCursorRepository ingestionCursorRepository,
             TaskScheduler taskScheduler,
             TekkenStatsSummaryRepository tekkenStatsSummaryRepository,
-            RabbitMQConfig rabbitMQConfig,
-            EventPublisherUtils eventPublisherUtils
+            EventPublisherUtils eventPublisherUtils,
+            MeterRegistry meterRegistry,
+            @Value("${wavu.client.max-in-flight}") int maxInFlight,
+            @Value("${wavu.live-tail.enabled}") boolean liveTailEnabled,
+            @Value("${wavu.live-tail.min-interval-millis}") long liveTailMinIntervalMillis,
+            @Value("${wavu.live-tail.max-interval-millis}") long liveTailMaxIntervalMillis
     ) {
-        this.rabbitTemplate = rabbitTemplate;
+        this.battleTransport = battleTransport;
         this.backpressureManager = backpressureManager;
-        this.restTemplate = restTemplate;
+        this.wavuApiClient = wavuApiClient;
+        this.adaptiveWindowSizer = adaptiveWindowSizer;
+        this.battleCoverageService = battleCoverageService;
+        this.wavuRateLimiter = wavuRateLimiter;
+        this.historicalBackfillService = historicalBackfillService;
         this.battleRepository = battleRepository;
+        this.ingestionCursorRepository = ingestionCursorRepository;
         this.taskScheduler = taskScheduler;
         this.tekkenStatsSummaryRepository = tekkenStatsSummaryRepository;
-        this.rabbitMQConfig = rabbitMQConfig;
         this.eventPublisherUtils = eventPublisherUtils;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.liveTailEnabled = liveTailEnabled;
+        this.liveTailPacer = new LiveTailPacer(liveTailMinIntervalMillis, liveTailMaxIntervalMillis);
+
+        Gauge.builder("wavu.live.lag.seconds", this, service -> service.newestBattleSeen == 0
+                        ? Double.NaN
+                        : Instant.now().getEpochSecond() - service.newestBattleSeen)
+                .description("Age of the newest battle published by the live tail")
+                .register(meterRegistry);
     }
 
     @Override
@@ -96,48 +125,82 @@ public class WavuService implements InitializingBean, DisposableBean {
 
     private void initializeService() {
         try {
-            Optional<Battle> oldestBattleInDatabase = battleRepository.findOldestRankedBattle();
-            Optional<Battle> newestBattleInDatabase = battleRepository.findNewestRankedBattle();
             checkIfActiveProfileIsDev(activeProfile);
+            Optional<IngestionCursor> cursor = ingestionCursorRepository.findById(MAIN_CURSOR_NAME);
 
-            if (oldestBattleInDatabase.isPresent() && newestBattleInDatabase.isPresent() && isDatabaseFullyPreloaded(oldestBattleInDatabase)) {
-                initializeForPreloadedDatabase(newestBattleInDatabase.get());
-            } else if (oldestBattleInDatabase.isPresent()) {
-                initializeForPartiallyLoadedDatabase(oldestBattleInDatabase.get());
+            if (cursor.isPresent()) {
+                initializeFromCursor(cursor.get());
             } else {
-                initializeForEmptyDatabase();
+                initializeFromBattleTable();
             }
+            persistCursor();
         } catch (Exception e) {
             log.error("Error initializing WavuService: {}", e.getMessage());
             System.exit(-1);
         }
     }
 
+    private void initializeFromCursor(IngestionCursor cursor) {
+        if (cursor.isFetchingNewReplays()) {
+            // Restart the interrupted cycle from now, everything at or below the lower bound is already ingested
+            isFetchingNewReplays = true;
+            newestBattleTimestampInDatabase = cursor.getLowerBound();
+            currentFetchTimestamp = Instant.now().getEpochSecond();
+            fetchUpperBound = currentFetchTimestamp;
+            log.info("Resuming forward fetching from ingestion cursor. Newest ingested timestamp: {} ({})",
+                    newestBattleTimestampInDatabase, DateTimeUtils.toReadableTime(newestBattleTimestampInDatabase));
+        } else {
+            currentFetchTimestamp = cursor.getFetchTimestamp();
+            fetchUpperBound = cursor.getUpperBound();
+            log.info("Resuming historical fetching from ingestion cursor at: {} ({})",
+                    currentFetchTimestamp, DateTimeUtils.toReadableTime(currentFetchTimestamp));
+        }
+    }
+
+    // Only used the first time the service starts against a database without an ingestion cursor
+    private void initializeFromBattleTable() {
+        Optional<Battle> oldestBattleInDatabase = battleRepository.findOldestRankedBattle();
+        Optional<Battle> newestBattleInDatabase = battleRepository.findNewestRankedBattle();
+
+        if (oldestBattleInDatabase.isPresent() && newestBattleInDatabase.isPresent() && isDatabaseFullyPreloaded(oldestBattleInDatabase)) {
+            initializeForPreloadedDatabase(newestBattleInDatabase.get());
+        } else if (oldestBattleInDatabase.isPresent()) {
+            initializeForPartiallyLoadedDatabase(oldestBattleInDatabase.get(), newestBattleInDatabase);
+        } else {
+            initializeForEmptyDatabase();
+        }
+    }
+
     private void fetchReplays() {
         if (handleBackpressure()) return;
 
-        if (isFetchingNewReplays) {
+        if (isFetchingNewReplays && liveTailEnabled) {
+            tailNewReplays();
+            return;
+        } else if (isFetchingNewReplays) {
             fetchNewReplays();
+            if (Thread.currentThread().isInterrupted()) return;
 
             if (currentFetchIsBelowNewestBattleInDatabase) {
                 resetFetchStateForNewReplays();
                 return;
             }
+        } else if (historicalBackfillService.isPartitionedBackfillEnabled()) {
+            startPartitionedBackfill();
+            return;
         } else {
             fetchHistoricalReplays();
         }
+        // Interrupted by shutdown part way through a fetch, so the loop ends here instead of scheduling another one
+        if (Thread.currentThread().isInterrupted()) return;
         scheduleNextExecution(DEFAULT_FETCH_INTERVAL_MILLIS);
     }
 
+    // Queue pressure only slows the shared rate limiter down, fetching stops outright just for a manual pause
     private boolean handleBackpressure() {
-        if (backpressureManager.isBackpressureActive()) {
-            if (backpressureManager.isManuallyActivated()) {
-                log.warn("MESSAGE RETRIEVAL HAS BEEN MANUALLY PAUSED.");
-                scheduleNextExecution(BACKPRESSURE_CHECK_DELAY_MILLIS);
-                return true;
-            }
-            log.warn("BACKPRESSURE ACTIVE: MESSAGE RETRIEVAL IS STOPPED");
-            scheduleNextExecution(1200L * backpressureManager.getSlowdownFactor());
+        if (backpressureManager.isManuallyActivated()) {
+            log.warn("MESSAGE RETRIEVAL HAS BEEN MANUALLY PAUSED.");
+            scheduleNextExecution(BACKPRESSURE_CHECK_DELAY_MILLIS);
             return true;
         }
         return false;
@@ -149,14 +212,77 @@ public class WavuService implements InitializingBean, DisposableBean {
         log.info("Fetching battles before timestamp: {} UTC, Unix: {}", readableTimestamp, currentFetchTimestamp);
 
         try {
-            List<Battle> response = fetchBattlesFromApi(currentFetchTimestamp);
-            processApiResponse(response, readableTimestamp);
-            currentFetchTimestamp -= (TIME_STEP - TIME_STEP_OVERLAP);
+            fetchWindowsInFlight(newestBattleTimestampInDatabase);
+            persistCursor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Error fetching new replays: {}", e.getMessage());
         }
     }
 
+    // Moves forward from the newest covered timestamp instead of walking back from now every cycle.
+    // Each request asks for the window ending one window after the tail, or ending now once caught up,
+    // so the span since the last request is always covered and late replays fall inside the next window.
+    private void tailNewReplays() {
+        long tailFrom = newestBattleTimestampInDatabase;
+        long before = Math.min(Instant.now().getEpochSecond(), tailFrom + adaptiveWindowSizer.getMaxWindowSeconds());
+        boolean foundNewBattles = false;
+
+        try {
+            wavuRateLimiter.acquire();
+            WavuFetchSummaryDTO summary = fetchAndPublishWindow(before);
+            foundNewBattles = summary.getNewestBattleAt() > tailFrom;
+            if (foundNewBattles) newestBattleSeen = Math.max(newestBattleSeen, summary.getNewestBattleAt());
+
+            // A truncated response only reaches down to its oldest battle, walk back until it meets the tail
+            long gapBefore = before;
+            while (adaptiveWindowSizer.isTruncated(summary) && summary.getOldestBattleAt() > tailFrom) {
+                gapBefore = adaptiveWindowSizer.nextBefore(gapBefore, summary);
+                wavuRateLimiter.acquire();
+                summary = fetchAndPublishWindow(gapBefore);
+            }
+
+            newestBattleTimestampInDatabase = before;
+            currentFetchTimestamp = before;
+            fetchUpperBound = before;
+            persistCursor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Exception e) {
+            log.error("Error tailing new replays after {}: {}", tailFrom, e.getMessage());
+        }
+
+        boolean behind = newestBattleTimestampInDatabase < Instant.now().getEpochSecond() - adaptiveWindowSizer.getMaxWindowSeconds();
+        scheduleNextExecution(liveTailPacer.nextDelayMillis(behind, foundNewBattles));
+    }
+
+    private WavuFetchSummaryDTO fetchAndPublishWindow(long before) {
+        try {
+            return fetchAndPublishWindowAsync(before).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) throw runtimeException;
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    // Completes once Wavu has answered and the broker has confirmed every batch published from the response,
+    // and fails if either did not happen, so a window is only treated as done when its battles are safely queued
+    private CompletableFuture<WavuFetchSummaryDTO> fetchAndPublishWindowAsync(long before) {
+        String readableTimestamp = DateTimeUtils.toReadableTime(before) + " UTC";
+        BattleCoverageService.CoverageTally tally = battleCoverageService.newTally();
+        BattleTransport.PublishConfirmations confirmations = battleTransport.newPublishConfirmations();
+        return wavuApiClient.streamBattlesAsync(before, chunk -> {
+                    tally.count(chunk);
+                    confirmations.add(battleTransport.sendBattles(chunk, readableTimestamp));
+                })
+                .thenCompose(summary -> confirmations.allConfirmed().thenApply(ignored -> summary))
+                .whenComplete((summary, throwable) -> {
+                    if (summary != null) battleCoverageService.recordReported(before, tally, summary);
+                });
+    }
+
     private void checkIfFetchTimestampBelowNewestBattle() {
         if (currentFetchTimestamp < newestBattleTimestampInDatabase) {
             log.info("Current fetch timestamp {} ({}) is below newest database timestamp {} ({})",
@@ -173,80 +299,113 @@ public class WavuService implements InitializingBean, DisposableBean {
             String readableTimestamp = DateTimeUtils.toReadableTime(currentFetchTimestamp);
             log.info("Fetching historical battles before: {} UTC (Unix: {})", readableTimestamp, currentFetchTimestamp);
 
-            List<Battle> response = fetchBattlesFromApi(currentFetchTimestamp);
-            processApiResponse(response, readableTimestamp);
-
-            currentFetchTimestamp -= (TIME_STEP - TIME_STEP_OVERLAP); // Overlap to ensure no battles are missed
+            fetchWindowsInFlight(OLDEST_HISTORICAL_TIMESTAMP);
+            persistCursor();
 
             if (currentFetchTimestamp < OLDEST_HISTORICAL_TIMESTAMP) {
                 log.info("Timestamp {} below oldest historical timestamp {}. Switching to forward fetching",
                         currentFetchTimestamp, OLDEST_HISTORICAL_TIMESTAMP);
                 switchToFetchingNewReplays();
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("Error fetching historical replays: {}", e.getMessage());
         }
     }
 
-    private List<Battle> fetchBattlesFromApi(long timestamp) {
-        String url = UriComponentsBuilder.fromUriString(wavuApiUrl)
-                .queryParam("before", timestamp)
-                .toUriString();
+    private void startPartitionedBackfill() {
+        historicalBackfillService.runBackfill(currentFetchTimestamp, OLDEST_HISTORICAL_TIMESTAMP)
+                .whenComplete((ignored, throwable) -> {
+                    if (throwable != null) {
+                        log.error("Partitioned backfill failed, retrying in {} ms: {}",
+                                BACKPRESSURE_CHECK_DELAY_MILLIS, throwable.getMessage());
+                        scheduleNextExecution(BACKPRESSURE_CHECK_DELAY_MILLIS);
+                        return;
+                    }
+                    log.info("Partitioned backfill reached oldest historical timestamp {}. Switching to forward fetching",
+                            OLDEST_HISTORICAL_TIMESTAMP);
+                    switchToFetchingNewReplays();
+                    scheduleNextExecution(DEFAULT_FETCH_INTERVAL_MILLIS);
+                });
+    }
 
-        ResponseEntity<List<Battle>> response = restTemplate.exchange(
-                url,
-                HttpMethod.GET,
-                null,
-                new ParameterizedTypeReference<>() {}
-        );
+    // Requests up to maxInFlight consecutive windows at once, placing each one as if the window before it
+    // is not truncated. The cursor only moves past windows that completed untruncated and were confirmed by the
+    // broker, so a failed, unconfirmed or truncated
+    // window is picked up again from where it stopped on the next run. Windows past it were already published
+    // and their battles are dropped as duplicates when fetched again.
+    private void fetchWindowsInFlight(long stopAt) throws InterruptedException {
+        List<Long> windows = new ArrayList<>(maxInFlight);
+        long before = currentFetchTimestamp;
+        do {
+            windows.add(before);
+            before = adaptiveWindowSizer.predictNextBefore(before);
+        } while (windows.size() < maxInFlight && before > stopAt);
 
-        if (!response.getStatusCode().is2xxSuccessful())
-            throw new RuntimeException("API request failed with status: " + response.getStatusCode());
+        long startTime = System.currentTimeMillis();
+        List<CompletableFuture<WavuFetchSummaryDTO>> responses = new ArrayList<>(windows.size());
+        for (long windowBefore : windows) {
+            wavuRateLimiter.acquire();
+            responses.add(fetchAndPublishWindowAsync(windowBefore));
+        }
+        // Let every request and its publisher confirms settle before moving the cursor, failed ones are handled below
+        CompletableFuture.allOf(responses.toArray(CompletableFuture[]::new))
+                .exceptionally(ignored -> null)
+                .join();
+
+        int battleCount = 0;
+        for (int i = 0; i < windows.size(); i++) {
+            long windowBefore = windows.get(i);
+            WavuFetchSummaryDTO summary;
+            try {
+                summary = responses.get(i).join();
+            } catch (CompletionException e) {
+                log.error("Error fetching battles before {}: {}", windowBefore, e.getCause().getMessage());
+                currentFetchTimestamp = windowBefore;
+                break;
+            }
+
+            battleCount += summary.getBattleCount();
+            currentFetchTimestamp = adaptiveWindowSizer.nextBefore(windowBefore, summary);
+            if (adaptiveWindowSizer.isTruncated(summary)) break;
+        }
 
-        return response.getBody();
+        log.debug("Fetched and published {} battles from {} Wavu windows in {} ms",
+                battleCount, windows.size(), (System.currentTimeMillis() - startTime));
     }
 
     private void switchToFetchingNewReplays() {
         eventPublisherUtils.publishEventForAllGameVersions();
 
-        newestBattleTimestampInDatabase = battleRepository.findNewestRankedBattle()
-                .map(Battle::getBattleAt)
-                .orElse(Instant.now().getEpochSecond());
+        // The historical walk covered everything up to where it started
+        newestBattleTimestampInDatabase = fetchUpperBound;
 
         currentFetchTimestamp = Instant.now().getEpochSecond();
+        fetchUpperBound = currentFetchTimestamp;
         log.info("Database preload complete! Fetching forward starting at: {}", currentFetchTimestamp);
         isFetchingNewReplays = true;
-    }
-
-    private void processApiResponse(List<Battle> battles, String readableTimestamp) {
-        if (battles == null || battles.isEmpty()) return;
-
-        log.debug("Received response from Wavu API");
-        long startTime = System.currentTimeMillis();
-        sendToRabbitMQ(battles, readableTimestamp + " UTC");
-        log.debug("Sending data to RabbitMQ took {} ms", (System.currentTimeMillis() - startTime));
-    }
-
-    void sendToRabbitMQ(List<Battle> battles, String dateAndTime) {
-        rabbitTemplate.convertAndSend(
-                rabbitMQConfig.getExchangeName(),
-                rabbitMQConfig.getRoutingKey(),
-                battles,
-                msg -> {
-                    msg.getMessageProperties()
-                            .setHeader(TIMESTAMP_HEADER, dateAndTime);
-                    return msg;
-                }
-        );
+        persistCursor();
     }
 
     private void resetFetchStateForNewReplays() {
         currentFetchIsBelowNewestBattleInDatabase = false;
         scheduleNextExecution(NEW_REPLAYS_DELAY_MILLIS);
+        // The cycle that just finished covered everything up to where it started
+        newestBattleTimestampInDatabase = fetchUpperBound;
         currentFetchTimestamp = Instant.now().getEpochSecond() + NEW_REPLAYS_DELAY_SECONDS;
-        newestBattleTimestampInDatabase = battleRepository.findNewestRankedBattle()
-                .map(Battle::getBattleAt)
-                .orElse(Instant.now().getEpochSecond());
+        fetchUpperBound = currentFetchTimestamp;
+        persistCursor();
+    }
+
+    private void persistCursor() {
+        try {
+            long lowerBound = isFetchingNewReplays ? newestBattleTimestampInDatabase : OLDEST_HISTORICAL_TIMESTAMP;
+            ingestionCursorRepository.upsertCursor(
+                    MAIN_CURSOR_NAME, currentFetchTimestamp, lowerBound, fetchUpperBound, isFetchingNewReplays);
+        } catch (Exception e) {
+            log.error("Failed to persist ingestion cursor at {}: {}", currentFetchTimestamp, e.getMessage());
+        }
     }
 
     private boolean isDatabaseFullyPreloaded(Optional<Battle> oldestBattle) {
@@ -259,16 +418,19 @@ public class WavuService implements InitializingBean, DisposableBean {
         log.info("Database is preloaded. Fetching new battles.");
         newestBattleTimestampInDatabase = newestBattle.getBattleAt();
         currentFetchTimestamp = Instant.now().getEpochSecond();
+        fetchUpperBound = currentFetchTimestamp;
     }
 
-    private void initializeForPartiallyLoadedDatabase(Battle oldestBattle) {
+    private void initializeForPartiallyLoadedDatabase(Battle oldestBattle, Optional<Battle> newestBattle) {
         currentFetchTimestamp = oldestBattle.getBattleAt();
+        fetchUpperBound = newestBattle.map(Battle::getBattleAt).orElse(currentFetchTimestamp);
         log.info("Continuing historical data fetching, starting at: {}", currentFetchTimestamp);
     }
 
     private void initializeForEmptyDatabase() {
         tekkenStatsSummaryRepository.initializeStatsSummaryTable();
         currentFetchTimestamp = Instant.now().getEpochSecond();
+        fetchUpperBound = currentFetchTimestamp;
         log.info("No battles found in database, using current timestamp: {}", currentFetchTimestamp);
     }
 
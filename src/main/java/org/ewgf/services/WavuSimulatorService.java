@@ -0,0 +1,305 @@
+package org.ewgf.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.models.Battle;
+import org.ewgf.models.BattleType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Stand-in for the Wavu replay API so the ingestion pipeline can be driven at a known rate without the real service.
+// Battles are derived from the seed and the second they happened in, so asking for the same 'before' twice returns
+// the same battles, like Wavu does, and refetches and duplicate handling behave as they would in production.
+@Slf4j
+@Service
+@Profile("wavu-sim")
+public class WavuSimulatorService {
+
+    private static final String ENUMS_RESOURCE = "tekken_enums.json";
+    private static final String MOCK_BATTLES_RESOURCE = "Mock Battle Data.json";
+    private static final int MAX_DAN_RANK = 29; // God of Destruction
+    private static final String[] LANGUAGES = {"en", "ja", "ko", "zh-tw", "fr", "de", "es", "ar", "ru"};
+    private static final String ID_CHARACTERS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+
+    public enum Source {
+        SYNTHETIC, MOCK
+    }
+
+    private final ObjectMapper objectMapper;
+    private final Source source;
+    private final long seed;
+    private final double battlesPerSecond;
+    private final double dailySwing;
+    private final int pageCap;
+    private final int windowSeconds;
+    private final int gameVersion;
+    private final int[] characterIds;
+    private final int[] stageIds;
+    private final List<SimulatedPlayer> playersByRank;
+    private final List<JsonNode> mockBattles;
+    private final Counter requestsServed;
+    private final Counter battlesServed;
+    private final Counter truncatedResponses;
+
+    public WavuSimulatorService(
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry,
+            @Value("${wavu.simulator.source}") Source source,
+            @Value("${wavu.simulator.seed}") long seed,
+            @Value("${wavu.simulator.battles-per-second}") double battlesPerSecond,
+            @Value("${wavu.simulator.daily-swing}") double dailySwing,
+            @Value("${wavu.simulator.players}") int players,
+            @Value("${wavu.simulator.page-cap}") int pageCap,
+            @Value("${wavu.simulator.game-version}") int gameVersion,
+            @Value("${wavu.window.max-seconds}") int windowSeconds) {
+        this.objectMapper = objectMapper;
+        this.source = source;
+        this.seed = seed;
+        this.battlesPerSecond = battlesPerSecond;
+        this.dailySwing = Math.max(0, Math.min(1, dailySwing));
+        this.pageCap = pageCap;
+        this.gameVersion = gameVersion;
+        this.windowSeconds = windowSeconds;
+
+        JsonNode enums = readResource(ENUMS_RESOURCE);
+        this.characterIds = numericKeys(enums.get("characters"));
+        this.stageIds = numericKeys(enums.get("stages"));
+        this.playersByRank = createPlayers(Math.max(2, players));
+        this.mockBattles = source == Source.MOCK ? readMockBattles() : List.of();
+
+        this.requestsServed = Counter.builder("wavu.simulator.requests")
+                .description("Replay requests answered by the Wavu simulator")
+                .register(meterRegistry);
+        this.battlesServed = Counter.builder("wavu.simulator.battles")
+                .description("Battles returned by the Wavu simulator")
+                .register(meterRegistry);
+        this.truncatedResponses = Counter.builder("wavu.simulator.truncated")
+                .description("Simulator responses cut off at the page cap")
+                .register(meterRegistry);
+
+        log.info("Wavu simulator serving {} battles at {} per second from {} players, page cap {}",
+                source, battlesPerSecond, playersByRank.size(), pageCap);
+    }
+
+    // Battles in (before - wavu.window.max-seconds, before], newest first and cut off at the page cap like the real API.
+    // Nothing is returned for seconds that have not happened yet.
+    public List<Battle> getBattlesBefore(long before) {
+        long newest = Math.min(before, Instant.now().getEpochSecond());
+        List<Battle> battles = new ArrayList<>();
+        for (long second = newest; second > before - windowSeconds; second--) {
+            generateSecond(second, battles);
+        }
+
+        battles.sort(Comparator.comparingLong(Battle::getBattleAt).reversed());
+        requestsServed.increment();
+        if (battles.size() > pageCap) {
+            truncatedResponses.increment();
+            battles = new ArrayList<>(battles.subList(0, pageCap));
+        }
+        battlesServed.increment(battles.size());
+        return battles;
+    }
+
+    private void generateSecond(long second, List<Battle> battles) {
+        SplittableRandom random = new SplittableRandom(mix(seed, second));
+        int count = poisson(random, rateAt(second));
+        for (int i = 0; i < count; i++) {
+            Battle battle = source == Source.MOCK
+                    ? fromMockBattle(random)
+                    : syntheticBattle(random);
+            battle.setBattleId(randomBattleId(random));
+            battle.setBattleAt(second);
+            battles.add(battle);
+        }
+    }
+
+    // Activity follows a daily cycle around the configured average, peaking in the evening UTC
+    private double rateAt(long second) {
+        double dayFraction = Math.floorMod(second, 86400L) / 86400.0;
+        return battlesPerSecond * (1 + dailySwing * Math.sin(2 * Math.PI * (dayFraction - 0.5)));
+    }
+
+    // Players are matched against someone close to them in rank, the way ranked matchmaking pairs them
+    private Battle syntheticBattle(SplittableRandom random) {
+        int p1Index = random.nextInt(playersByRank.size());
+        int offset = random.nextInt(1, 21) * (random.nextBoolean() ? 1 : -1);
+        int p2Index = Math.floorMod(p1Index + offset, playersByRank.size());
+        SimulatedPlayer p1 = playersByRank.get(p1Index);
+        SimulatedPlayer p2 = playersByRank.get(p2Index);
+
+        int winner = random.nextInt(1, 3);
+        int ratingChange = random.nextInt(5, 16);
+
+        Battle battle = new Battle();
+        battle.setBattleType(pickBattleType(random));
+        battle.setGameVersion(gameVersion);
+        battle.setStageId(stageIds[random.nextInt(stageIds.length)]);
+        battle.setWinner(winner);
+        applyPlayer1(battle, p1, pickCharacter(random, p1), winner == 1 ? 3 : random.nextInt(3),
+                winner == 1 ? ratingChange : -ratingChange);
+        applyPlayer2(battle, p2, pickCharacter(random, p2), winner == 2 ? 3 : random.nextInt(3),
+                winner == 2 ? ratingChange : -ratingChange);
+        return battle;
+    }
+
+    private Battle fromMockBattle(SplittableRandom random) {
+        JsonNode template = mockBattles.get(random.nextInt(mockBattles.size()));
+        try {
+            return objectMapper.treeToValue(template, Battle.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to copy mock battle", e);
+        }
+    }
+
+    private void applyPlayer1(Battle battle, SimulatedPlayer player, int characterId, int roundsWon, int ratingChange) {
+        battle.setPlayer1UserId(player.userId());
+        battle.setPlayer1PolarisId(player.polarisId());
+        battle.setPlayer1Name(player.name());
+        battle.setPlayer1CharacterId(characterId);
+        battle.setPlayer1DanRank(player.danRank());
+        battle.setPlayer1RatingBefore(player.rating());
+        battle.setPlayer1RatingChange(ratingChange);
+        battle.setPlayer1TekkenPower(player.tekkenPower());
+        battle.setPlayer1RegionId(player.regionId());
+        battle.setPlayer1Language(player.language());
+        battle.setPlayer1RoundsWon(roundsWon);
+    }
+
+    private void applyPlayer2(Battle battle, SimulatedPlayer player, int characterId, int roundsWon, int ratingChange) {
+        battle.setPlayer2UserId(player.userId());
+        battle.setPlayer2PolarisId(player.polarisId());
+        battle.setPlayer2Name(player.name());
+        battle.setPlayer2CharacterId(characterId);
+        battle.setPlayer2DanRank(player.danRank());
+        battle.setPlayer2RatingBefore(player.rating());
+        battle.setPlayer2RatingChange(ratingChange);
+        battle.setPlayer2TekkenPower(player.tekkenPower());
+        battle.setPlayer2RegionId(player.regionId());
+        battle.setPlayer2Language(player.language());
+        battle.setPlayer2RoundsWon(roundsWon);
+    }
+
+    // Most players stick to their main, a few pick something else now and then
+    private int pickCharacter(SplittableRandom random, SimulatedPlayer player) {
+        return random.nextDouble() < 0.85 ? player.mainCharacterId() : characterIds[random.nextInt(characterIds.length)];
+    }
+
+    private BattleType pickBattleType(SplittableRandom random) {
+        double roll = random.nextDouble();
+        if (roll < 0.85) return BattleType.RANKED_BATTLE;
+        if (roll < 0.95) return BattleType.QUICK_BATTLE;
+        return BattleType.PLAYER_BATTLE;
+    }
+
+    private List<SimulatedPlayer> createPlayers(int count) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<SimulatedPlayer> players = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            // Ranks bunch up in the middle of the ladder and thin out towards both ends
+            double gaussian = random.nextDouble() + random.nextDouble() + random.nextDouble() - 1.5;
+            int danRank = (int) Math.max(0, Math.min(MAX_DAN_RANK, Math.round(MAX_DAN_RANK / 2.0 + gaussian * 9)));
+            players.add(new SimulatedPlayer(
+                    Long.toString(100000000000000000L + random.nextLong(900000000000000000L)),
+                    randomId(random, 12),
+                    "SimPlayer" + i,
+                    characterIds[random.nextInt(characterIds.length)],
+                    danRank,
+                    600 + danRank * 60 + random.nextInt(-40, 41),
+                    danRank * 6000L + random.nextLong(20000),
+                    random.nextInt(5),
+                    LANGUAGES[random.nextInt(LANGUAGES.length)]));
+        }
+        players.sort(Comparator.comparingInt(SimulatedPlayer::danRank));
+        return players;
+    }
+
+    private List<JsonNode> readMockBattles() {
+        JsonNode root = readResource(MOCK_BATTLES_RESOURCE);
+        List<JsonNode> battles = new ArrayList<>();
+        if (root.isArray()) {
+            root.forEach(battles::add);
+        } else {
+            battles.add(root);
+        }
+        if (battles.isEmpty()) {
+            throw new IllegalStateException(MOCK_BATTLES_RESOURCE + " contains no battles");
+        }
+        return battles;
+    }
+
+    private JsonNode readResource(String name) {
+        try (InputStream in = new ClassPathResource(name).getInputStream()) {
+            return objectMapper.readTree(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read " + name, e);
+        }
+    }
+
+    private static int[] numericKeys(JsonNode node) {
+        List<Integer> keys = new ArrayList<>();
+        Iterator<String> names = node.fieldNames();
+        while (names.hasNext()) {
+            keys.add(Integer.parseInt(names.next()));
+        }
+        return keys.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Knuth's method, fine for the handful of battles a single second holds
+    private static int poisson(SplittableRandom random, double mean) {
+        if (mean <= 0) return 0;
+        double limit = Math.exp(-Math.min(mean, 500));
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            count++;
+            product *= random.nextDouble();
+        }
+        return count;
+    }
+
+    private static String randomBattleId(SplittableRandom random) {
+        return String.format("%016X%016X", random.nextLong(), random.nextLong());
+    }
+
+    private static String randomId(SplittableRandom random, int length) {
+        StringBuilder id = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            id.append(ID_CHARACTERS.charAt(random.nextInt(ID_CHARACTERS.length())));
+        }
+        return id.toString();
+    }
+
+    private static long mix(long seed, long second) {
+        long z = seed + second * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private record SimulatedPlayer(
+            String userId,
+            String polarisId,
+            String name,
+            int mainCharacterId,
+            int danRank,
+            int rating,
+            long tekkenPower,
+            int regionId,
+            String language) {
+    }
+}
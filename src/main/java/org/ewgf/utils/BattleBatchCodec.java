@@ -0,0 +1,292 @@
+package org.ewgf.utils;
+
+import org.ewgf.models.Battle;
+import org.ewgf.models.BattleType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary form of a battle batch for RabbitMQ messages.
+// Layout: magic, version, string dictionary, battle count, then one record per battle. Numbers are zigzag varints,
+// battle_at is stored as the difference to the previous battle, and every string (names, polaris ids, user ids,
+// languages) is written once in the dictionary and referenced by index, 0 meaning null. Upper case hex battle ids,
+// which is what Wavu sends, are packed into 16 raw bytes.
+public final class BattleBatchCodec {
+
+    private static final byte MAGIC_1 = 'E';
+    private static final byte MAGIC_2 = 'B';
+    private static final byte VERSION = 1;
+
+    private static final int BATTLE_ID_HEX = 1;
+    private static final int BATTLE_ID_STRING = 0;
+    private static final int HEX_ID_LENGTH = 32;
+
+    // Presence bits for the nullable Integer fields
+    private static final int P1_REGION = 1;
+    private static final int P1_RATING_BEFORE = 1 << 1;
+    private static final int P1_RATING_CHANGE = 1 << 2;
+    private static final int P2_REGION = 1 << 3;
+    private static final int P2_RATING_BEFORE = 1 << 4;
+    private static final int P2_RATING_CHANGE = 1 << 5;
+
+    private BattleBatchCodec() {
+    }
+
+    public static byte[] encode(List<Battle> battles) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        Writer body = new Writer(battles.size() * 96);
+
+        long previousBattleAt = 0;
+        for (Battle battle : battles) {
+            writeBattleId(body, battle.getBattleId(), dictionary, strings);
+            body.writeVarInt(stringRef(battle.getDate(), dictionary, strings));
+            body.writeSignedLong(battle.getBattleAt() - previousBattleAt);
+            previousBattleAt = battle.getBattleAt();
+            body.writeVarInt(battle.getBattleType() == null ? 0 : battle.getBattleType().getBattleCode());
+            body.writeSignedLong(battle.getGameVersion());
+            body.writeVarInt(presenceBits(battle));
+
+            body.writeSignedLong(battle.getPlayer1CharacterId());
+            writeOptional(body, battle.getPlayer1RegionId());
+            body.writeVarInt(stringRef(battle.getPlayer1Language(), dictionary, strings));
+            body.writeVarInt(stringRef(battle.getPlayer1Name(), dictionary, strings));
+            body.writeVarInt(stringRef(battle.getPlayer1PolarisId(), dictionary, strings));
+            body.writeSignedLong(battle.getPlayer1TekkenPower());
+            body.writeSignedLong(battle.getPlayer1DanRank());
+            writeOptional(body, battle.getPlayer1RatingBefore());
+            writeOptional(body, battle.getPlayer1RatingChange());
+            body.writeSignedLong(battle.getPlayer1RoundsWon());
+            body.writeVarInt(stringRef(battle.getPlayer1UserId(), dictionary, strings));
+
+            body.writeSignedLong(battle.getPlayer2CharacterId());
+            writeOptional(body, battle.getPlayer2RegionId());
+            body.writeVarInt(stringRef(battle.getPlayer2Language(), dictionary, strings));
+            body.writeVarInt(stringRef(battle.getPlayer2Name(), dictionary, strings));
+            body.writeVarInt(stringRef(battle.getPlayer2PolarisId(), dictionary, strings));
+            body.writeSignedLong(battle.getPlayer2TekkenPower());
+            body.writeSignedLong(battle.getPlayer2DanRank());
+            writeOptional(body, battle.getPlayer2RatingBefore());
+            writeOptional(body, battle.getPlayer2RatingChange());
+            body.writeSignedLong(battle.getPlayer2RoundsWon());
+            body.writeVarInt(stringRef(battle.getPlayer2UserId(), dictionary, strings));
+
+            body.writeSignedLong(battle.getStageId());
+            body.writeSignedLong(battle.getWinner());
+        }
+
+        Writer out = new Writer(body.size() + strings.size() * 16 + 16);
+        out.writeByte(MAGIC_1);
+        out.writeByte(MAGIC_2);
+        out.writeByte(VERSION);
+        out.writeVarInt(strings.size());
+        for (String value : strings) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(utf8.length);
+            out.writeBytes(utf8);
+        }
+        out.writeVarInt(battles.size());
+        body.copyTo(out);
+        return out.toByteArray();
+    }
+
+    public static List<Battle> decode(byte[] data) {
+        Reader in = new Reader(data);
+        if (in.readByte() != MAGIC_1 || in.readByte() != MAGIC_2) {
+            throw new IllegalArgumentException("Not a battle batch");
+        }
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported battle batch version: " + version);
+        }
+
+        String[] strings = new String[in.readVarInt() + 1];
+        for (int i = 1; i < strings.length; i++) {
+            strings[i] = in.readString(in.readVarInt());
+        }
+
+        int count = in.readVarInt();
+        List<Battle> battles = new ArrayList<>(count);
+        long previousBattleAt = 0;
+        for (int i = 0; i < count; i++) {
+            Battle battle = new Battle();
+            battle.setBattleId(readBattleId(in, strings));
+            battle.setDate(strings[in.readVarInt()]);
+            previousBattleAt += in.readSignedLong();
+            battle.setBattleAt(previousBattleAt);
+            int battleCode = in.readVarInt();
+            battle.setBattleType(battleCode == 0 ? null : BattleType.fromValue(battleCode));
+            battle.setGameVersion((int) in.readSignedLong());
+            int present = in.readVarInt();
+
+            battle.setPlayer1CharacterId((int) in.readSignedLong());
+            battle.setPlayer1RegionId(readOptional(in, present, P1_REGION));
+            battle.setPlayer1Language(strings[in.readVarInt()]);
+            battle.setPlayer1Name(strings[in.readVarInt()]);
+            battle.setPlayer1PolarisId(strings[in.readVarInt()]);
+            battle.setPlayer1TekkenPower(in.readSignedLong());
+            battle.setPlayer1DanRank((int) in.readSignedLong());
+            battle.setPlayer1RatingBefore(readOptional(in, present, P1_RATING_BEFORE));
+            battle.setPlayer1RatingChange(readOptional(in, present, P1_RATING_CHANGE));
+            battle.setPlayer1RoundsWon((int) in.readSignedLong());
+            battle.setPlayer1UserId(strings[in.readVarInt()]);
+
+            battle.setPlayer2CharacterId((int) in.readSignedLong());
+            battle.setPlayer2RegionId(readOptional(in, present, P2_REGION));
+            battle.setPlayer2Language(strings[in.readVarInt()]);
+            battle.setPlayer2Name(strings[in.readVarInt()]);
+            battle.setPlayer2PolarisId(strings[in.readVarInt()]);
+            battle.setPlayer2TekkenPower(in.readSignedLong());
+            battle.setPlayer2DanRank((int) in.readSignedLong());
+            battle.setPlayer2RatingBefore(readOptional(in, present, P2_RATING_BEFORE));
+            battle.setPlayer2RatingChange(readOptional(in, present, P2_RATING_CHANGE));
+            battle.setPlayer2RoundsWon((int) in.readSignedLong());
+            battle.setPlayer2UserId(strings[in.readVarInt()]);
+
+            battle.setStageId((int) in.readSignedLong());
+            battle.setWinner((int) in.readSignedLong());
+            battles.add(battle);
+        }
+        return battles;
+    }
+
+    private static int presenceBits(Battle battle) {
+        int bits = 0;
+        if (battle.getPlayer1RegionId() != null) bits |= P1_REGION;
+        if (battle.getPlayer1RatingBefore() != null) bits |= P1_RATING_BEFORE;
+        if (battle.getPlayer1RatingChange() != null) bits |= P1_RATING_CHANGE;
+        if (battle.getPlayer2RegionId() != null) bits |= P2_REGION;
+        if (battle.getPlayer2RatingBefore() != null) bits |= P2_RATING_BEFORE;
+        if (battle.getPlayer2RatingChange() != null) bits |= P2_RATING_CHANGE;
+        return bits;
+    }
+
+    private static void writeOptional(Writer out, Integer value) {
+        if (value != null) out.writeSignedLong(value);
+    }
+
+    private static Integer readOptional(Reader in, int present, int bit) {
+        return (present & bit) != 0 ? (int) in.readSignedLong() : null;
+    }
+
+    private static int stringRef(String value, Map<String, Integer> dictionary, List<String> strings) {
+        if (value == null) return 0;
+        return dictionary.computeIfAbsent(value, key -> {
+            strings.add(key);
+            return strings.size();
+        });
+    }
+
+    private static void writeBattleId(Writer out, String battleId, Map<String, Integer> dictionary, List<String> strings) {
+        if (isUpperHexId(battleId)) {
+            out.writeByte(BATTLE_ID_HEX);
+            for (int i = 0; i < HEX_ID_LENGTH; i += 2) {
+                out.writeByte((Character.digit(battleId.charAt(i), 16) << 4) | Character.digit(battleId.charAt(i + 1), 16));
+            }
+        } else {
+            out.writeByte(BATTLE_ID_STRING);
+            out.writeVarInt(stringRef(battleId, dictionary, strings));
+        }
+    }
+
+    private static String readBattleId(Reader in, String[] strings) {
+        if (in.readByte() == BATTLE_ID_STRING) {
+            return strings[in.readVarInt()];
+        }
+        char[] hex = new char[HEX_ID_LENGTH];
+        for (int i = 0; i < HEX_ID_LENGTH; i += 2) {
+            int b = in.readByte();
+            hex[i] = Character.toUpperCase(Character.forDigit(b >>> 4, 16));
+            hex[i + 1] = Character.toUpperCase(Character.forDigit(b & 0xF, 16));
+        }
+        return new String(hex);
+    }
+
+    private static boolean isUpperHexId(String battleId) {
+        if (battleId == null || battleId.length() != HEX_ID_LENGTH) return false;
+        for (int i = 0; i < HEX_ID_LENGTH; i++) {
+            char c = battleId.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'A' && c <= 'F'))) return false;
+        }
+        return true;
+    }
+
+    private static final class Writer extends ByteArrayOutputStream {
+
+        Writer(int initialSize) {
+            super(initialSize);
+        }
+
+        void writeByte(int b) {
+            write(b);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeSignedLong(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        private void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void copyTo(Writer other) {
+            other.write(buf, 0, count);
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        Reader(byte[] data) {
+            this.data = data;
+        }
+
+        int readByte() {
+            if (position >= data.length) {
+                throw new IllegalArgumentException("Battle batch is truncated");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readSignedLong() {
+            long raw = readVarLong();
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        String readString(int length) {
+            if (position + length > data.length) {
+                throw new IllegalArgumentException("Battle batch is truncated");
+            }
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IllegalArgumentException("Malformed varint in battle batch");
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package org.ewgf.utils;
+
+import org.ewgf.models.Battle;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Aggregates the player and character_stats upsert rows of one battle batch without building entities.
+// Players are interned into dense indexes through an open-addressing table keyed by player id, and character stats are
+// kept in a second table keyed by one long packing player index, character id and game version. All per-row values
+// live in parallel primitive arrays that grow by doubling and are kept between batches: forCurrentThread() hands each
+// consumer thread its own instance, cleared, so a batch allocates nothing once the arrays have reached its size.
+public final class BattleStatsAccumulator {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int MAX_CHARACTER_ID = 0xFFFF;
+    private static final int MAX_GAME_VERSION = 0xFFFFFF;
+    private static final int MAX_PLAYERS = 0xFFFFFF;
+    private static final String[] CHARACTER_ID_STRINGS = new String[256];
+
+    private static final ThreadLocal<BattleStatsAccumulator> PER_THREAD = ThreadLocal.withInitial(BattleStatsAccumulator::new);
+
+    static {
+        for (int i = 0; i < CHARACTER_ID_STRINGS.length; i++) {
+            CHARACTER_ID_STRINGS[i] = String.valueOf(i);
+        }
+    }
+
+    // Players, indexed 0..playerCount-1, and the id -> index table
+    private int playerCount;
+    private String[] playerIds = new String[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private String[] polarisIds = new String[INITIAL_CAPACITY];
+    private String[] languages = new String[INITIAL_CAPACITY];
+    private Integer[] regionIds = new Integer[INITIAL_CAPACITY];
+    private long[] tekkenPowers = new long[INITIAL_CAPACITY];
+    private long[] playerLatestBattles = new long[INITIAL_CAPACITY];
+    private int[] playerTable = newTable(INITIAL_CAPACITY * 2);
+
+    // Character stats, indexed 0..statCount-1, and the packed key -> index table
+    private int statCount;
+    private long[] statKeys = new long[INITIAL_CAPACITY];
+    private int[] danRanks = new int[INITIAL_CAPACITY];
+    private long[] statLatestBattles = new long[INITIAL_CAPACITY];
+    private int[] wins = new int[INITIAL_CAPACITY];
+    private int[] losses = new int[INITIAL_CAPACITY];
+    private int[] statTable = newTable(INITIAL_CAPACITY * 2);
+
+    private int[] sortBuffer = new int[INITIAL_CAPACITY];
+
+    public static BattleStatsAccumulator forCurrentThread() {
+        BattleStatsAccumulator accumulator = PER_THREAD.get();
+        accumulator.clear();
+        return accumulator;
+    }
+
+    public void clear() {
+        // Only the object references are dropped, the primitive slots are overwritten when reused
+        Arrays.fill(playerIds, 0, playerCount, null);
+        Arrays.fill(names, 0, playerCount, null);
+        Arrays.fill(polarisIds, 0, playerCount, null);
+        Arrays.fill(languages, 0, playerCount, null);
+        Arrays.fill(regionIds, 0, playerCount, null);
+        Arrays.fill(playerTable, -1);
+        Arrays.fill(statTable, -1);
+        playerCount = 0;
+        statCount = 0;
+    }
+
+    // Same rules as the entity based aggregation this replaces: a player's profile comes from the first battle seen
+    // for them, the character row's dan rank and latest battle from the newest battle on that character, and a battle
+    // newer than its character row also moves the player's latest battle and tekken power.
+    public void add(Battle battle, int playerNumber) {
+        boolean player1 = playerNumber == 1;
+        String playerId = player1 ? battle.getPlayer1UserId() : battle.getPlayer2UserId();
+        int characterId = player1 ? battle.getPlayer1CharacterId() : battle.getPlayer2CharacterId();
+        int danRank = player1 ? battle.getPlayer1DanRank() : battle.getPlayer2DanRank();
+        long battleAt = battle.getBattleAt();
+
+        int player = findPlayer(playerId);
+        boolean newPlayer = player < 0;
+        if (newPlayer) {
+            player = addPlayer(playerId);
+            names[player] = player1 ? battle.getPlayer1Name() : battle.getPlayer2Name();
+            polarisIds[player] = player1 ? battle.getPlayer1PolarisId() : battle.getPlayer2PolarisId();
+            languages[player] = player1 ? battle.getPlayer1Language() : battle.getPlayer2Language();
+            regionIds[player] = player1 ? battle.getPlayer1RegionId() : battle.getPlayer2RegionId();
+            tekkenPowers[player] = player1 ? battle.getPlayer1TekkenPower() : battle.getPlayer2TekkenPower();
+            playerLatestBattles[player] = battleAt;
+        }
+
+        long key = packKey(player, characterId, battle.getGameVersion());
+        int stat = findStat(key);
+        if (stat < 0) {
+            stat = addStat(key);
+            danRanks[stat] = danRank;
+            // The first row of a new player starts at this battle, rows added later start at 0
+            statLatestBattles[stat] = newPlayer ? battleAt : 0;
+            wins[stat] = 0;
+            losses[stat] = 0;
+        }
+
+        if (battle.getWinner() == playerNumber) {
+            wins[stat]++;
+        } else {
+            losses[stat]++;
+        }
+
+        if (battleAt > statLatestBattles[stat]) {
+            statLatestBattles[stat] = battleAt;
+            playerLatestBattles[player] = battleAt;
+            tekkenPowers[player] = characterId == 1 ? battle.getPlayer1TekkenPower() : battle.getPlayer2TekkenPower();
+            danRanks[stat] = danRank;
+        }
+    }
+
+    public int getPlayerCount() {
+        return playerCount;
+    }
+
+    public int getCharacterStatsCount() {
+        return statCount;
+    }
+
+    // Player indexes ordered by player id. The returned array is reused by the next sort call.
+    public int[] sortedPlayers() {
+        int[] order = indexes(playerCount);
+        mergeSort(order, playerCount, (a, b) -> playerIds[a].compareTo(playerIds[b]));
+        return order;
+    }
+
+    // Character stats indexes ordered by player id, then character id as a string, then game version.
+    // The returned array is reused by the next sort call.
+    public int[] sortedCharacterStats() {
+        int[] order = indexes(statCount);
+        mergeSort(order, statCount, (a, b) -> {
+            int byPlayer = playerIds[playerOf(statKeys[a])].compareTo(playerIds[playerOf(statKeys[b])]);
+            if (byPlayer != 0) return byPlayer;
+            int byCharacter = characterIdString(characterOf(statKeys[a])).compareTo(characterIdString(characterOf(statKeys[b])));
+            if (byCharacter != 0) return byCharacter;
+            return Integer.compare(gameVersionOf(statKeys[a]), gameVersionOf(statKeys[b]));
+        });
+        return order;
+    }
+
+    // View over the accumulated player ids, valid until the accumulator is cleared
+    public List<String> getPlayerIds() {
+        return Arrays.asList(playerIds).subList(0, playerCount);
+    }
+
+    public String getPlayerId(int player) {
+        return playerIds[player];
+    }
+
+    public String getName(int player) {
+        return names[player];
+    }
+
+    public String getPolarisId(int player) {
+        return polarisIds[player];
+    }
+
+    public String getLanguage(int player) {
+        return languages[player];
+    }
+
+    public Integer getRegionId(int player) {
+        return regionIds[player];
+    }
+
+    public long getTekkenPower(int player) {
+        return tekkenPowers[player];
+    }
+
+    public long getPlayerLatestBattle(int player) {
+        return playerLatestBattles[player];
+    }
+
+    public String getStatPlayerId(int stat) {
+        return playerIds[playerOf(statKeys[stat])];
+    }
+
+    public String getStatCharacterId(int stat) {
+        return characterIdString(characterOf(statKeys[stat]));
+    }
+
+    public int getStatGameVersion(int stat) {
+        return gameVersionOf(statKeys[stat]);
+    }
+
+    public int getStatDanRank(int stat) {
+        return danRanks[stat];
+    }
+
+    public long getStatLatestBattle(int stat) {
+        return statLatestBattles[stat];
+    }
+
+    public int getStatWins(int stat) {
+        return wins[stat];
+    }
+
+    public int getStatLosses(int stat) {
+        return losses[stat];
+    }
+
+    private int findPlayer(String playerId) {
+        int mask = playerTable.length - 1;
+        for (int slot = mix(playerId.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int player = playerTable[slot];
+            if (player < 0) return -1;
+            if (playerIds[player].equals(playerId)) return player;
+        }
+    }
+
+    private int addPlayer(String playerId) {
+        if (playerCount == MAX_PLAYERS) {
+            throw new IllegalStateException("Battle batch has more than " + MAX_PLAYERS + " players");
+        }
+        if (playerCount == playerIds.length) growPlayers();
+        int player = playerCount++;
+        playerIds[player] = playerId;
+        insertPlayerSlot(player);
+        if (playerCount * 2 > playerTable.length) rehashPlayers();
+        return player;
+    }
+
+    private void insertPlayerSlot(int player) {
+        int mask = playerTable.length - 1;
+        int slot = mix(playerIds[player].hashCode()) & mask;
+        while (playerTable[slot] >= 0) slot = (slot + 1) & mask;
+        playerTable[slot] = player;
+    }
+
+    private int findStat(long key) {
+        int mask = statTable.length - 1;
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int stat = statTable[slot];
+            if (stat < 0) return -1;
+            if (statKeys[stat] == key) return stat;
+        }
+    }
+
+    private int addStat(long key) {
+        if (statCount == statKeys.length) growStats();
+        int stat = statCount++;
+        statKeys[stat] = key;
+        insertStatSlot(stat);
+        if (statCount * 2 > statTable.length) rehashStats();
+        return stat;
+    }
+
+    private void insertStatSlot(int stat) {
+        int mask = statTable.length - 1;
+        int slot = mix(statKeys[stat]) & mask;
+        while (statTable[slot] >= 0) slot = (slot + 1) & mask;
+        statTable[slot] = stat;
+    }
+
+    private void growPlayers() {
+        int capacity = playerIds.length * 2;
+        playerIds = Arrays.copyOf(playerIds, capacity);
+        names = Arrays.copyOf(names, capacity);
+        polarisIds = Arrays.copyOf(polarisIds, capacity);
+        languages = Arrays.copyOf(languages, capacity);
+        regionIds = Arrays.copyOf(regionIds, capacity);
+        tekkenPowers = Arrays.copyOf(tekkenPowers, capacity);
+        playerLatestBattles = Arrays.copyOf(playerLatestBattles, capacity);
+    }
+
+    private void growStats() {
+        int capacity = statKeys.length * 2;
+        statKeys = Arrays.copyOf(statKeys, capacity);
+        danRanks = Arrays.copyOf(danRanks, capacity);
+        statLatestBattles = Arrays.copyOf(statLatestBattles, capacity);
+        wins = Arrays.copyOf(wins, capacity);
+        losses = Arrays.copyOf(losses, capacity);
+    }
+
+    private void rehashPlayers() {
+        playerTable = newTable(playerTable.length * 2);
+        for (int player = 0; player < playerCount; player++) insertPlayerSlot(player);
+    }
+
+    private void rehashStats() {
+        statTable = newTable(statTable.length * 2);
+        for (int stat = 0; stat < statCount; stat++) insertStatSlot(stat);
+    }
+
+    private int[] indexes(int count) {
+        if (sortBuffer.length < count * 2) sortBuffer = new int[Math.max(count * 2, sortBuffer.length * 2)];
+        for (int i = 0; i < count; i++) sortBuffer[i] = i;
+        return sortBuffer;
+    }
+
+    // Stable bottom-up merge sort of order[0..count), using order[count..2*count) as scratch space
+    private static void mergeSort(int[] order, int count, IndexComparator comparator) {
+        int[] source = order;
+        int sourceOffset = 0;
+        int targetOffset = count;
+        for (int width = 1; width < count; width *= 2) {
+            for (int low = 0; low < count; low += 2 * width) {
+                int middle = Math.min(low + width, count);
+                int high = Math.min(low + 2 * width, count);
+                int left = low;
+                int right = middle;
+                for (int out = low; out < high; out++) {
+                    if (left < middle && (right >= high
+                            || comparator.compare(source[sourceOffset + left], source[sourceOffset + right]) <= 0)) {
+                        source[targetOffset + out] = source[sourceOffset + left++];
+                    } else {
+                        source[targetOffset + out] = source[sourceOffset + right++];
+                    }
+                }
+            }
+            int swap = sourceOffset;
+            sourceOffset = targetOffset;
+            targetOffset = swap;
+        }
+        if (sourceOffset != 0) System.arraycopy(order, sourceOffset, order, 0, count);
+    }
+
+    private static long packKey(int player, int characterId, int gameVersion) {
+        if (characterId < 0 || characterId > MAX_CHARACTER_ID || gameVersion < 0 || gameVersion > MAX_GAME_VERSION) {
+            throw new IllegalArgumentException("Character " + characterId + " or game version " + gameVersion + " out of range");
+        }
+        return ((long) player << 40) | ((long) characterId << 24) | gameVersion;
+    }
+
+    private static int playerOf(long key) {
+        return (int) (key >>> 40);
+    }
+
+    private static int characterOf(long key) {
+        return (int) (key >>> 24) & MAX_CHARACTER_ID;
+    }
+
+    private static int gameVersionOf(long key) {
+        return (int) key & MAX_GAME_VERSION;
+    }
+
+    private static String characterIdString(int characterId) {
+        return characterId < CHARACTER_ID_STRINGS.length ? CHARACTER_ID_STRINGS[characterId] : String.valueOf(characterId);
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int[] newTable(int size) {
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    @FunctionalInterface
+    private interface IndexComparator {
+        int compare(int a, int b);
+    }
+}
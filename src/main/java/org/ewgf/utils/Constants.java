@@ -13,8 +13,14 @@ public class Constants {
     public static final String CHARACTER_ID = "characterId";
     public static final String GLOBAL_REGION = "Global";
     public static final String TIMESTAMP_HEADER = "unixTimestamp";
+    public static final String PLAYER_HANDOFF_HEADER = "playerHandoff";
+    public static final String RETRY_LEVEL_HEADER = "retryLevel";
+    public static final String RETRY_ATTEMPT_HEADER = "retryAttempt";
+    public static final String RETRY_FAILURE_HEADER = "retryFailure";
+    public static final String PARKING_LEVEL = "parked";
     public static final int SEASON_2_GAME_VERSION = 20001;
     public static final int CHUNK_SIZE = 1000;
+    public static final int COVERAGE_WINDOW_SECONDS = 600;
     public static final String GET_PROFILE = "GET_PROFILE";
     public static final String GET_LEADERBOARD_DATA = "GET_LEADERBOARD_DATA";
     public static final String USER_ID = "userId";
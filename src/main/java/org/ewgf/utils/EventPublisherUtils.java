@@ -24,6 +24,6 @@ public class EventPublisherUtils {
     {
         Optional<List<Integer>> gameVersions = characterStatsRepository.findAllGameVersions();
         gameVersions.ifPresent(integers -> eventPublisher.tryPublishEvent(
-                new ReplayProcessingCompletedEvent(new HashSet<>(integers))));
+                new ReplayProcessingCompletedEvent(new HashSet<>(integers), true)));
     }
 }
@@ -0,0 +1,32 @@
+package org.ewgf.utils;
+
+// Chooses how long the live tail waits before its next request.
+// While the tail is more than a window behind it requests again straight away. Once caught up it polls at the
+// minimum interval while new battles keep arriving and doubles the wait, up to the maximum, while they do not.
+public class LiveTailPacer {
+
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+    private long currentIntervalMillis;
+
+    public LiveTailPacer(long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis <= 0 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException(
+                    "Live tail intervals must satisfy 0 < min <= max, got: " + minIntervalMillis + ", " + maxIntervalMillis);
+        }
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.currentIntervalMillis = minIntervalMillis;
+    }
+
+    public synchronized long nextDelayMillis(boolean behind, boolean foundNewBattles) {
+        if (behind) {
+            currentIntervalMillis = minIntervalMillis;
+            return 0;
+        }
+        currentIntervalMillis = foundNewBattles
+                ? minIntervalMillis
+                : Math.min(maxIntervalMillis, currentIntervalMillis * 2);
+        return currentIntervalMillis;
+    }
+}
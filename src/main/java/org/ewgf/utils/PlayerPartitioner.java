@@ -0,0 +1,27 @@
+package org.ewgf.utils;
+
+// Maps a player id to one of a fixed number of partitions. Leading zeros are ignored because ranked battles can
+// carry a truncated id that is padded back to 18 digits later, and both forms must land in the same partition.
+public final class PlayerPartitioner {
+
+    private PlayerPartitioner() {
+    }
+
+    public static int partitionOf(String playerId, int partitions) {
+        if (partitions <= 1 || playerId == null) return 0;
+
+        int start = 0;
+        while (start < playerId.length() - 1 && playerId.charAt(start) == '0') {
+            start++;
+        }
+        int hash = 0;
+        for (int i = start; i < playerId.length(); i++) {
+            hash = 31 * hash + playerId.charAt(i);
+        }
+        // Spread the low bits before taking the remainder, plain String hashes cluster for numeric ids
+        hash ^= hash >>> 16;
+        hash *= 0x45d9f3b;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions);
+    }
+}
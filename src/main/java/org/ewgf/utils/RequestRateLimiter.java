@@ -0,0 +1,45 @@
+package org.ewgf.utils;
+
+import java.util.concurrent.TimeUnit;
+
+// Spaces out requests evenly so that every caller sharing this limiter stays under a global rate
+public class RequestRateLimiter {
+
+    private long intervalNanos;
+    private long nextFreeSlot = System.nanoTime();
+
+    public RequestRateLimiter(double permitsPerSecond) {
+        setRate(permitsPerSecond);
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserveSlot();
+        if (waitNanos > 0) TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+
+    // Takes a permit only if one is free right now, for requests that are better skipped than delayed
+    public synchronized boolean tryAcquire() {
+        long now = System.nanoTime();
+        if (nextFreeSlot > now) return false;
+        nextFreeSlot = now + intervalNanos;
+        return true;
+    }
+
+    public synchronized void setRate(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second must be positive, got: " + permitsPerSecond);
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+    }
+
+    public synchronized double getRate() {
+        return (double) TimeUnit.SECONDS.toNanos(1) / intervalNanos;
+    }
+
+    private synchronized long reserveSlot() {
+        long now = System.nanoTime();
+        long slot = Math.max(nextFreeSlot, now);
+        nextFreeSlot = slot + intervalNanos;
+        return slot - now;
+    }
+}
@@ -0,0 +1,122 @@
+package org.ewgf.utils;
+
+import java.util.BitSet;
+
+// Bloom filter split into time buckets. New keys go into the newest bucket and lookups check every bucket.
+// Once the newest bucket is older than bucketMillis or has taken its expected number of keys, the oldest
+// bucket is cleared and reused, which keeps memory fixed while remembering roughly the last
+// bucketCount * bucketMillis worth of keys.
+public class RotatingBloomFilter {
+
+    private final BitSet[] buckets;
+    private final int[] bucketInsertions;
+    private final int bitsPerBucket;
+    private final int hashFunctions;
+    private final int expectedInsertionsPerBucket;
+    private final long bucketMillis;
+
+    private int newestBucket = 0;
+    private long newestBucketStartedAt;
+
+    public RotatingBloomFilter(int bucketCount, long bucketMillis, int expectedInsertionsPerBucket, double falsePositiveRate) {
+        if (bucketCount < 1 || expectedInsertionsPerBucket < 1) {
+            throw new IllegalArgumentException("Bucket count and expected insertions must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1, got: " + falsePositiveRate);
+        }
+
+        // Standard sizing: m = -n ln(p) / ln(2)^2 and k = m/n ln(2)
+        long bits = (long) Math.ceil(-expectedInsertionsPerBucket * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitsPerBucket = (int) Math.min(Integer.MAX_VALUE - 1, Math.max(64, bits));
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitsPerBucket / expectedInsertionsPerBucket * Math.log(2)));
+        this.expectedInsertionsPerBucket = expectedInsertionsPerBucket;
+        this.bucketMillis = bucketMillis;
+
+        this.buckets = new BitSet[bucketCount];
+        this.bucketInsertions = new int[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            buckets[i] = new BitSet(bitsPerBucket);
+        }
+        this.newestBucketStartedAt = System.currentTimeMillis();
+    }
+
+    public synchronized void put(String key) {
+        rotateIfNeeded();
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        BitSet bucket = buckets[newestBucket];
+        for (int i = 1; i <= hashFunctions; i++) {
+            bucket.set(bitIndex(h1, h2, i));
+        }
+        bucketInsertions[newestBucket]++;
+    }
+
+    public synchronized boolean mightContain(String key) {
+        long hash = hash64(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (BitSet bucket : buckets) {
+            if (containsInBucket(bucket, h1, h2)) return true;
+        }
+        return false;
+    }
+
+    // Probability that a key never added is reported as present, estimated from how many bits are set
+    public synchronized double expectedFalsePositiveRate() {
+        double probabilityOfMissingEveryBucket = 1.0;
+        for (BitSet bucket : buckets) {
+            double fill = (double) bucket.cardinality() / bitsPerBucket;
+            probabilityOfMissingEveryBucket *= 1.0 - Math.pow(fill, hashFunctions);
+        }
+        return 1.0 - probabilityOfMissingEveryBucket;
+    }
+
+    public int getBitsPerBucket() {
+        return bitsPerBucket;
+    }
+
+    public int getHashFunctions() {
+        return hashFunctions;
+    }
+
+    private boolean containsInBucket(BitSet bucket, int h1, int h2) {
+        for (int i = 1; i <= hashFunctions; i++) {
+            if (!bucket.get(bitIndex(h1, h2, i))) return false;
+        }
+        return true;
+    }
+
+    private void rotateIfNeeded() {
+        long now = System.currentTimeMillis();
+        if (now - newestBucketStartedAt < bucketMillis && bucketInsertions[newestBucket] < expectedInsertionsPerBucket) {
+            return;
+        }
+        newestBucket = (newestBucket + 1) % buckets.length;
+        buckets[newestBucket].clear();
+        bucketInsertions[newestBucket] = 0;
+        newestBucketStartedAt = now;
+    }
+
+    // Kirsch-Mitzenmacher double hashing, derives every index from two base hashes
+    private int bitIndex(int h1, int h2, int i) {
+        int combined = h1 + i * h2;
+        return (combined & Integer.MAX_VALUE) % bitsPerBucket;
+    }
+
+    // 64-bit FNV-1a followed by a murmur3 finalizer, so the upper and lower halves are independent enough
+    private static long hash64(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,95 @@
+package org.ewgf.aggregations;
+
+import org.ewgf.aggregations.StatisticsCube.Measure;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("StatisticsCube Unit Tests")
+class StatisticsCubeTest {
+
+    @Test
+    @DisplayName("Should index game versions, characters and regions in ascending order whatever the insertion order")
+    void build_UnorderedInput_SortsDimensions() {
+        StatisticsCube cube = new StatisticsCube.Builder()
+                .add(10901, "8", 3, 5, StatisticsCube.STANDARD, 1, 0, 1, 1)
+                .add(10801, "12", 0, 2, StatisticsCube.STANDARD, 1, 0, 1, 1)
+                .add(10901, "1", 1, 2, StatisticsCube.OVERALL, 1, 0, 1, 1)
+                .build();
+
+        assertThat(cube.getGameVersionCount()).isEqualTo(2);
+        assertThat(cube.getGameVersion(0)).isEqualTo(10801);
+        assertThat(cube.indexOfGameVersion(10901)).isEqualTo(1);
+        assertThat(cube.indexOfGameVersion(10701)).isEqualTo(-1);
+        assertThat(cube.getCharacterId(0)).isEqualTo("1");
+        assertThat(cube.getCharacterId(1)).isEqualTo("12");
+        assertThat(cube.getCharacterId(2)).isEqualTo("8");
+        assertThat(cube.getRegionId(0)).isEqualTo(2);
+        assertThat(cube.getRegionId(1)).isEqualTo(5);
+        assertThat(cube.getDanRankCount()).isEqualTo(4);
+    }
+
+    @Test
+    @DisplayName("Should sum repeated cells and roll up over dan ranges, characters and regions")
+    void sum_RepeatedCells_RollsUp() {
+        StatisticsCube cube = new StatisticsCube.Builder()
+                .add(10901, "8", 27, 1, StatisticsCube.STANDARD, 10, 5, 15, 1)
+                .add(10901, "8", 27, 1, StatisticsCube.STANDARD, 2, 3, 5, 1)
+                .add(10901, "8", 20, 2, StatisticsCube.STANDARD, 4, 4, 8, 1)
+                .add(10901, "9", 28, 2, StatisticsCube.STANDARD, 1, 1, 2, 1)
+                .add(10901, "8", 27, 1, StatisticsCube.OVERALL, 100, 100, 200, 7)
+                .build();
+        int v = cube.indexOfGameVersion(10901);
+
+        assertThat(cube.sum(Measure.WINS, v, 0, 27, 27, 0, StatisticsCube.STANDARD)).isEqualTo(12);
+        assertThat(cube.sum(Measure.PLAYERS, v, 0, 27, 27, 0, StatisticsCube.STANDARD)).isEqualTo(2);
+        assertThat(cube.sum(Measure.REPLAYS, v, 0, 0, Integer.MAX_VALUE, StatisticsCube.ALL, StatisticsCube.STANDARD))
+                .isEqualTo(28);
+        assertThat(cube.sum(Measure.REPLAYS, v, StatisticsCube.ALL, 27, Integer.MAX_VALUE, StatisticsCube.ALL,
+                StatisticsCube.STANDARD)).isEqualTo(22);
+        assertThat(cube.sum(Measure.PLAYERS, v, StatisticsCube.ALL, 0, Integer.MAX_VALUE, StatisticsCube.ALL,
+                StatisticsCube.OVERALL)).isEqualTo(7);
+    }
+
+    @Test
+    @DisplayName("Should tell a stored cell with zero counts apart from a missing one")
+    void isPresent_ZeroCountCell_IsPresent() {
+        StatisticsCube cube = new StatisticsCube.Builder()
+                .add(10901, "8", 10, 1, StatisticsCube.STANDARD, 0, 0, 0, 0)
+                .add(10901, "9", 12, 1, StatisticsCube.STANDARD, 1, 0, 1, 1)
+                .build();
+
+        assertThat(cube.isPresent(0, 0, 10, 10, 0, StatisticsCube.STANDARD)).isTrue();
+        assertThat(cube.sum(Measure.REPLAYS, 0, 0, 10, 10, 0, StatisticsCube.STANDARD)).isZero();
+        assertThat(cube.isPresent(0, 0, 12, 12, 0, StatisticsCube.STANDARD)).isFalse();
+        assertThat(cube.isPresent(0, 0, 0, 14, 0, StatisticsCube.OVERALL)).isFalse();
+    }
+
+    @Test
+    @DisplayName("Should keep every cell when the builder grows past its initial capacity")
+    void build_ManyCells_KeepsAll() {
+        StatisticsCube.Builder builder = new StatisticsCube.Builder();
+        for (int character = 0; character < 40; character++) {
+            for (int dan = 0; dan < 30; dan++) {
+                builder.add(10901, String.valueOf(character), dan, dan % 3, StatisticsCube.OVERALL, 1, 1, 2, 1);
+            }
+        }
+        StatisticsCube cube = builder.build();
+
+        assertThat(cube.sum(Measure.PLAYERS, 0, StatisticsCube.ALL, 0, Integer.MAX_VALUE, StatisticsCube.ALL,
+                StatisticsCube.OVERALL)).isEqualTo(1200);
+        assertThat(cube.sum(Measure.REPLAYS, 0, StatisticsCube.ALL, 0, Integer.MAX_VALUE, StatisticsCube.ALL,
+                StatisticsCube.STANDARD)).isZero();
+    }
+
+    @Test
+    @DisplayName("Should hold no cells when nothing was added")
+    void empty_NoCells_IsEmpty() {
+        StatisticsCube cube = StatisticsCube.empty();
+
+        assertThat(cube.isEmpty()).isTrue();
+        assertThat(cube.getGameVersionCount()).isZero();
+        assertThat(cube.getDanRankCount()).isZero();
+    }
+}
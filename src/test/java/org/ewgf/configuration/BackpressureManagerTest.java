@@ -0,0 +1,108 @@
+package org.ewgf.configuration;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ewgf.services.InMemoryBattleTransport;
+import org.ewgf.utils.RequestRateLimiter;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.core.RabbitAdmin;
+import org.springframework.beans.factory.ObjectProvider;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@DisplayName("BackpressureManager Unit Tests")
+class BackpressureManagerTest {
+
+    private static final String QUEUE = "battles";
+
+    @Mock
+    private RabbitAdmin rabbitAdmin;
+
+    @Mock
+    private ObjectProvider<InMemoryBattleTransport> inMemoryTransport;
+
+    @Mock
+    private RabbitMQConfig rabbitMQConfig;
+
+    private RequestRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        rateLimiter = new RequestRateLimiter(10);
+        when(rabbitMQConfig.getQueueName()).thenReturn(QUEUE);
+    }
+
+    @Test
+    @DisplayName("Should sum the main queue and every partition queue when battles are partitioned")
+    void readQueueDepth_Partitioned_SumsPartitionQueues() {
+        partitioned(3);
+        queueDepths(0, 40, 50, 60);
+
+        assertThat(manager().readQueueDepth()).isEqualTo(150);
+    }
+
+    @Test
+    @DisplayName("Should slow down when only the partition queues are backing up")
+    void adjustFetchRate_PartitionQueuesGrowing_DecreasesRate() {
+        partitioned(2);
+        BackpressureManager manager = manager();
+
+        queueDepths(0, 30, 30);
+        manager.adjustFetchRate();
+        queueDepths(0, 80, 90);
+        manager.adjustFetchRate();
+
+        assertThat(manager.getQueueDepth()).isEqualTo(170);
+        assertThat(rateLimiter.getRate()).isLessThan(10);
+    }
+
+    @Test
+    @DisplayName("Should only read the main queue when battles are not partitioned")
+    void readQueueDepth_NotPartitioned_ReadsMainQueue() {
+        when(rabbitMQConfig.isPartitioned()).thenReturn(false);
+        when(rabbitAdmin.getQueueInfo(QUEUE)).thenReturn(new QueueInformation(QUEUE, 12, 1));
+
+        assertThat(manager().readQueueDepth()).isEqualTo(12);
+        verify(rabbitAdmin, times(1)).getQueueInfo(anyString());
+    }
+
+    @Test
+    @DisplayName("Should report no depth when one of the partition queues is missing")
+    void readQueueDepth_MissingPartitionQueue_ReturnsNull() {
+        partitioned(2);
+        when(rabbitAdmin.getQueueInfo(QUEUE)).thenReturn(new QueueInformation(QUEUE, 0, 1));
+        when(rabbitAdmin.getQueueInfo(QUEUE + ".partition.0")).thenReturn(new QueueInformation(QUEUE + ".partition.0", 5, 1));
+        when(rabbitAdmin.getQueueInfo(QUEUE + ".partition.1")).thenReturn(null);
+
+        assertThat(manager().readQueueDepth()).isNull();
+    }
+
+    private BackpressureManager manager() {
+        return new BackpressureManager(rabbitAdmin, inMemoryTransport, rateLimiter, new SimpleMeterRegistry(),
+                rabbitMQConfig, 50, 1, 1, 0.5);
+    }
+
+    private void partitioned(int partitions) {
+        when(rabbitMQConfig.isPartitioned()).thenReturn(true);
+        when(rabbitMQConfig.getPartitionCount()).thenReturn(partitions);
+        for (int partition = 0; partition < partitions; partition++) {
+            when(rabbitMQConfig.getPartitionQueueName(partition)).thenReturn(QUEUE + ".partition." + partition);
+        }
+    }
+
+    // Main queue depth first, then one per partition
+    private void queueDepths(int main, int... partitions) {
+        when(rabbitAdmin.getQueueInfo(QUEUE)).thenReturn(new QueueInformation(QUEUE, main, 1));
+        for (int partition = 0; partition < partitions.length; partition++) {
+            String name = QUEUE + ".partition." + partition;
+            when(rabbitAdmin.getQueueInfo(name)).thenReturn(new QueueInformation(name, partitions[partition], 1));
+        }
+    }
+}
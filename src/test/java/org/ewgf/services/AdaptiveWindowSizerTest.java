@@ -0,0 +1,79 @@
+package org.ewgf.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ewgf.dtos.WavuFetchSummaryDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("AdaptiveWindowSizer Unit Tests")
+class AdaptiveWindowSizerTest {
+
+    private static final int MAX_WINDOW_SECONDS = 700;
+    private static final int OVERLAP_SECONDS = 60;
+    private static final int PAGE_CAP = 10;
+
+    private SimpleMeterRegistry meterRegistry;
+    private AdaptiveWindowSizer windowSizer;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        windowSizer = new AdaptiveWindowSizer(meterRegistry, MAX_WINDOW_SECONDS, OVERLAP_SECONDS, PAGE_CAP);
+    }
+
+    @Test
+    @DisplayName("Should keep the overlap for recent windows that are not full")
+    void nextBefore_RecentWindow_KeepsOverlap() {
+        long before = Instant.now().getEpochSecond();
+
+        long next = windowSizer.nextBefore(before, battlesAt(before - 10, 3));
+
+        assertThat(next).isEqualTo(before - (MAX_WINDOW_SECONDS - OVERLAP_SECONDS));
+        assertThat(meterRegistry.get("wavu.fetch.window.seconds").gauge().value())
+                .isEqualTo(MAX_WINDOW_SECONDS - OVERLAP_SECONDS);
+    }
+
+    @Test
+    @DisplayName("Should step a full window without overlap once the window is settled")
+    void nextBefore_SettledWindow_DropsOverlap() {
+        long before = Instant.now().getEpochSecond() - 86400;
+
+        long next = windowSizer.nextBefore(before, new WavuFetchSummaryDTO(0, Long.MAX_VALUE, Long.MIN_VALUE));
+
+        assertThat(next).isEqualTo(before - MAX_WINDOW_SECONDS);
+        assertThat(meterRegistry.get("wavu.fetch.requests.saved").gauge().value()).isPositive();
+    }
+
+    @Test
+    @DisplayName("Should split a truncated window at the oldest battle returned")
+    void nextBefore_TruncatedWindow_ContinuesFromOldestBattle() {
+        long before = Instant.now().getEpochSecond() - 86400;
+        WavuFetchSummaryDTO fullPage = battlesAt(before - 120, PAGE_CAP);
+
+        long next = windowSizer.nextBefore(before, fullPage);
+
+        assertThat(next).isEqualTo(before - 120 - (PAGE_CAP - 1));
+        assertThat(meterRegistry.get("wavu.fetch.windows.truncated").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    @DisplayName("Should always move the cursor when every battle shares the same second")
+    void nextBefore_TruncatedWindowAtSingleSecond_StillAdvances() {
+        long before = Instant.now().getEpochSecond() - 86400;
+        WavuFetchSummaryDTO fullPage = new WavuFetchSummaryDTO(PAGE_CAP, before, before);
+
+        long next = windowSizer.nextBefore(before, fullPage);
+
+        assertThat(next).isEqualTo(before - 1);
+    }
+
+    // Summary of battles one second apart, newest first, starting at newestBattleAt
+    private WavuFetchSummaryDTO battlesAt(long newestBattleAt, int count) {
+        return new WavuFetchSummaryDTO(count, newestBattleAt - (count - 1), newestBattleAt);
+    }
+}
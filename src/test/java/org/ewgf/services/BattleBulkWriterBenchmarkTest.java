@@ -0,0 +1,175 @@
+package org.ewgf.services;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.ewgf.models.Battle;
+import org.ewgf.models.BattleType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// Times the batch, unnest and copy insert strategies against PostgreSQL 17 built from init.sql. Excluded from the
+// normal test run; run it with mvn test -Dgroups=benchmark -DexcludedGroups=none -Dtest=BattleBulkWriterBenchmarkTest
+// and read the table it logs. Each timing covers the whole transaction, commit included, as the consumers pay it.
+@Slf4j
+@Tag("benchmark")
+@Testcontainers(disabledWithoutDocker = true)
+@DisplayName("BattleBulkWriter Benchmark")
+class BattleBulkWriterBenchmarkTest {
+
+    private static final int[] BATCH_SIZES = {100, 1000, 5000};
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 10;
+    // Share of each batch that repeats battles from the previous one, as overlapping fetch windows do
+    private static final double DUPLICATE_SHARE = 0.1;
+
+    @Container
+    private static final PostgreSQLContainer<?> POSTGRES = new PostgreSQLContainer<>("postgres:17")
+            .withCopyFileToContainer(MountableFile.forHostPath("init.sql"), "/docker-entrypoint-initdb.d/init.sql");
+
+    private static HikariDataSource dataSource;
+    private static JdbcTemplate jdbcTemplate;
+    private static TransactionTemplate transactionTemplate;
+
+    private final Random random = new Random(42);
+    private long nextBattleId;
+
+    @BeforeAll
+    static void connect() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(POSTGRES.getJdbcUrl());
+        dataSource.setUsername(POSTGRES.getUsername());
+        dataSource.setPassword(POSTGRES.getPassword());
+        // One connection, so copy reuses its staging table between batches as a pooled connection would
+        dataSource.setMaximumPoolSize(1);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    @AfterAll
+    static void disconnect() {
+        if (dataSource != null) dataSource.close();
+    }
+
+    @Test
+    @DisplayName("Should insert only the new battles with every strategy and report how long each batch takes")
+    void insert_EachStrategyAndBatchSize_ReportsTimings() {
+        List<String> report = new ArrayList<>();
+        report.add(String.format(Locale.ROOT, "%-8s %8s %12s %12s %14s",
+                "strategy", "batch", "median ms", "p90 ms", "rows/s"));
+
+        for (int batchSize : BATCH_SIZES) {
+            for (BattleBulkWriter.Strategy strategy : BattleBulkWriter.Strategy.values()) {
+                jdbcTemplate.execute("TRUNCATE battles");
+                BattleBulkWriter writer = new BattleBulkWriter(jdbcTemplate, new SimpleMeterRegistry(),
+                        strategy.name().toLowerCase(Locale.ROOT));
+
+                long[] nanos = new long[MEASURED_ROUNDS];
+                List<Battle> previous = List.of();
+                int expectedRows = 0;
+                for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+                    List<Battle> battles = batch(batchSize, previous);
+                    Set<String> fresh = freshIds(battles, previous);
+
+                    long start = System.nanoTime();
+                    Set<String> inserted = transactionTemplate.execute(status -> writer.insert(battles));
+                    long elapsed = System.nanoTime() - start;
+
+                    assertThat(inserted).isEqualTo(fresh);
+                    expectedRows += fresh.size();
+                    if (round >= WARMUP_ROUNDS) nanos[round - WARMUP_ROUNDS] = elapsed;
+                    previous = battles;
+                }
+
+                assertThat(jdbcTemplate.queryForObject("SELECT count(*) FROM battles", Integer.class))
+                        .isEqualTo(expectedRows);
+
+                Arrays.sort(nanos);
+                double medianMillis = nanos[MEASURED_ROUNDS / 2] / 1_000_000.0;
+                double p90Millis = nanos[(int) Math.ceil(MEASURED_ROUNDS * 0.9) - 1] / 1_000_000.0;
+                report.add(String.format(Locale.ROOT, "%-8s %8d %12.2f %12.2f %14.0f",
+                        strategy.name().toLowerCase(Locale.ROOT), batchSize, medianMillis, p90Millis,
+                        batchSize / (medianMillis / 1000.0)));
+            }
+        }
+
+        log.info("Battle insert benchmark ({} measured rounds after {} warmup rounds, {}% duplicates):\n{}",
+                MEASURED_ROUNDS, WARMUP_ROUNDS, Math.round(DUPLICATE_SHARE * 100), String.join("\n", report));
+    }
+
+    private List<Battle> batch(int size, List<Battle> previous) {
+        int duplicates = Math.min(previous.size(), (int) (size * DUPLICATE_SHARE));
+        List<Battle> battles = new ArrayList<>(previous.subList(previous.size() - duplicates, previous.size()));
+        while (battles.size() < size) {
+            battles.add(battle());
+        }
+        return battles;
+    }
+
+    private static Set<String> freshIds(List<Battle> battles, List<Battle> previous) {
+        Set<String> seen = new HashSet<>();
+        previous.forEach(battle -> seen.add(battle.getBattleId()));
+        Set<String> fresh = new HashSet<>();
+        for (Battle battle : battles) {
+            if (!seen.contains(battle.getBattleId())) fresh.add(battle.getBattleId());
+        }
+        return fresh;
+    }
+
+    private Battle battle() {
+        long battleAt = 1_730_000_000L + nextBattleId;
+        Battle battle = new Battle();
+        battle.setBattleId("benchmark-" + nextBattleId++);
+        battle.setDate(String.valueOf(battleAt));
+        battle.setBattleAt(battleAt);
+        battle.setBattleType(BattleType.RANKED_BATTLE);
+        battle.setGameVersion(10901);
+        battle.setStageId(random.nextInt(30));
+        battle.setWinner(1 + random.nextInt(2));
+
+        battle.setPlayer1UserId(Long.toHexString(random.nextLong()));
+        battle.setPlayer1PolarisId(Long.toHexString(random.nextLong()));
+        battle.setPlayer1Name("player-" + random.nextInt(100_000));
+        battle.setPlayer1CharacterId(random.nextInt(40));
+        battle.setPlayer1RegionId(random.nextInt(5) == 0 ? null : random.nextInt(5));
+        battle.setPlayer1Language(random.nextInt(5) == 0 ? null : "en");
+        battle.setPlayer1TekkenPower(random.nextInt(300_000));
+        battle.setPlayer1DanRank(random.nextInt(30));
+        battle.setPlayer1RatingBefore(random.nextInt(3) == 0 ? null : 1000 + random.nextInt(2000));
+        battle.setPlayer1RatingChange(random.nextInt(3) == 0 ? null : random.nextInt(60) - 30);
+        battle.setPlayer1RoundsWon(random.nextInt(4));
+
+        battle.setPlayer2UserId(Long.toHexString(random.nextLong()));
+        battle.setPlayer2PolarisId(Long.toHexString(random.nextLong()));
+        battle.setPlayer2Name("player-" + random.nextInt(100_000));
+        battle.setPlayer2CharacterId(random.nextInt(40));
+        battle.setPlayer2RegionId(random.nextInt(5) == 0 ? null : random.nextInt(5));
+        battle.setPlayer2Language(random.nextInt(5) == 0 ? null : "ja");
+        battle.setPlayer2TekkenPower(random.nextInt(300_000));
+        battle.setPlayer2DanRank(random.nextInt(30));
+        battle.setPlayer2RatingBefore(random.nextInt(3) == 0 ? null : 1000 + random.nextInt(2000));
+        battle.setPlayer2RatingChange(random.nextInt(3) == 0 ? null : random.nextInt(60) - 30);
+        battle.setPlayer2RoundsWon(random.nextInt(4));
+        return battle;
+    }
+}
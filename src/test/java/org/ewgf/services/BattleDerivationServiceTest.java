@@ -0,0 +1,82 @@
+package org.ewgf.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+@DisplayName("BattleDerivationService Unit Tests")
+class BattleDerivationServiceTest {
+
+    private static final int BATCH_SIZE = 10;
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Mock
+    private BattleProcessingService battleProcessingService;
+
+    private BattleDerivationService derivationService;
+
+    @BeforeEach
+    void setUp() {
+        derivationService = new BattleDerivationService(battleProcessingService, 1, BATCH_SIZE, 10, MAX_ATTEMPTS);
+        // The batch holding the bad battle fails once, after that the queue is empty
+        when(battleProcessingService.derivePendingBattles(anyInt()))
+                .thenThrow(new DataIntegrityViolationException("bad battle"))
+                .thenReturn(0);
+        when(battleProcessingService.findPendingDerivationSeqs(BATCH_SIZE)).thenReturn(List.of(1L, 2L, 3L));
+        when(battleProcessingService.derivePendingBattle(2L)).thenReturn(true);
+        when(battleProcessingService.derivePendingBattle(3L)).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        derivationService.stop();
+    }
+
+    @Test
+    @DisplayName("Should derive the battles behind a failing one and charge the failure to it alone")
+    void derive_BadBattleAtHead_LaterSeqsStillDerived() {
+        doThrow(new DataIntegrityViolationException("bad battle")).when(battleProcessingService).derivePendingBattle(1L);
+
+        derivationService.start();
+
+        verify(battleProcessingService, timeout(2000)).derivePendingBattle(3L);
+        verify(battleProcessingService, timeout(2000)).derivePendingBattle(2L);
+        verify(battleProcessingService, timeout(2000)).recordDerivationFailure(eq(1L), anyString(), eq(MAX_ATTEMPTS));
+        verify(battleProcessingService, never()).recordDerivationFailure(eq(2L), anyString(), anyInt());
+        verify(battleProcessingService, never()).recordDerivationFailure(eq(3L), anyString(), anyInt());
+    }
+
+    @Test
+    @DisplayName("Should not charge an attempt for a transient failure")
+    void derive_TransientFailure_NotCharged() {
+        doThrow(new CannotAcquireLockException("lock timeout")).when(battleProcessingService).derivePendingBattle(1L);
+
+        derivationService.start();
+
+        verify(battleProcessingService, timeout(2000)).derivePendingBattle(3L);
+        verify(battleProcessingService, after(200).never()).recordDerivationFailure(anyLong(), anyString(), anyInt());
+    }
+}
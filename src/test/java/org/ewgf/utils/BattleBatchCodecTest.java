@@ -0,0 +1,104 @@
+package org.ewgf.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ewgf.models.Battle;
+import org.ewgf.models.BattleType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("BattleBatchCodec Unit Tests")
+class BattleBatchCodecTest {
+
+    @Test
+    @DisplayName("Should decode exactly the battles that were encoded")
+    void decode_EncodedBatch_RoundTrips() {
+        List<Battle> battles = createBattles(50);
+
+        List<Battle> decoded = BattleBatchCodec.decode(BattleBatchCodec.encode(battles));
+
+        assertThat(decoded).isEqualTo(battles);
+    }
+
+    @Test
+    @DisplayName("Should keep nulls, negative values and ids that are not upper case hex")
+    void decode_UnusualValues_RoundTrips() {
+        Battle battle = createBattle(0);
+        battle.setBattleId("not-a-hex-id");
+        battle.setBattleType(null);
+        battle.setPlayer1RegionId(null);
+        battle.setPlayer2RatingBefore(null);
+        battle.setPlayer1Name(null);
+        battle.setPlayer2Name("Женякарате");
+        battle.setPlayer1RatingChange(-15);
+        battle.setBattleAt(0);
+
+        List<Battle> decoded = BattleBatchCodec.decode(BattleBatchCodec.encode(List.of(battle)));
+
+        assertThat(decoded).containsExactly(battle);
+    }
+
+    @Test
+    @DisplayName("Should be several times smaller than the JSON form")
+    void encode_TypicalBatch_SmallerThanJson() throws Exception {
+        List<Battle> battles = createBattles(250);
+
+        int binarySize = BattleBatchCodec.encode(battles).length;
+        int jsonSize = new ObjectMapper().writeValueAsBytes(battles).length;
+
+        assertThat(binarySize * 3).isLessThan(jsonSize);
+    }
+
+    @Test
+    @DisplayName("Should reject data that is not a battle batch")
+    void decode_ForeignData_Throws() {
+        assertThatThrownBy(() -> BattleBatchCodec.decode("[{}]".getBytes()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private List<Battle> createBattles(int count) {
+        List<Battle> battles = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            battles.add(createBattle(i));
+        }
+        return battles;
+    }
+
+    private Battle createBattle(int i) {
+        Battle battle = new Battle();
+        battle.setBattleId(String.format("%032X", 0xFCFFC2C315F34506L + i));
+        battle.setBattleAt(1727976179L - i);
+        battle.setBattleType(BattleType.RANKED_BATTLE);
+        battle.setGameVersion(10801);
+        battle.setPlayer1CharacterId(i % 40);
+        battle.setPlayer1RegionId(i % 5);
+        battle.setPlayer1Language("en");
+        battle.setPlayer1Name("Player" + i);
+        battle.setPlayer1PolarisId("2M6BqD762r" + (i % 100));
+        battle.setPlayer1TekkenPower(126036 + i);
+        battle.setPlayer1DanRank(16);
+        battle.setPlayer1RatingBefore(1360);
+        battle.setPlayer1RatingChange(-7);
+        battle.setPlayer1RoundsWon(2);
+        battle.setPlayer1UserId(String.valueOf(554946220922080960L + i));
+        battle.setPlayer2CharacterId(38);
+        battle.setPlayer2RegionId(2);
+        battle.setPlayer2Language("ja");
+        battle.setPlayer2Name("Opponent" + i);
+        battle.setPlayer2PolarisId("326ayaDhqE" + (i % 100));
+        battle.setPlayer2TekkenPower(153566);
+        battle.setPlayer2DanRank(18);
+        battle.setPlayer2RatingBefore(1497);
+        battle.setPlayer2RatingChange(7);
+        battle.setPlayer2RoundsWon(3);
+        battle.setPlayer2UserId(String.valueOf(962111240207172000L + i));
+        battle.setStageId(900);
+        battle.setWinner(2);
+        return battle;
+    }
+}
@@ -0,0 +1,90 @@
+package org.ewgf.utils;
+
+import org.ewgf.models.Battle;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("BattleStatsAccumulator Unit Tests")
+class BattleStatsAccumulatorTest {
+
+    @Test
+    @DisplayName("Should keep the first battle's profile and count wins and losses per character")
+    void add_SamePlayerTwice_AggregatesOneRow() {
+        BattleStatsAccumulator accumulator = BattleStatsAccumulator.forCurrentThread();
+        accumulator.add(battle("100", 8, 1000, 1, 20), 1);
+        accumulator.add(battle("100", 8, 1100, 2, 21), 1);
+
+        assertThat(accumulator.getPlayerCount()).isEqualTo(1);
+        assertThat(accumulator.getName(0)).isEqualTo("player-100-1000");
+        assertThat(accumulator.getPlayerLatestBattle(0)).isEqualTo(1100);
+
+        assertThat(accumulator.getCharacterStatsCount()).isEqualTo(1);
+        assertThat(accumulator.getStatWins(0)).isEqualTo(1);
+        assertThat(accumulator.getStatLosses(0)).isEqualTo(1);
+        assertThat(accumulator.getStatDanRank(0)).isEqualTo(21);
+        assertThat(accumulator.getStatLatestBattle(0)).isEqualTo(1100);
+    }
+
+    @Test
+    @DisplayName("Should not let an older battle overwrite the dan rank of a newer one")
+    void add_OlderBattleLater_KeepsNewestDanRank() {
+        BattleStatsAccumulator accumulator = BattleStatsAccumulator.forCurrentThread();
+        accumulator.add(battle("100", 8, 2000, 1, 25), 1);
+        accumulator.add(battle("100", 8, 1000, 1, 10), 1);
+
+        assertThat(accumulator.getStatDanRank(0)).isEqualTo(25);
+        assertThat(accumulator.getStatLatestBattle(0)).isEqualTo(2000);
+        assertThat(accumulator.getStatWins(0)).isEqualTo(2);
+    }
+
+    @Test
+    @DisplayName("Should order character rows by player id, then character id as text, then game version")
+    void sortedCharacterStats_MixedKeys_MatchesUpsertOrder() {
+        BattleStatsAccumulator accumulator = BattleStatsAccumulator.forCurrentThread();
+        accumulator.add(battle("200", 2, 1000, 1, 1), 1);
+        accumulator.add(battle("100", 2, 1000, 1, 1), 1);
+        accumulator.add(battle("100", 10, 1000, 1, 1), 1);
+
+        int[] order = accumulator.sortedCharacterStats();
+
+        assertThat(accumulator.getStatPlayerId(order[0])).isEqualTo("100");
+        assertThat(accumulator.getStatCharacterId(order[0])).isEqualTo("10");
+        assertThat(accumulator.getStatCharacterId(order[1])).isEqualTo("2");
+        assertThat(accumulator.getStatPlayerId(order[2])).isEqualTo("200");
+    }
+
+    @Test
+    @DisplayName("Should start empty again for the next batch")
+    void forCurrentThread_AfterBatch_IsCleared() {
+        BattleStatsAccumulator accumulator = BattleStatsAccumulator.forCurrentThread();
+        for (int i = 0; i < 1000; i++) {
+            accumulator.add(battle(String.valueOf(i), i % 40, 1000 + i, 1, 1), 1);
+        }
+        assertThat(accumulator.getPlayerCount()).isEqualTo(1000);
+
+        BattleStatsAccumulator next = BattleStatsAccumulator.forCurrentThread();
+
+        assertThat(next).isSameAs(accumulator);
+        assertThat(next.getPlayerCount()).isZero();
+        assertThat(next.getCharacterStatsCount()).isZero();
+    }
+
+    private Battle battle(String player1Id, int player1CharacterId, long battleAt, int winner, int player1DanRank) {
+        Battle battle = new Battle();
+        battle.setBattleId(player1Id + "-" + battleAt);
+        battle.setBattleAt(battleAt);
+        battle.setGameVersion(10901);
+        battle.setPlayer1UserId(player1Id);
+        battle.setPlayer1Name("player-" + player1Id + "-" + battleAt);
+        battle.setPlayer1CharacterId(player1CharacterId);
+        battle.setPlayer1DanRank(player1DanRank);
+        battle.setPlayer1TekkenPower(100000);
+        battle.setPlayer2UserId("999");
+        battle.setPlayer2CharacterId(3);
+        battle.setPlayer2TekkenPower(90000);
+        battle.setWinner(winner);
+        return battle;
+    }
+}
@@ -0,0 +1,44 @@
+package org.ewgf.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@DisplayName("PlayerPartitioner Unit Tests")
+class PlayerPartitionerTest {
+
+    @Test
+    @DisplayName("Should put padded and truncated forms of an id in the same partition")
+    void partitionOf_LeadingZeros_SamePartition() {
+        for (int partitions = 2; partitions <= 16; partitions++) {
+            assertThat(PlayerPartitioner.partitionOf("054946220922080960", partitions))
+                    .isEqualTo(PlayerPartitioner.partitionOf("54946220922080960", partitions));
+        }
+    }
+
+    @Test
+    @DisplayName("Should use a single partition when partitioning is off")
+    void partitionOf_SinglePartition_ReturnsZero() {
+        assertThat(PlayerPartitioner.partitionOf("554946220922080960", 0)).isZero();
+        assertThat(PlayerPartitioner.partitionOf("554946220922080960", 1)).isZero();
+        assertThat(PlayerPartitioner.partitionOf(null, 8)).isZero();
+    }
+
+    @Test
+    @DisplayName("Should spread consecutive ids over every partition")
+    void partitionOf_ConsecutiveIds_SpreadEvenly() {
+        int partitions = 8;
+        int players = 8000;
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (int i = 0; i < players; i++) {
+            counts.merge(PlayerPartitioner.partitionOf(String.valueOf(554946220922080960L + i), partitions), 1, Integer::sum);
+        }
+
+        assertThat(counts).hasSize(partitions);
+        assertThat(counts.values()).allSatisfy(count -> assertThat(count).isBetween(players / partitions / 2, players / partitions * 2));
+    }
+}
@@ -0,0 +1,63 @@
+package org.ewgf.utils;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@DisplayName("RotatingBloomFilter Unit Tests")
+class RotatingBloomFilterTest {
+
+    private static final long ONE_HOUR_MILLIS = 3600000L;
+
+    @Test
+    @DisplayName("Should never report a stored key as missing")
+    void mightContain_StoredKeys_AlwaysTrue() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(4, ONE_HOUR_MILLIS, 10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("battle-" + i);
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain("battle-" + i)).isTrue();
+        }
+    }
+
+    @Test
+    @DisplayName("Should keep false positives close to the configured rate")
+    void mightContain_UnknownKeys_RespectsFalsePositiveRate() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1, ONE_HOUR_MILLIS, 10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("battle-" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain("unknown-" + i)) falsePositives++;
+        }
+
+        assertThat(falsePositives / 100000.0).isLessThan(0.02);
+        assertThat(filter.expectedFalsePositiveRate()).isLessThan(0.02);
+    }
+
+    @Test
+    @DisplayName("Should forget the oldest bucket once every bucket has filled up")
+    void put_BeyondCapacity_RotatesOutOldestKeys() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(2, ONE_HOUR_MILLIS, 1000, 0.001);
+        filter.put("oldest");
+        for (int i = 0; i < 2000; i++) {
+            filter.put("battle-" + i);
+        }
+
+        assertThat(filter.mightContain("oldest")).isFalse();
+        assertThat(filter.mightContain("battle-1999")).isTrue();
+    }
+
+    @Test
+    @DisplayName("Should reject an impossible false positive rate")
+    void constructor_InvalidFalsePositiveRate_Throws() {
+        assertThatThrownBy(() -> new RotatingBloomFilter(2, ONE_HOUR_MILLIS, 1000, 1.5))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,64 @@
+-- Brings a database created from an older init.sql up to date. Safe to run more than once.
+SET statement_timeout = 0;
+SET lock_timeout = 0;
+SET client_encoding = 'UTF8';
+SET client_min_messages = warning;
+
+-- Table Definitions
+CREATE TABLE IF NOT EXISTS public.ingestion_cursor (
+    cursor_name character varying NOT NULL,
+    fetch_timestamp bigint NOT NULL,
+    lower_bound bigint NOT NULL DEFAULT 0,
+    upper_bound bigint NOT NULL DEFAULT 0,
+    fetching_new_replays boolean NOT NULL DEFAULT false,
+    updated_at timestamp without time zone,
+    CONSTRAINT ingestion_cursor_pkey PRIMARY KEY (cursor_name)
+);
+
+CREATE TABLE IF NOT EXISTS public.battle_coverage (
+    window_start bigint NOT NULL,
+    stored_count integer NOT NULL DEFAULT 0,
+    reported_count integer,
+    reported_at timestamp without time zone,
+    CONSTRAINT battle_coverage_pkey PRIMARY KEY (window_start)
+);
+
+-- Present once battle_coverage has been built from the stored battles
+CREATE TABLE IF NOT EXISTS public.battle_coverage_seed (
+    id integer NOT NULL,
+    seeded_at timestamp without time zone NOT NULL,
+    CONSTRAINT battle_coverage_seed_pkey PRIMARY KEY (id)
+);
+
+CREATE TABLE IF NOT EXISTS public.pending_player_handoffs (
+    battle_id character varying NOT NULL,
+    partition integer NOT NULL,
+    created_at timestamp without time zone NOT NULL DEFAULT now(),
+    CONSTRAINT pending_player_handoffs_pkey PRIMARY KEY (battle_id)
+);
+
+CREATE TABLE IF NOT EXISTS public.tekken_stats_summary_stripes (
+    stripe integer NOT NULL,
+    ranked_replays bigint NOT NULL DEFAULT 0,
+    unranked_replays bigint NOT NULL DEFAULT 0,
+    CONSTRAINT tekken_stats_summary_stripes_pkey PRIMARY KEY (stripe)
+);
+
+CREATE TABLE IF NOT EXISTS public.pending_battle_derivations (
+    seq bigserial NOT NULL,
+    battle_id character varying NOT NULL,
+    ranked boolean NOT NULL,
+    created_at timestamp without time zone NOT NULL DEFAULT now(),
+    attempts integer NOT NULL DEFAULT 0,
+    last_error text,
+    parked_at timestamp without time zone,
+    CONSTRAINT pending_battle_derivations_pkey PRIMARY KEY (seq)
+);
+
+ALTER TABLE public.pending_battle_derivations ADD COLUMN IF NOT EXISTS attempts integer NOT NULL DEFAULT 0;
+ALTER TABLE public.pending_battle_derivations ADD COLUMN IF NOT EXISTS last_error text;
+ALTER TABLE public.pending_battle_derivations ADD COLUMN IF NOT EXISTS parked_at timestamp without time zone;
+
+-- Indexes
+-- Built without blocking battle inserts, so run this file outside a transaction (plain psql -f does)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_battle_type_battle_at ON public.battles USING btree (battle_type, battle_at);